@@ -27,6 +27,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // The load harness runs the real network stack on the JVM; android.* stubs return defaults.
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 group = "com.github.avitaliskhakov"
@@ -37,6 +41,7 @@ dependencies {
     implementation(libs.appcompat)
     implementation(libs.material)
     testImplementation(libs.junit)
+    testImplementation(libs.robolectric)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 
@@ -46,6 +51,9 @@ dependencies {
     implementation (libs.glide)
     annotationProcessor(libs.compiler)
 
+    implementation(libs.work.runtime)
+    implementation(libs.lifecycle.viewmodel)
+
     implementation("com.github.avitalVissoky:MultiStateViewX:1.0.0")
 
 }
@@ -1,11 +1,18 @@
 package com.avitaliskhakov.librarychat.api;
 import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.ChatRoomPage;
 import com.avitaliskhakov.librarychat.model.Content;
+import com.avitaliskhakov.librarychat.model.LinkPreview;
 import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.model.ParticipantPage;
+import com.avitaliskhakov.librarychat.model.RoomUpdate;
+import com.avitaliskhakov.librarychat.model.SearchPage;
 
 import java.util.List;
 import java.util.Map;
 
+import okhttp3.MultipartBody;
 import retrofit2.Call;
 import retrofit2.http.*;
 
@@ -21,6 +28,41 @@ public interface ChatApi {
                 @Query("limit") int limit
         );
 
+        // Newest page for a null cursor, then each page's nextCursor. beforeMessageId starts a walk
+        // from a message the client already has, e.g. above a page loaded around a search hit.
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/messages/page")
+        Call<MessagePage> getMessagePage(
+                @Query("chatRoomId") String chatRoomId,
+                @Query("cursor") String cursor,
+                @Query("beforeMessageId") String beforeMessageId,
+                @Query("limit") int limit
+        );
+
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/messages/around")
+        Call<List<Message>> getMessagesAround(
+                @Query("chatRoomId") String chatRoomId,
+                @Query("messageId") String messageId,
+                @Query("limit") int limit
+        );
+
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/messages/search")
+        Call<SearchPage> searchMessages(
+                @Query("userId") String userId,
+                @Query("chatRoomId") String chatRoomId,
+                @Query("query") String query,
+                @Query("cursor") String cursor,
+                @Query("limit") int limit
+        );
+
         @Headers({
                 "Content-Type: application/json",
                 "Accept: application/json"
@@ -87,6 +129,16 @@ public interface ChatApi {
         Call<List<ChatRoomInfo>> getUserChatRooms(
                 @Query("userId") String userId
         );
+        // Rooms ordered by lastActivityAt, newest first, then by id.
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/chatrooms/userRooms/page")
+        Call<ChatRoomPage> getUserChatRoomPage(
+                @Query("userId") String userId,
+                @Query("cursor") String cursor,
+                @Query("limit") int limit
+        );
         @Headers({
                 "Accept: application/json"
         })
@@ -95,4 +147,69 @@ public interface ChatApi {
                 @Query("roomId") String roomId
         );
 
+        // Members in user id order; pass each page's nextCursor for the next one.
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/chatrooms/participants/page")
+        Call<ParticipantPage> getParticipantPage(
+                @Query("roomId") String roomId,
+                @Query("cursor") String cursor,
+                @Query("limit") int limit
+        );
+
+        // {"isParticipant": true|false}, without transferring the member list.
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/chatrooms/isParticipant")
+        Call<Map<String, Boolean>> isParticipant(
+                @Query("roomId") String roomId,
+                @Query("userId") String userId
+        );
+
+        @Headers({
+                "Content-Type: application/json",
+                "Accept: application/json"
+        })
+        @POST("/receipts/batch")
+        Call<Void> reportReadReceipts(
+                @Query("userId") String userId,
+                @Body Map<String, String> lastSeenByRoom
+        );
+
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/receipts/room")
+        Call<Map<String, String>> getReadReceipts(
+                @Query("chatRoomId") String chatRoomId
+        );
+
+        @Headers({
+                "Content-Type: application/json",
+                "Accept: application/json"
+        })
+        @POST("/rooms/poll")
+        Call<List<RoomUpdate>> pollRooms(
+                @Query("userId") String userId,
+                @Body Map<String, String> cursorByRoom
+        );
+
+        @Headers({
+                "Accept: application/json"
+        })
+        @Multipart
+        @POST("/media/upload")
+        Call<Map<String, String>> uploadMedia(
+                @Query("chatRoomId") String chatRoomId,
+                @Part MultipartBody.Part file
+        );
+
+        @Headers({
+                "Accept: application/json"
+        })
+        @GET("/unfurl")
+        Call<LinkPreview> unfurl(@Query("url") String url);
+
 }
@@ -0,0 +1,126 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.os.Process;
+
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+// Shares one connection pool and interceptor chain between all controllers, with a ChatApi
+// per RequestClass backed by its own dispatcher and concurrency budget.
+public class ChatApiProvider {
+
+    static final String BASE_URL = "https://straightforward-freddy-avital-bcd688c4.koyeb.app";
+
+    private static ChatApiProvider instance;
+    // The last stack built for a base URL other than the configured one; see forBaseUrl.
+    private static ChatApiProvider detached;
+
+    private final String baseUrl;
+    private final Map<RequestClass, ChatApi> apis = new EnumMap<>(RequestClass.class);
+    private final Map<RequestClass, OkHttpClient> clients = new EnumMap<>(RequestClass.class);
+
+    private ChatApiProvider(String baseUrl) {
+        this.baseUrl = baseUrl;
+
+        // Defaults until NetworkPolicy has samples; the interceptor then sets timeouts per call.
+        // Retries and circuit breaking happen per call in RetryingCall, see RetryCallAdapterFactory.
+        OkHttpClient base = new OkHttpClient.Builder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .addInterceptor(new NetworkSampleInterceptor(NetworkPolicy.getInstance()))
+                .build();
+
+        Gson gson = new GsonBuilder().setLenient().create();
+        GsonConverterFactory converter = GsonConverterFactory.create(gson);
+
+        for (RequestClass requestClass : RequestClass.values()) {
+            Dispatcher dispatcher = new Dispatcher(createExecutor(requestClass));
+            dispatcher.setMaxRequests(requestClass.maxConcurrentRequests);
+            dispatcher.setMaxRequestsPerHost(requestClass.maxConcurrentRequests);
+
+            OkHttpClient client = base.newBuilder().dispatcher(dispatcher).build();
+            Retrofit retrofit = new Retrofit.Builder()
+                    .baseUrl(baseUrl)
+                    .addConverterFactory(converter)
+                    .addCallAdapterFactory(new RetryCallAdapterFactory())
+                    .client(client)
+                    .build();
+            clients.put(requestClass, client);
+            apis.put(requestClass, retrofit.create(ChatApi.class));
+        }
+    }
+
+    // Builds the stack on first use, keep this off the main thread (see ChatSdk).
+    public static synchronized ChatApiProvider getInstance() {
+        if (instance == null || !instance.matchesConfig()) {
+            instance = new ChatApiProvider(configuredBaseUrl());
+        }
+        return instance;
+    }
+
+    // The shared stack when it already targets baseUrl, otherwise one of its own, e.g. for a
+    // background worker running before the app has configured the SDK. That one is kept for the
+    // next run and shut down once a different URL replaces it.
+    static synchronized ChatApiProvider forBaseUrl(String baseUrl) {
+        if (baseUrl.equals(configuredBaseUrl())) {
+            return getInstance();
+        }
+        if (detached == null || !detached.baseUrl.equals(baseUrl)) {
+            if (detached != null) detached.shutdown();
+            detached = new ChatApiProvider(baseUrl);
+        }
+        return detached;
+    }
+
+    boolean matchesConfig() {
+        return baseUrl.equals(configuredBaseUrl());
+    }
+
+    static String configuredBaseUrl() {
+        return ChatConfig.getBaseUrl() != null ? ChatConfig.getBaseUrl() : BASE_URL;
+    }
+
+    public ChatApi api(RequestClass requestClass) {
+        return apis.get(requestClass);
+    }
+
+    // For plain HTTP such as media range reads, sharing the pool and the class's dispatcher.
+    public OkHttpClient client(RequestClass requestClass) {
+        return clients.get(requestClass);
+    }
+
+    // Calls already running finish; their idle connections and threads are released.
+    private void shutdown() {
+        for (OkHttpClient client : clients.values()) {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private static ExecutorService createExecutor(RequestClass requestClass) {
+        String name = "librarychat-" + requestClass.name().toLowerCase();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(requestClass.threadPriority);
+                        runnable.run();
+                    }, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
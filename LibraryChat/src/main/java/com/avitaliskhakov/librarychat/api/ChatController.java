@@ -1,77 +1,243 @@
 package com.avitaliskhakov.librarychat.api;
 
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.avitaliskhakov.librarychat.media.MediaPreparer;
+import com.avitaliskhakov.librarychat.media.PreparedMedia;
 import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.ChatRoomPage;
 import com.avitaliskhakov.librarychat.model.Content;
+import com.avitaliskhakov.librarychat.model.Icontent;
 import com.avitaliskhakov.librarychat.model.Message;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.model.ParticipantPage;
+import com.avitaliskhakov.librarychat.model.ReadReceipts;
+import com.avitaliskhakov.librarychat.model.SearchPage;
+import com.avitaliskhakov.librarychat.store.MediaCache;
+import com.avitaliskhakov.librarychat.store.MessageSearchIndex;
+import com.avitaliskhakov.librarychat.store.ParticipantCache;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import okhttp3.OkHttpClient;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
-import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
 
 public class ChatController {
 
-    private static final String BASE_URL = "https://straightforward-freddy-avital-bcd688c4.koyeb.app";
     private final CallBack_Chat callBackChat;
-    private final ChatApi chatApi;
+    private final MessageSearchIndex searchIndex;
+    private final Set<Call<?>> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean cancelled;
 
     public ChatController(CallBack_Chat callBackChat) {
-        this.callBackChat = callBackChat;
-
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)  // Increased from 10
-                .readTimeout(30, TimeUnit.SECONDS)     // Increased from 15
-                .writeTimeout(30, TimeUnit.SECONDS)    // Increased from 15
-                .build();
-
-        Gson gson = new GsonBuilder().setLenient().create();
-
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(BASE_URL)
-                .addConverterFactory(GsonConverterFactory.create(gson))
-                .client(client)
-                .build();
+        this(null, callBackChat);
+    }
 
-        chatApi = retrofit.create(ChatApi.class);
+    // With a context, fetched, sent, edited and deleted messages are also kept in the local search index.
+    public ChatController(Context context, CallBack_Chat callBackChat) {
+        this.callBackChat = callBackChat;
+        this.searchIndex = context != null ? MessageSearchIndex.getInstance(context) : null;
     }
 
     public void fetchMessages(String chatRoomId, String lastCreatedAt, int limit) {
-        chatApi.getMessages(chatRoomId, lastCreatedAt, limit).enqueue(createListCallback(response -> {
+        fetchMessages(chatRoomId, lastCreatedAt, limit, RequestClass.VISIBLE);
+    }
+
+    // Use RequestClass.PREFETCH for pages loaded ahead of the viewport.
+    public void fetchMessages(String chatRoomId, String lastCreatedAt, int limit, RequestClass requestClass) {
+        enqueue(requestClass, api -> api.getMessages(chatRoomId, lastCreatedAt, limit), createListCallback(response -> {
             // Handle empty response gracefully
             if (response == null) {
                 callBackChat.success(new ArrayList<>());
             } else {
+                if (searchIndex != null) searchIndex.indexMessages(response);
                 callBackChat.success(response);
             }
         }));
     }
 
+    // Keyset paging: pass null for the newest page, then the nextCursor of the previous page until
+    // hasMore is false. beforeMessageId (with a null cursor) starts just above a known message.
+    public void fetchMessagePage(String chatRoomId, String cursor, String beforeMessageId, int limit,
+                                 RequestClass requestClass) {
+        enqueue(requestClass, api -> api.getMessagePage(chatRoomId, cursor, beforeMessageId, limit), new Callback<MessagePage>() {
+            @Override
+            public void onResponse(Call<MessagePage> call, Response<MessagePage> response) {
+                if (response.isSuccessful() || response.code() == 404) {
+                    MessagePage page = response.body() != null ? response.body() : new MessagePage(new ArrayList<>(), null, false);
+                    if (searchIndex != null) searchIndex.indexMessages(page.getMessages());
+                    callBackChat.messagePageFetched(chatRoomId, cursor, page);
+                } else {
+                    callBackChat.error("Page error: " + getError(response));
+                }
+            }
+
+            @Override
+            public void onFailure(Call<MessagePage> call, Throwable t) {
+                callBackChat.error("Page failure: " + t.getMessage());
+            }
+        });
+    }
+
+    // Loads only the page surrounding a message, e.g. after tapping a search result.
+    public void fetchMessagesAround(String chatRoomId, String messageId, int limit) {
+        enqueue(RequestClass.VISIBLE, api -> api.getMessagesAround(chatRoomId, messageId, limit), createListCallback(response -> {
+            if (searchIndex != null) searchIndex.indexMessages(response);
+            callBackChat.messagesAroundFetched(messageId, response);
+        }));
+    }
+
+    // Server-side search, scoped to one room or, with a null chatRoomId, to all of the user's rooms.
+    public void searchMessages(String userId, String chatRoomId, String query, String cursor, int limit) {
+        enqueue(RequestClass.VISIBLE, api -> api.searchMessages(userId, chatRoomId, query, cursor, limit), new Callback<SearchPage>() {
+            @Override
+            public void onResponse(Call<SearchPage> call, Response<SearchPage> response) {
+                if (response.isSuccessful()) {
+                    callBackChat.searchResultsFetched(query,
+                            response.body() != null ? response.body() : new SearchPage(new ArrayList<>(), null));
+                } else {
+                    callBackChat.error("Search error: " + getError(response));
+                }
+            }
+
+            @Override
+            public void onFailure(Call<SearchPage> call, Throwable t) {
+                callBackChat.error("Search failure: " + t.getMessage());
+            }
+        });
+    }
+
     public void sendMessage(Message message) {
-        chatApi.sendMessage(message).enqueue(createMapCallback(callBackChat::messageSent));
+        enqueue(RequestClass.INTERACTIVE, api -> api.sendMessage(message), createMapCallback(response -> {
+            Message sent = response != null ? response.get("message") : null;
+            if (searchIndex != null && sent != null) searchIndex.indexMessage(sent);
+            if (sent != null) ChatEventBus.getInstance().postMessageCreated(sent);
+            callBackChat.messageSent(response);
+        }));
+    }
+
+    // Shrinks IMG, AUDIO or VIDEO content off the main thread (see MediaPreparer), uploads it and
+    // sends a message whose content is the uploaded URL.
+    public void sendMedia(Context context, Uri source, Icontent.contentType type, String chatRoomId, String senderId,
+                          MediaSendListener listener) {
+        MediaPreparer.getInstance(context).prepare(source, type, new MediaPreparer.Listener() {
+            @Override
+            public void onProgress(float fraction) {
+                listener.onProgress(MediaSendListener.Stage.PREPARING, fraction);
+            }
+
+            @Override
+            public void onPrepared(PreparedMedia media) {
+                uploadMedia(context, media, chatRoomId, senderId, listener);
+            }
+
+            @Override
+            public void onFailed(String error) {
+                listener.onFailed(MediaSendListener.Stage.PREPARING, error);
+                callBackChat.error(error);
+            }
+        });
+    }
+
+    private void uploadMedia(Context context, PreparedMedia media, String chatRoomId, String senderId,
+                             MediaSendListener listener) {
+        long start = SystemClock.elapsedRealtime();
+        int[] lastPercent = {-1};
+        ProgressRequestBody body = new ProgressRequestBody(media.getFile(), MediaType.parse(media.getMimeType()),
+                (bytes, total) -> {
+                    int percent = total > 0 ? (int) (bytes * 100 / total) : 0;
+                    if (percent != lastPercent[0]) {
+                        lastPercent[0] = percent;
+                        ChatExecutors.runOnMain(() -> listener.onProgress(MediaSendListener.Stage.UPLOADING, percent / 100f));
+                    }
+                });
+        MultipartBody.Part part = MultipartBody.Part.createFormData("file", media.getFile().getName(), body);
+        enqueue(RequestClass.UPLOAD, api -> api.uploadMedia(chatRoomId, part), new Callback<Map<String, String>>() {
+            @Override
+            public void onResponse(Call<Map<String, String>> call, Response<Map<String, String>> response) {
+                long uploadMs = SystemClock.elapsedRealtime() - start;
+                String url = response.isSuccessful() && response.body() != null ? response.body().get("url") : null;
+                boolean kept = false;
+                try {
+                    if (url == null) {
+                        fail(response.isSuccessful() ? "Upload returned no URL" : "Upload failed: " + getError(response));
+                        return;
+                    }
+                    keepForPlayback(context, url, media);
+                    kept = true;
+                } finally {
+                    // The prepared file is a temporary copy; only keepForPlayback takes it over.
+                    if (!kept) media.delete();
+                }
+                Log.d("ChatController", "Uploaded " + media.getPreparedBytes() + " of " + media.getOriginalBytes()
+                        + " bytes, prepare " + media.getPrepareMs() + " ms, upload " + uploadMs + " ms");
+                listener.onUploaded(media, uploadMs);
+                sendMessage(new Message(null, chatRoomId, senderId, new Content(url, media.getContentType(), null)));
+            }
+
+            @Override
+            public void onFailure(Call<Map<String, String>> call, Throwable t) {
+                media.delete();
+                fail("Upload failed: " + t.getMessage());
+            }
+
+            private void fail(String error) {
+                listener.onFailed(MediaSendListener.Stage.UPLOADING, error);
+                callBackChat.error(error);
+            }
+        });
+    }
+
+    // Our own voice notes and videos play back from disk instead of being downloaded again.
+    private void keepForPlayback(Context context, String url, PreparedMedia media) {
+        if (media.getContentType() == Icontent.contentType.IMG) {
+            media.delete();
+            return;
+        }
+        MediaCache cache = MediaCache.getInstance(context);
+        ChatExecutors.background().execute(() -> {
+            try {
+                cache.importFile(url, media.getFile());
+            } catch (IOException e) {
+                Log.w("ChatController", "Could not cache uploaded media", e);
+            } finally {
+                media.delete();
+            }
+        });
     }
 
     public void deleteMessage(String msgId, String chatRoomId) {
-        chatApi.deleteMessage(msgId, chatRoomId).enqueue(createMapStringCallback(callBackChat::messageDeleted));
+        enqueue(RequestClass.INTERACTIVE, api -> api.deleteMessage(msgId, chatRoomId), createMapStringCallback(response -> {
+            if (searchIndex != null) searchIndex.removeMessage(msgId);
+            ChatEventBus.getInstance().postMessageDeleted(chatRoomId, msgId);
+            callBackChat.messageDeleted(response);
+        }));
     }
 
     public void updateMessage(String msgId, Content content) {
-        chatApi.updateMessage(msgId, content).enqueue(createMapCallback(callBackChat::messageUpdated));
+        enqueue(RequestClass.INTERACTIVE, api -> api.updateMessage(msgId, content), createMapCallback(response -> {
+            Message updated = response != null ? response.get("Message") : null;
+            if (searchIndex != null && updated != null) searchIndex.indexMessage(updated);
+            if (updated != null) ChatEventBus.getInstance().postMessageEdited(updated);
+            callBackChat.messageUpdated(response);
+        }));
     }
 
     public void setTypingStatus(String chatRoomId, String userId, boolean isTyping) {
-        chatApi.setTypingStatus(chatRoomId, userId, isTyping).enqueue(new Callback<Void>() {
+        enqueue(RequestClass.BACKGROUND, api -> api.setTypingStatus(chatRoomId, userId, isTyping), new Callback<Void>() {
             @Override
             public void onResponse(Call<Void> call, Response<Void> response) {}
 
@@ -83,7 +249,7 @@ public class ChatController {
     }
 
     public void fetchTypingStatus(String chatRoomId) {
-        chatApi.getTypingStatus(chatRoomId).enqueue(new Callback<Map<String, Boolean>>() {
+        enqueue(RequestClass.BACKGROUND, api -> api.getTypingStatus(chatRoomId), new Callback<Map<String, Boolean>>() {
             @Override
             public void onResponse(Call<Map<String, Boolean>> call, Response<Map<String, Boolean>> response) {
                 if (response.isSuccessful() && response.body() != null) {
@@ -102,15 +268,26 @@ public class ChatController {
     }
 
     public void createChatRoom(String title, String creatorId) {
-        chatApi.createChatRoom(title, creatorId).enqueue(createMapStringCallback(callBackChat::chatRoomCreated));
+        enqueue(RequestClass.INTERACTIVE, api -> api.createChatRoom(title, creatorId), createMapStringCallback(response -> {
+            String roomId = response != null ? response.get("roomId") : null;
+            if (roomId != null) {
+                ChatRoomInfo room = new ChatRoomInfo(roomId, title);
+                room.setCreator(creatorId);
+                room.setLastActivityAtMillis(System.currentTimeMillis());
+                ChatEventBus.getInstance().postRoomCreated(room);
+            }
+            callBackChat.chatRoomCreated(response);
+        }));
     }
 
     public void addParticipants(String roomId, List<String> userIds) {
-        chatApi.addParticipants(roomId, userIds).enqueue(createMapStringCallback(response -> {}));
+        List<String> added = new ArrayList<>(userIds);
+        enqueue(RequestClass.INTERACTIVE, api -> api.addParticipants(roomId, added),
+                createMapStringCallback(response -> ChatEventBus.getInstance().postParticipantsChanged(roomId, added)));
     }
 
     public void getUserChatRooms(String userId) {
-        chatApi.getUserChatRooms(userId).enqueue(new Callback<List<ChatRoomInfo>>() {
+        enqueue(RequestClass.VISIBLE, api -> api.getUserChatRooms(userId), new Callback<List<ChatRoomInfo>>() {
             @Override
             public void onResponse(Call<List<ChatRoomInfo>> call, Response<List<ChatRoomInfo>> response) {
                 if (response.isSuccessful() && response.body() != null) {
@@ -127,11 +304,40 @@ public class ChatController {
         });
     }
 
+    // Rooms most recently active first: pass null, then each page's nextCursor while hasMore().
+    public void fetchUserChatRoomPage(String userId, String cursor, int limit) {
+        enqueue(RequestClass.VISIBLE, api -> api.getUserChatRoomPage(userId, cursor, limit), new Callback<ChatRoomPage>() {
+            @Override
+            public void onResponse(Call<ChatRoomPage> call, Response<ChatRoomPage> response) {
+                if (response.isSuccessful() || response.code() == 404) {
+                    ChatRoomPage page = response.body() != null ? response.body() : new ChatRoomPage(new ArrayList<>(), null, false);
+                    callBackChat.userChatRoomPageFetched(cursor, page);
+                } else {
+                    callBackChat.error("Failed to fetch chat rooms: " + response.code());
+                }
+            }
+
+            @Override
+            public void onFailure(Call<ChatRoomPage> call, Throwable t) {
+                callBackChat.error("Error fetching user chat rooms: " + t.getMessage());
+            }
+        });
+    }
+
+    // Answered from ParticipantCache once the whole list is known. For large rooms prefer
+    // fetchParticipantPage, or ParticipantCache.isParticipant for a single user.
     public void getParticipantsInRoom(String roomId) {
-        chatApi.getParticipantsInRoom(roomId).enqueue(new Callback<List<String>>() {
+        ParticipantCache participants = ParticipantCache.getInstance();
+        if (participants.isComplete(roomId)) {
+            List<String> cached = participants.getLoadedParticipants(roomId);
+            ChatExecutors.runOnMain(() -> callBackChat.participantsFetched(cached));
+            return;
+        }
+        enqueue(RequestClass.VISIBLE, api -> api.getParticipantsInRoom(roomId), new Callback<List<String>>() {
             @Override
             public void onResponse(Call<List<String>> call, Response<List<String>> response) {
                 if (response.isSuccessful() && response.body() != null) {
+                    participants.putAll(roomId, response.body());
                     callBackChat.participantsFetched(response.body());
                 } else {
                     callBackChat.error("Failed to fetch participants: " + response.code());
@@ -145,6 +351,90 @@ public class ChatController {
         });
     }
 
+    // Members in user id order: pass null, then each page's nextCursor while hasMore(). Goes through
+    // ParticipantCache, so the pages also answer later membership checks.
+    public void fetchParticipantPage(String roomId, String cursor, int limit) {
+        ParticipantCache.getInstance().loadPage(roomId, cursor, limit, (chatRoomId, page) -> {
+            if (page != null) {
+                callBackChat.participantPageFetched(roomId, cursor, page);
+            } else {
+                callBackChat.error("Failed to fetch participants of " + roomId);
+            }
+        });
+    }
+
+    // Debounced and batched with every other room, see ReadReceiptReporter.
+    public void markMessagesSeen(String userId, String chatRoomId, String lastSeenCreatedAt) {
+        ChatSdk.whenReady(provider -> ReadReceiptReporter.getInstance()
+                .markSeen(provider.api(RequestClass.BACKGROUND), userId, chatRoomId, lastSeenCreatedAt));
+    }
+
+    public void flushReadReceipts() {
+        ReadReceiptReporter.getInstance().flush();
+    }
+
+    public void fetchReadReceipts(String chatRoomId) {
+        enqueue(RequestClass.BACKGROUND, api -> api.getReadReceipts(chatRoomId), new Callback<Map<String, String>>() {
+            @Override
+            public void onResponse(Call<Map<String, String>> call, Response<Map<String, String>> response) {
+                if (response.isSuccessful()) {
+                    callBackChat.readReceiptsFetched(new ReadReceipts(chatRoomId, response.body()));
+                } else {
+                    Log.d("ChatController", "Read receipts error: " + response.code());
+                }
+            }
+
+            @Override
+            public void onFailure(Call<Map<String, String>> call, Throwable t) {
+                Log.d("ChatController", "Read receipts check failed: " + t.getMessage());
+            }
+        });
+    }
+
+    // Cancels every call still in flight and drops their callbacks, e.g. once the screen owning
+    // this controller is gone for good. Calls made afterwards are ignored.
+    public void cancelAll() {
+        cancelled = true;
+        for (Call<?> call : inFlight) {
+            call.cancel();
+        }
+        inFlight.clear();
+    }
+
+    private <T> void enqueue(RequestClass requestClass, CallFactory<T> factory, Callback<T> callback) {
+        RequestStats stats = RequestStats.forClass(requestClass);
+        long enqueuedAt = SystemClock.elapsedRealtime();
+        // Queued until ChatSdk has built the network stack, without blocking the caller.
+        ChatSdk.whenReady(provider -> {
+            if (cancelled) return;
+            Call<T> pending = factory.create(provider.api(requestClass));
+            inFlight.add(pending);
+            pending.enqueue(new Callback<T>() {
+                @Override
+                public void onResponse(Call<T> call, Response<T> response) {
+                    inFlight.remove(call);
+                    if (call.isCanceled()) return;
+                    stats.record(SystemClock.elapsedRealtime() - enqueuedAt);
+                    callback.onResponse(call, response);
+                }
+
+                @Override
+                public void onFailure(Call<T> call, Throwable t) {
+                    inFlight.remove(call);
+                    if (call.isCanceled()) return;
+                    stats.record(SystemClock.elapsedRealtime() - enqueuedAt);
+                    callback.onFailure(call, t);
+                }
+            });
+        }, error -> {
+            // The network stack could not be built; there is no call to hand over. Delivered on the
+            // main thread like Retrofit's own callbacks.
+            if (cancelled) return;
+            stats.record(SystemClock.elapsedRealtime() - enqueuedAt);
+            ChatExecutors.runOnMain(() -> callback.onFailure(null, error));
+        });
+    }
+
     private <T> Callback<List<T>> createListCallback(OnSuccess<List<T>> onSuccess) {
         return new Callback<List<T>>() {
             @Override
@@ -232,11 +522,35 @@ public class ChatController {
         void chatRoomCreated(Map<String, String> response);
         void userChatRoomsFetched(List<ChatRoomInfo> chatRooms);
         void participantsFetched(List<String> participants);
+        default void searchResultsFetched(String query, SearchPage page) {}
+        default void messagesAroundFetched(String messageId, List<Message> messages) {}
+        default void messagePageFetched(String chatRoomId, String cursor, MessagePage page) {}
+        default void userChatRoomPageFetched(String cursor, ChatRoomPage page) {}
+        default void participantPageFetched(String roomId, String cursor, ParticipantPage page) {}
+        default void readReceiptsFetched(ReadReceipts receipts) {}
+    }
+
+    public interface MediaSendListener {
+        enum Stage {
+            PREPARING,
+            UPLOADING
+        }
+
+        // Main thread, fraction of the current stage between 0 and 1.
+        default void onProgress(Stage stage, float fraction) {}
+        // Bytes before and after preparation and the time each stage took.
+        default void onUploaded(PreparedMedia media, long uploadMs) {}
+        // Main thread; nothing was sent and the prepared file is already deleted.
+        default void onFailed(Stage stage, String error) {}
     }
 
     private interface OnSuccess<T> {
         void run(T result);
     }
+
+    private interface CallFactory<T> {
+        Call<T> create(ChatApi api);
+    }
 }
 //package com.avitaliskhakov.librarychat.api;
 //
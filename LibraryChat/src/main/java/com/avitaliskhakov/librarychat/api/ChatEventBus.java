@@ -0,0 +1,101 @@
+package com.avitaliskhakov.librarychat.api;
+
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Process-wide stream of changes made through any ChatController, plus messages picked up by
+// RoomSubscriptionManager, so every screen sees them without refetching. Listeners are held
+// weakly: keep a reference to yours (e.g. in a field) for as long as it should receive events.
+public class ChatEventBus {
+
+    private static ChatEventBus instance;
+
+    private final List<WeakReference<Listener>> listeners = new ArrayList<>();
+
+    public static synchronized ChatEventBus getInstance() {
+        if (instance == null) {
+            instance = new ChatEventBus();
+        }
+        return instance;
+    }
+
+    public synchronized void register(Listener listener) {
+        for (WeakReference<Listener> reference : listeners) {
+            if (reference.get() == listener) return;
+        }
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    public synchronized void unregister(Listener listener) {
+        Iterator<WeakReference<Listener>> it = listeners.iterator();
+        while (it.hasNext()) {
+            Listener registered = it.next().get();
+            if (registered == null || registered == listener) {
+                it.remove();
+            }
+        }
+    }
+
+    public void postMessageCreated(Message message) {
+        dispatch(listener -> listener.onMessageCreated(message));
+    }
+
+    public void postMessageEdited(Message message) {
+        dispatch(listener -> listener.onMessageEdited(message));
+    }
+
+    public void postMessageDeleted(String chatRoomId, String messageId) {
+        dispatch(listener -> listener.onMessageDeleted(chatRoomId, messageId));
+    }
+
+    public void postRoomCreated(ChatRoomInfo room) {
+        dispatch(listener -> listener.onRoomCreated(room));
+    }
+
+    public void postParticipantsChanged(String chatRoomId, List<String> added) {
+        dispatch(listener -> listener.onParticipantsChanged(chatRoomId, added));
+    }
+
+    // Safe from any thread; listeners run on the main thread.
+    private void dispatch(Event event) {
+        List<Listener> targets = snapshot();
+        if (targets.isEmpty()) return;
+        ChatExecutors.runOnMain(() -> {
+            for (Listener listener : targets) {
+                event.deliver(listener);
+            }
+        });
+    }
+
+    private synchronized List<Listener> snapshot() {
+        List<Listener> alive = new ArrayList<>(listeners.size());
+        Iterator<WeakReference<Listener>> it = listeners.iterator();
+        while (it.hasNext()) {
+            Listener listener = it.next().get();
+            if (listener == null) {
+                it.remove();
+            } else {
+                alive.add(listener);
+            }
+        }
+        return alive;
+    }
+
+    private interface Event {
+        void deliver(Listener listener);
+    }
+
+    public interface Listener {
+        default void onMessageCreated(Message message) {}
+        default void onMessageEdited(Message message) {}
+        default void onMessageDeleted(String chatRoomId, String messageId) {}
+        default void onRoomCreated(ChatRoomInfo room) {}
+        default void onParticipantsChanged(String chatRoomId, List<String> added) {}
+    }
+}
@@ -0,0 +1,166 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.config.ChatEventsListener;
+import com.avitaliskhakov.librarychat.config.ChatStyle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Entry point that builds the network stack off the main thread. Calls made before it is
+// ready are queued and run once it is; nothing ever waits on the caller's thread. If building
+// the stack fails, e.g. on a malformed base URL, the queued calls are failed and the next call
+// tries again.
+public class ChatSdk {
+
+    private static final String TAG = "ChatSdk";
+
+    private static Context appContext;
+    private static ChatApiProvider provider;
+    private static boolean warming;
+    private static final List<Pending> pending = new ArrayList<>();
+
+    private static long initializeMainThreadMs = -1;
+    private static long warmUpMs = -1;
+
+    public static void initialize(Context context, Options options) {
+        long start = SystemClock.elapsedRealtime();
+        appContext = context.getApplicationContext();
+        if (options != null) {
+            options.apply();
+        }
+        ChatConfig.getMemoryBudget().attach(appContext);
+        warmUp();
+        initializeMainThreadMs = SystemClock.elapsedRealtime() - start;
+    }
+
+    public static Context getContext() {
+        return appContext;
+    }
+
+    public static synchronized boolean isReady() {
+        return provider != null && provider.matchesConfig();
+    }
+
+    // Time initialize() spent on the calling thread.
+    public static long getInitializeMainThreadMs() {
+        return initializeMainThreadMs;
+    }
+
+    // Time spent building OkHttp, Gson and the Retrofit proxies on the warm-up thread.
+    public static long getWarmUpMs() {
+        return warmUpMs;
+    }
+
+    static void whenReady(ReadyCallback callback) {
+        whenReady(callback, error -> Log.e(TAG, "Network stack unavailable", error));
+    }
+
+    static void whenReady(ReadyCallback callback, Consumer<RuntimeException> onFailed) {
+        ChatApiProvider ready;
+        synchronized (ChatSdk.class) {
+            if (provider != null && !provider.matchesConfig()) {
+                // Base URL changed since the stack was built.
+                provider = null;
+            }
+            ready = provider;
+            if (ready == null) {
+                pending.add(new Pending(callback, onFailed));
+                warmUp();
+                return;
+            }
+        }
+        callback.onReady(ready);
+    }
+
+    private static synchronized void warmUp() {
+        if (warming || isReady()) return;
+        warming = true;
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+            long start = SystemClock.elapsedRealtime();
+            ChatApiProvider built = null;
+            RuntimeException error = null;
+            try {
+                built = ChatApiProvider.getInstance();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            List<Pending> callbacks;
+            synchronized (ChatSdk.class) {
+                provider = built;
+                warming = false;
+                warmUpMs = SystemClock.elapsedRealtime() - start;
+                callbacks = new ArrayList<>(pending);
+                pending.clear();
+            }
+            if (error != null) {
+                Log.e(TAG, "Network stack failed to build", error);
+                for (Pending callback : callbacks) {
+                    callback.onFailed.accept(error);
+                }
+                return;
+            }
+            Log.d(TAG, "Network stack ready in " + warmUpMs + " ms");
+            for (Pending callback : callbacks) {
+                callback.onReady.onReady(built);
+            }
+        }, "librarychat-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    interface ReadyCallback {
+        void onReady(ChatApiProvider provider);
+    }
+
+    private static class Pending {
+        final ReadyCallback onReady;
+        final Consumer<RuntimeException> onFailed;
+
+        Pending(ReadyCallback onReady, Consumer<RuntimeException> onFailed) {
+            this.onReady = onReady;
+            this.onFailed = onFailed;
+        }
+    }
+
+    public static class Options {
+        private ChatStyle style;
+        private ChatEventsListener eventsListener;
+        private String baseUrl;
+        private RetryPolicy retryPolicy;
+
+        public Options setStyle(ChatStyle style) {
+            this.style = style;
+            return this;
+        }
+
+        public Options setChatEventsListener(ChatEventsListener eventsListener) {
+            this.eventsListener = eventsListener;
+            return this;
+        }
+
+        public Options setBaseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        public Options setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        void apply() {
+            if (style != null) ChatConfig.setStyle(style);
+            if (eventsListener != null) ChatConfig.setChatEventsListener(eventsListener);
+            if (baseUrl != null) ChatConfig.setBaseUrl(baseUrl);
+            if (retryPolicy != null) ChatConfig.setRetryPolicy(retryPolicy);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.avitaliskhakov.librarychat.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Per-endpoint breaker: after enough consecutive failed calls, calls fail fast until a cool-down
+// passes, then a single trial call decides whether the endpoint is healthy again. A call counts
+// once however many attempts RetryingCall made for it.
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_DURATION_MS = 15000;
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new HashMap<>();
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(String endpoint) {
+        this(endpoint, FAILURE_THRESHOLD, OPEN_DURATION_MS);
+    }
+
+    CircuitBreaker(String endpoint, int failureThreshold, long openDurationMs) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openDurationMs = openDurationMs;
+    }
+
+    public static CircuitBreaker forEndpoint(String endpoint) {
+        synchronized (BREAKERS) {
+            CircuitBreaker breaker = BREAKERS.get(endpoint);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(endpoint);
+                BREAKERS.put(endpoint, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    public static void resetAll() {
+        synchronized (BREAKERS) {
+            BREAKERS.clear();
+        }
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean allowRequest(long nowMs) {
+        switch (state) {
+            case OPEN:
+                if (nowMs - openedAt < openDurationMs) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure(long nowMs) {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nowMs;
+        }
+    }
+
+    // For a call that ended without an outcome, e.g. cancelled or thrown: the state is kept, but
+    // a trial slot it held is free again so the next call can try.
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+}
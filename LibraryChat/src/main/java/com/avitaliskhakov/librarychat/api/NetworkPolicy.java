@@ -0,0 +1,163 @@
+package com.avitaliskhakov.librarychat.api;
+
+// Estimates round trip time and bandwidth from observed ChatApi calls and derives fetch
+// settings from them. Plain Java so tests can feed latency samples directly.
+public class NetworkPolicy {
+
+    public enum LinkQuality {
+        UNKNOWN,
+        POOR,
+        MODERATE,
+        GOOD,
+        EXCELLENT
+    }
+
+    public enum MediaQuality {
+        LOW,
+        MEDIUM,
+        HIGH
+    }
+
+    // Weight of the newest sample in the moving averages.
+    private static final double SMOOTHING = 0.25;
+    // Bodies smaller than this say more about latency than about bandwidth.
+    private static final long MIN_BANDWIDTH_SAMPLE_BYTES = 2 * 1024;
+
+    private static NetworkPolicy instance;
+
+    private double rttMs = -1;
+    private double bandwidthKbps = -1;
+    private int samples;
+
+    // Separate instances start without samples; tests feed their own with recordSample().
+    public NetworkPolicy() {}
+
+    public static synchronized NetworkPolicy getInstance() {
+        if (instance == null) {
+            instance = new NetworkPolicy();
+        }
+        return instance;
+    }
+
+    public synchronized void recordSample(long rttMs, long bytes, long transferMs) {
+        if (rttMs >= 0) {
+            this.rttMs = this.rttMs < 0 ? rttMs : this.rttMs + SMOOTHING * (rttMs - this.rttMs);
+        }
+        if (bytes >= MIN_BANDWIDTH_SAMPLE_BYTES && transferMs > 0) {
+            double kbps = bytes * 8.0 / transferMs;
+            bandwidthKbps = bandwidthKbps < 0 ? kbps : bandwidthKbps + SMOOTHING * (kbps - bandwidthKbps);
+        }
+        samples++;
+    }
+
+    public synchronized void reset() {
+        rttMs = -1;
+        bandwidthKbps = -1;
+        samples = 0;
+    }
+
+    public synchronized double getRttMs() {
+        return rttMs;
+    }
+
+    public synchronized double getBandwidthKbps() {
+        return bandwidthKbps;
+    }
+
+    public synchronized int getSampleCount() {
+        return samples;
+    }
+
+    public synchronized LinkQuality getLinkQuality() {
+        if (rttMs < 0) {
+            return LinkQuality.UNKNOWN;
+        }
+        LinkQuality byRtt;
+        if (rttMs > 1000) {
+            byRtt = LinkQuality.POOR;
+        } else if (rttMs > 400) {
+            byRtt = LinkQuality.MODERATE;
+        } else if (rttMs > 150) {
+            byRtt = LinkQuality.GOOD;
+        } else {
+            byRtt = LinkQuality.EXCELLENT;
+        }
+        if (bandwidthKbps < 0) {
+            return byRtt;
+        }
+        LinkQuality byBandwidth;
+        if (bandwidthKbps < 150) {
+            byBandwidth = LinkQuality.POOR;
+        } else if (bandwidthKbps < 550) {
+            byBandwidth = LinkQuality.MODERATE;
+        } else if (bandwidthKbps < 2000) {
+            byBandwidth = LinkQuality.GOOD;
+        } else {
+            byBandwidth = LinkQuality.EXCELLENT;
+        }
+        // The slower of the two limits what we can afford to fetch.
+        return byRtt.ordinal() < byBandwidth.ordinal() ? byRtt : byBandwidth;
+    }
+
+    public int getPageSize() {
+        switch (getLinkQuality()) {
+            case MODERATE: return 20;
+            case GOOD: return 30;
+            case EXCELLENT: return 50;
+            default: return 10;
+        }
+    }
+
+    // How many rows before the top of the list the next older page is requested.
+    public int getPrefetchDistance() {
+        switch (getLinkQuality()) {
+            case POOR: return 1;
+            case MODERATE: return 3;
+            case GOOD: return 8;
+            case EXCELLENT: return 15;
+            default: return 3;
+        }
+    }
+
+    public long getTypingPollIntervalMs() {
+        switch (getLinkQuality()) {
+            case POOR: return 3000;
+            case MODERATE: return 1500;
+            case GOOD: return 1000;
+            default: return 700;
+        }
+    }
+
+    public long getConnectTimeoutMs() {
+        switch (getLinkQuality()) {
+            case POOR: return 30000;
+            case MODERATE: return 20000;
+            case GOOD: return 15000;
+            case EXCELLENT: return 10000;
+            default: return 30000;
+        }
+    }
+
+    public long getReadTimeoutMs() {
+        switch (getLinkQuality()) {
+            case POOR: return 45000;
+            case MODERATE: return 30000;
+            case GOOD: return 20000;
+            case EXCELLENT: return 15000;
+            default: return 30000;
+        }
+    }
+
+    public long getWriteTimeoutMs() {
+        return getReadTimeoutMs();
+    }
+
+    public MediaQuality getMediaQuality() {
+        switch (getLinkQuality()) {
+            case POOR: return MediaQuality.LOW;
+            case GOOD:
+            case EXCELLENT: return MediaQuality.HIGH;
+            default: return MediaQuality.MEDIUM;
+        }
+    }
+}
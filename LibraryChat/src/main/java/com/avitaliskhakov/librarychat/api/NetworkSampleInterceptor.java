@@ -0,0 +1,83 @@
+package com.avitaliskhakov.librarychat.api;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+// Applies the current NetworkPolicy timeouts to each call and feeds timings back into it.
+class NetworkSampleInterceptor implements Interceptor {
+
+    private final NetworkPolicy policy;
+
+    NetworkSampleInterceptor(NetworkPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Chain timed = chain
+                .withConnectTimeout((int) policy.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
+                .withReadTimeout((int) policy.getReadTimeoutMs(), TimeUnit.MILLISECONDS)
+                .withWriteTimeout((int) policy.getWriteTimeoutMs(), TimeUnit.MILLISECONDS);
+
+        Response response = timed.proceed(timed.request());
+        long rttMs = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+        ResponseBody body = response.body();
+        if (body == null) {
+            policy.recordSample(rttMs, 0, 0);
+            return response;
+        }
+        return response.newBuilder()
+                .body(new SampledBody(body, rttMs, response.receivedResponseAtMillis()))
+                .build();
+    }
+
+    // Records the sample once the converter has read the whole body.
+    private class SampledBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        SampledBody(ResponseBody delegate, long rttMs, long headersAtMillis) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                private long bytes;
+                private boolean recorded;
+
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        bytes += read;
+                    } else if (read == -1 && !recorded) {
+                        recorded = true;
+                        policy.recordSample(rttMs, bytes, System.currentTimeMillis() - headersAtMillis);
+                    }
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
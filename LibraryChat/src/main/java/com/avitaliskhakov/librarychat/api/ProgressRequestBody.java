@@ -0,0 +1,54 @@
+package com.avitaliskhakov.librarychat.api;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+// Streams a file as the request body and reports how much of it has been written.
+class ProgressRequestBody extends RequestBody {
+
+    private static final long SEGMENT_SIZE = 16 * 1024;
+
+    private final File file;
+    private final MediaType mediaType;
+    private final Listener listener;
+
+    ProgressRequestBody(File file, MediaType mediaType, Listener listener) {
+        this.file = file;
+        this.mediaType = mediaType;
+        this.listener = listener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        long total = contentLength();
+        long written = 0;
+        try (Source source = Okio.source(file)) {
+            long read;
+            while ((read = source.read(sink.buffer(), SEGMENT_SIZE)) != -1) {
+                sink.flush();
+                written += read;
+                listener.onWritten(written, total);
+            }
+        }
+    }
+
+    interface Listener {
+        void onWritten(long bytes, long total);
+    }
+}
@@ -0,0 +1,134 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+// Coalesces "seen up to" marks per room and reports them for every room in one request.
+public class ReadReceiptReporter {
+
+    private static final String TAG = "ReadReceiptReporter";
+    private static final long DEBOUNCE_MS = 2000;
+    private static final long MAX_DELAY_MS = 10000;
+    // Failed batches are sent again on their own, doubling the wait up to the cap.
+    private static final long RETRY_BASE_MS = 2000;
+    private static final long RETRY_MAX_MS = 60000;
+
+    private static ReadReceiptReporter instance;
+
+    // userId -> chatRoomId -> highest seen createdAt
+    private final Map<String, Map<String, String>> pending = new HashMap<>();
+    private final Map<String, String> reported = new HashMap<>();
+    private final Runnable flushRunnable = this::flush;
+    private ChatApi chatApi;
+    private long firstPendingAt;
+    private long retryDelayMs = RETRY_BASE_MS;
+
+    public static synchronized ReadReceiptReporter getInstance() {
+        if (instance == null) {
+            instance = new ReadReceiptReporter();
+        }
+        return instance;
+    }
+
+    synchronized void markSeen(ChatApi api, String userId, String chatRoomId, String createdAt) {
+        if (userId == null || chatRoomId == null || createdAt == null) return;
+        chatApi = api;
+
+        String key = userId + '|' + chatRoomId;
+        String alreadyReported = reported.get(key);
+        if (alreadyReported != null && alreadyReported.compareTo(createdAt) >= 0) return;
+
+        Map<String, String> rooms = pending.get(userId);
+        if (rooms == null) {
+            rooms = new HashMap<>();
+            pending.put(userId, rooms);
+        }
+        String current = rooms.get(chatRoomId);
+        if (current != null && current.compareTo(createdAt) >= 0) return;
+        rooms.put(chatRoomId, createdAt);
+
+        long now = SystemClock.elapsedRealtime();
+        if (firstPendingAt == 0) {
+            firstPendingAt = now;
+        }
+        ChatExecutors.cancelOnMain(flushRunnable);
+        long delay = Math.min(DEBOUNCE_MS, Math.max(0, firstPendingAt + MAX_DELAY_MS - now));
+        ChatExecutors.postOnMain(flushRunnable, delay);
+    }
+
+    public void flush() {
+        Map<String, Map<String, String>> batch;
+        ChatApi api;
+        synchronized (this) {
+            ChatExecutors.cancelOnMain(flushRunnable);
+            if (pending.isEmpty() || chatApi == null) return;
+            batch = new HashMap<>(pending);
+            pending.clear();
+            firstPendingAt = 0;
+            api = chatApi;
+        }
+
+        for (Map.Entry<String, Map<String, String>> entry : batch.entrySet()) {
+            String userId = entry.getKey();
+            Map<String, String> rooms = entry.getValue();
+            api.reportReadReceipts(userId, rooms).enqueue(new Callback<Void>() {
+                @Override
+                public void onResponse(Call<Void> call, Response<Void> response) {
+                    if (response.isSuccessful()) {
+                        onReported(userId, rooms);
+                    } else if (RetryPolicy.isRetryableStatus(response.code())) {
+                        Log.d(TAG, "Read receipts rejected: " + response.code());
+                        requeue(userId, rooms);
+                    } else {
+                        Log.d(TAG, "Read receipts dropped: " + response.code());
+                    }
+                }
+
+                @Override
+                public void onFailure(Call<Void> call, Throwable t) {
+                    Log.d(TAG, "Read receipts failed: " + t.getMessage());
+                    requeue(userId, rooms);
+                }
+            });
+        }
+    }
+
+    private synchronized void onReported(String userId, Map<String, String> rooms) {
+        retryDelayMs = RETRY_BASE_MS;
+        for (Map.Entry<String, String> room : rooms.entrySet()) {
+            String key = userId + '|' + room.getKey();
+            String previous = reported.get(key);
+            if (previous == null || previous.compareTo(room.getValue()) < 0) {
+                reported.put(key, room.getValue());
+            }
+        }
+    }
+
+    // Failed marks go back into the queue and are flushed again after a backoff, or sooner with a
+    // new mark, so the last receipt of a room the user left still goes out.
+    private synchronized void requeue(String userId, Map<String, String> rooms) {
+        Map<String, String> current = pending.get(userId);
+        if (current == null) {
+            current = new HashMap<>();
+            pending.put(userId, current);
+        }
+        for (Map.Entry<String, String> room : rooms.entrySet()) {
+            String existing = current.get(room.getKey());
+            if (existing == null || existing.compareTo(room.getValue()) < 0) {
+                current.put(room.getKey(), room.getValue());
+            }
+        }
+        ChatExecutors.cancelOnMain(flushRunnable);
+        ChatExecutors.postOnMain(flushRunnable, retryDelayMs);
+        retryDelayMs = Math.min(retryDelayMs * 2, RETRY_MAX_MS);
+    }
+}
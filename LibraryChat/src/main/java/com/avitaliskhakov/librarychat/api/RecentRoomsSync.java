@@ -0,0 +1,91 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.content.Context;
+
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+
+import com.avitaliskhakov.librarychat.store.RoomOpenStats;
+
+import java.util.concurrent.TimeUnit;
+
+// Opt-in background sync that keeps the local page store filled for the user's most opened
+// rooms, so opening them shows messages before the network answers. Runs only on an unmetered
+// network while the device is charging and idle, and stops at its byte or time budget.
+public class RecentRoomsSync {
+
+    static final String WORK_NAME = "librarychat-recent-rooms";
+
+    public static void enable(Context context, String userId, Budget budget) {
+        Budget b = budget != null ? budget : new Budget();
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .build();
+        Data input = new Data.Builder()
+                .putString(RecentRoomsSyncWorker.KEY_BASE_URL, ChatApiProvider.configuredBaseUrl())
+                .putString(RecentRoomsSyncWorker.KEY_USER_ID, userId)
+                .putInt(RecentRoomsSyncWorker.KEY_MAX_ROOMS, b.maxRooms)
+                .putInt(RecentRoomsSyncWorker.KEY_PAGES_PER_ROOM, b.pagesPerRoom)
+                .putLong(RecentRoomsSyncWorker.KEY_MAX_BYTES, b.maxBytes)
+                .putLong(RecentRoomsSyncWorker.KEY_MAX_DURATION_MS, b.maxDurationMs)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                RecentRoomsSyncWorker.class, b.intervalHours, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .setInputData(input)
+                .build();
+        // UPDATE keeps the schedule but picks up a new user or budget.
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE, request);
+    }
+
+    public static void disable(Context context) {
+        WorkManager.getInstance(context).cancelUniqueWork(WORK_NAME);
+    }
+
+    // Warm/cold open counts and the outcome of the last sync.
+    public static RoomOpenStats getStats(Context context) {
+        return RoomOpenStats.getInstance(context);
+    }
+
+    public static class Budget {
+        int maxRooms = 5;
+        int pagesPerRoom = 2;
+        long maxBytes = 2 * 1024 * 1024;
+        long maxDurationMs = 60_000;
+        long intervalHours = 6;
+
+        public Budget setMaxRooms(int maxRooms) {
+            this.maxRooms = maxRooms;
+            return this;
+        }
+
+        public Budget setPagesPerRoom(int pagesPerRoom) {
+            this.pagesPerRoom = pagesPerRoom;
+            return this;
+        }
+
+        // Response bytes per run; the room in progress stops at its next page once reached.
+        public Budget setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Budget setMaxDurationMs(long maxDurationMs) {
+            this.maxDurationMs = maxDurationMs;
+            return this;
+        }
+
+        // At least one hour; the constraints make most runs happen overnight anyway.
+        public Budget setIntervalHours(long intervalHours) {
+            this.intervalHours = Math.max(1, intervalHours);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.store.MessagePageStore;
+import com.avitaliskhakov.librarychat.store.RoomOpenStats;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+// Scheduled by RecentRoomsSync. Writes the newest pages of the most opened rooms to
+// MessagePageStore under the same keys ChatRoomActivity reads them back with.
+public class RecentRoomsSyncWorker extends Worker {
+
+    static final String KEY_BASE_URL = "baseUrl";
+    static final String KEY_USER_ID = "userId";
+    static final String KEY_MAX_ROOMS = "maxRooms";
+    static final String KEY_PAGES_PER_ROOM = "pagesPerRoom";
+    static final String KEY_MAX_BYTES = "maxBytes";
+    static final String KEY_MAX_DURATION_MS = "maxDurationMs";
+
+    public static final String OUTPUT_ROOMS = "rooms";
+    public static final String OUTPUT_BYTES = "bytes";
+
+    private static final String TAG = "RecentRoomsSync";
+
+    private final Gson gson = new Gson();
+    private long bytes;
+
+    public RecentRoomsSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Data input = getInputData();
+        String userId = input.getString(KEY_USER_ID);
+        if (userId == null) {
+            return Result.failure();
+        }
+        int maxRooms = input.getInt(KEY_MAX_ROOMS, 5);
+        int pagesPerRoom = input.getInt(KEY_PAGES_PER_ROOM, 2);
+        long maxBytes = input.getLong(KEY_MAX_BYTES, 2 * 1024 * 1024);
+        long start = SystemClock.elapsedRealtime();
+        long deadline = start + input.getLong(KEY_MAX_DURATION_MS, 60_000);
+
+        RoomOpenStats stats = RoomOpenStats.getInstance(getApplicationContext());
+        MessagePageStore pageStore = MessagePageStore.getInstance(getApplicationContext());
+        // The worker may run in a process where the app never configured the SDK.
+        String baseUrl = input.getString(KEY_BASE_URL);
+        ChatApiProvider provider = baseUrl != null ? ChatApiProvider.forBaseUrl(baseUrl) : ChatApiProvider.getInstance();
+        ChatApi api = provider.api(RequestClass.BACKGROUND);
+        bytes = 0;
+        int synced = 0;
+        try {
+            Response<List<ChatRoomInfo>> response = api.getUserChatRooms(userId).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                return Result.retry();
+            }
+            count(response);
+            // The size a window opened on this link would pin, now that the call above sampled it,
+            // so stored pages line up with the ones ChatRoomActivity asks for under the same cursors.
+            int pageSize = NetworkPolicy.getInstance().getPageSize();
+            List<String> mostOpened = stats.getMostOpenedRooms(maxRooms * 2);
+            for (String chatRoomId : pickRooms(response.body(), mostOpened, maxRooms)) {
+                if (isStopped() || bytes >= maxBytes || SystemClock.elapsedRealtime() >= deadline) {
+                    break;
+                }
+                syncRoom(api, pageStore, chatRoomId, pagesPerRoom, pageSize, maxBytes, deadline);
+                synced++;
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Sync stopped: " + e.getMessage());
+            // Whatever was written so far stays useful; try the rest on the next run.
+        }
+
+        long durationMs = SystemClock.elapsedRealtime() - start;
+        stats.recordSync(synced, bytes, durationMs);
+        Log.d(TAG, "Synced " + synced + " rooms, " + bytes / 1024 + " KB in " + durationMs + " ms");
+        return Result.success(new Data.Builder()
+                .putInt(OUTPUT_ROOMS, synced)
+                .putLong(OUTPUT_BYTES, bytes)
+                .build());
+    }
+
+    // Most opened rooms the user still belongs to, then the others in server order.
+    static List<String> pickRooms(List<ChatRoomInfo> rooms, List<String> mostOpened, int maxRooms) {
+        Set<String> member = new LinkedHashSet<>();
+        for (ChatRoomInfo room : rooms) {
+            if (room.getId() != null) member.add(room.getId());
+        }
+        Set<String> picked = new LinkedHashSet<>();
+        for (String chatRoomId : mostOpened) {
+            if (member.contains(chatRoomId)) picked.add(chatRoomId);
+        }
+        picked.addAll(member);
+        List<String> result = new ArrayList<>(picked);
+        return result.subList(0, Math.min(maxRooms, result.size()));
+    }
+
+    // Pages are chained like MessageWindow does: null for the head, then the server's nextCursor
+    // of the previous page. An unchanged head means nothing below it changed either.
+    private void syncRoom(ChatApi api, MessagePageStore pageStore, String chatRoomId, int pages,
+                          int pageSize, long maxBytes, long deadline) throws IOException {
+        MessagePage storedHead = pageStore.readSync(chatRoomId, null);
+        String cursor = null;
+        for (int index = 0; index < pages; index++) {
+            if (isStopped() || bytes >= maxBytes || SystemClock.elapsedRealtime() >= deadline) {
+                return;
+            }
+            Response<MessagePage> response = api.getMessagePage(chatRoomId, cursor, null, pageSize).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                return;
+            }
+            count(response);
+            MessagePage fetched = response.body();
+            List<Message> sorted = new ArrayList<>(fetched.getMessages());
+            if (sorted.isEmpty()) {
+                return;
+            }
+            sorted.sort(Message.BY_CREATED_AT);
+            if (index == 0 && storedHead != null && sameMessages(storedHead.getMessages(), sorted)) {
+                return;
+            }
+            pageStore.writeSync(chatRoomId, cursor, new MessagePage(sorted, fetched.getNextCursor(), fetched.hasMore()));
+            if (!fetched.hasMore() || fetched.getNextCursor() == null) {
+                return;
+            }
+            cursor = fetched.getNextCursor();
+        }
+    }
+
+    static boolean sameMessages(List<Message> stored, List<Message> fetched) {
+        if (stored.size() != fetched.size()) {
+            return false;
+        }
+        for (int i = 0; i < stored.size(); i++) {
+            Message a = stored.get(i);
+            Message b = fetched.get(i);
+            if (!a.getId().equals(b.getId()) || a.getContentCreatedAtMillis() != b.getContentCreatedAtMillis()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void count(Response<?> response) {
+        ResponseBody raw = response.raw().body();
+        long length = raw != null ? raw.contentLength() : -1;
+        // Chunked responses carry no length; the re-encoded body is a close estimate.
+        bytes += length >= 0 ? length : gson.toJson(response.body()).length();
+    }
+}
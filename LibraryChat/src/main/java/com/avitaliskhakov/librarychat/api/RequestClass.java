@@ -0,0 +1,21 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.os.Process;
+
+// Each class gets its own dispatcher, so user actions never queue behind background traffic.
+public enum RequestClass {
+    INTERACTIVE(4, Process.THREAD_PRIORITY_DEFAULT),
+    // Media uploads run for seconds each; on their own they cannot hold up text sends.
+    UPLOAD(2, Process.THREAD_PRIORITY_DEFAULT),
+    VISIBLE(4, Process.THREAD_PRIORITY_DEFAULT),
+    PREFETCH(2, Process.THREAD_PRIORITY_BACKGROUND),
+    BACKGROUND(2, Process.THREAD_PRIORITY_BACKGROUND);
+
+    final int maxConcurrentRequests;
+    final int threadPriority;
+
+    RequestClass(int maxConcurrentRequests, int threadPriority) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.threadPriority = threadPriority;
+    }
+}
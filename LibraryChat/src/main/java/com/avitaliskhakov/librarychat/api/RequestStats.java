@@ -0,0 +1,42 @@
+package com.avitaliskhakov.librarychat.api;
+
+import com.avitaliskhakov.librarychat.utils.SampleWindow;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// Enqueue-to-callback latency of the most recent calls per RequestClass, including dispatcher queueing.
+public class RequestStats {
+
+    private static final Map<RequestClass, RequestStats> STATS = new EnumMap<>(RequestClass.class);
+
+    private final SampleWindow latenciesMs = new SampleWindow();
+
+    public static RequestStats forClass(RequestClass requestClass) {
+        synchronized (STATS) {
+            RequestStats stats = STATS.get(requestClass);
+            if (stats == null) {
+                stats = new RequestStats();
+                STATS.put(requestClass, stats);
+            }
+            return stats;
+        }
+    }
+
+    public void record(long latencyMs) {
+        latenciesMs.record(latencyMs);
+    }
+
+    public long getCount() {
+        return latenciesMs.getCount();
+    }
+
+    // p in [0, 100]; returns -1 before any call completed.
+    public long percentile(double p) {
+        return latenciesMs.percentile(p);
+    }
+
+    public void reset() {
+        latenciesMs.reset();
+    }
+}
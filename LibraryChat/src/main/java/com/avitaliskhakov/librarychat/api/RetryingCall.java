@@ -0,0 +1,261 @@
+package com.avitaliskhakov.librarychat.api;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Request;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+// One logical ChatApi call: idempotent GET calls are retried with jittered backoff, and the
+// endpoint's breaker hears a single outcome however many attempts it took. Enqueued calls wait
+// out the backoff on ChatExecutors.scheduler(), so no dispatcher slot is held between attempts.
+final class RetryingCall<T> implements Call<T> {
+
+    private final Call<T> original;
+    @Nullable
+    private final Executor callbackExecutor;
+    private final AtomicBoolean settled = new AtomicBoolean();
+    // Held by cancel() and while the next attempt replaces current, so a cancel either stops the
+    // retry or reaches the call that replaced the canceled one.
+    private final Object lock = new Object();
+
+    private CircuitBreaker breaker;
+    private RetryPolicy policy;
+    private volatile Call<T> current;
+    private volatile boolean canceled;
+    private boolean executed;
+
+    RetryingCall(Call<T> call, @Nullable Executor callbackExecutor) {
+        this(call, null, null, callbackExecutor);
+    }
+
+    // Null breaker and policy are resolved from the request on first use.
+    RetryingCall(Call<T> call, @Nullable CircuitBreaker breaker, @Nullable RetryPolicy policy,
+                 @Nullable Executor callbackExecutor) {
+        this.original = call;
+        this.current = call;
+        this.breaker = breaker;
+        this.policy = policy;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    // Blocks the calling thread for the backoff; only for callers on their own worker thread.
+    @Override
+    public Response<T> execute() throws IOException {
+        start();
+        if (!breaker.allowRequest(nowMs())) {
+            throw circuitOpen();
+        }
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Response<T> response;
+                try {
+                    response = current.execute();
+                } catch (IOException e) {
+                    if (!shouldRetry(attempt)) {
+                        settle(false);
+                        throw e;
+                    }
+                    sleep(policy.delayBeforeRetry(attempt));
+                    if (nextAttempt() == null) throw new IOException("Canceled");
+                    continue;
+                }
+                boolean failed = RetryPolicy.isRetryableStatus(response.code());
+                if (!failed || !shouldRetry(attempt)) {
+                    settle(!failed);
+                    return response;
+                }
+                closeQuietly(response);
+                sleep(policy.delayBeforeRetry(attempt));
+                if (nextAttempt() == null) throw new IOException("Canceled");
+            }
+        } finally {
+            // Interrupted or thrown past the handling above: no outcome, but free the trial slot.
+            release();
+        }
+    }
+
+    @Override
+    public void enqueue(Callback<T> callback) {
+        try {
+            start();
+        } catch (RuntimeException e) {
+            deliver(() -> callback.onFailure(this, e));
+            return;
+        }
+        if (!breaker.allowRequest(nowMs())) {
+            deliver(() -> callback.onFailure(this, circuitOpen()));
+            return;
+        }
+        attempt(callback, 1);
+    }
+
+    private void attempt(Callback<T> callback, int attempt) {
+        try {
+            current.enqueue(new Callback<T>() {
+                @Override
+                public void onResponse(Call<T> call, Response<T> response) {
+                    boolean failed = RetryPolicy.isRetryableStatus(response.code());
+                    if (failed && shouldRetry(attempt)) {
+                        closeQuietly(response);
+                        retryLater(callback, attempt);
+                        return;
+                    }
+                    settle(!failed);
+                    callback.onResponse(RetryingCall.this, response);
+                }
+
+                @Override
+                public void onFailure(Call<T> call, Throwable t) {
+                    // Only I/O errors are worth another attempt; a body that did not parse will not
+                    // parse the next time either.
+                    if (t instanceof IOException && shouldRetry(attempt)) {
+                        retryLater(callback, attempt);
+                        return;
+                    }
+                    settle(false);
+                    callback.onFailure(RetryingCall.this, t);
+                }
+            });
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    private void retryLater(Callback<T> callback, int attempt) {
+        ChatExecutors.scheduler().schedule(() -> {
+            Call<T> next = nextAttempt();
+            if (next == null) {
+                release();
+                deliver(() -> callback.onFailure(this, new IOException("Canceled")));
+                return;
+            }
+            attempt(callback, attempt + 1);
+            // A cancel that landed while the attempt was being enqueued.
+            if (canceled) next.cancel();
+        }, policy.delayBeforeRetry(attempt), TimeUnit.MILLISECONDS);
+    }
+
+    // The call for the next attempt, or null once canceled.
+    @Nullable
+    private Call<T> nextAttempt() {
+        synchronized (lock) {
+            if (canceled) return null;
+            current = current.clone();
+            return current;
+        }
+    }
+
+    private synchronized void start() {
+        if (executed) throw new IllegalStateException("Already executed.");
+        executed = true;
+        if (breaker == null || policy == null) {
+            Request request = original.request();
+            if (breaker == null) {
+                breaker = CircuitBreaker.forEndpoint(request.method() + " " + request.url().encodedPath());
+            }
+            if (policy == null) {
+                policy = "GET".equals(request.method()) ? ChatConfig.getRetryPolicy() : RetryPolicy.NONE;
+            }
+        }
+    }
+
+    private boolean shouldRetry(int attempt) {
+        // Stop early once other calls have opened the breaker; the next attempt would fail fast anyway.
+        return !canceled && attempt < policy.getMaxAttempts() && breaker.getState() != CircuitBreaker.State.OPEN;
+    }
+
+    private void settle(boolean success) {
+        if (!settled.compareAndSet(false, true)) return;
+        if (canceled) {
+            breaker.release();
+        } else if (success) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure(nowMs());
+        }
+    }
+
+    private void release() {
+        if (settled.compareAndSet(false, true)) {
+            breaker.release();
+        }
+    }
+
+    private IOException circuitOpen() {
+        return new IOException("Circuit open for " + breaker.getEndpoint());
+    }
+
+    private void deliver(Runnable runnable) {
+        if (callbackExecutor != null) {
+            callbackExecutor.execute(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    @Override
+    public synchronized boolean isExecuted() {
+        return executed;
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (lock) {
+            canceled = true;
+            current.cancel();
+        }
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled || current.isCanceled();
+    }
+
+    @Override
+    public Call<T> clone() {
+        return new RetryingCall<>(original.clone(), breaker, policy, callbackExecutor);
+    }
+
+    @Override
+    public Request request() {
+        return current.request();
+    }
+
+    @Override
+    public Timeout timeout() {
+        return current.timeout();
+    }
+
+    // Monotonic, and unlike SystemClock also ticks in JVM unit tests.
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    private static void closeQuietly(Response<?> response) {
+        if (response.errorBody() != null) {
+            response.errorBody().close();
+        }
+    }
+
+    private static void sleep(long delayMs) throws IOException {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Retry interrupted");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.util.Log;
+
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.RoomUpdate;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+// Watches any number of rooms with one batched poll per interval instead of one request per
+// room. Rooms can be added and removed at any time; the next poll simply carries the new set.
+public class RoomSubscriptionManager {
+
+    private static final String TAG = "RoomSubscriptions";
+    private static final long MAX_BACKOFF_MS = 30000;
+    // Sent for rooms without a cursor yet; the server answers with the current one and no backlog.
+    private static final String NO_CURSOR = "";
+
+    private static RoomSubscriptionManager instance;
+
+    private final Map<String, List<RoomListener>> listeners = new HashMap<>();
+    private final Map<String, String> cursors = new HashMap<>();
+    private final Runnable pollRunnable = this::poll;
+    private final PollScheduler scheduler;
+    private String userId;
+    private boolean inFlight;
+    // A room was added while a poll was in flight, poll again right after it returns.
+    private boolean pollAgain;
+    private int failures;
+
+    public static synchronized RoomSubscriptionManager getInstance() {
+        if (instance == null) {
+            instance = new RoomSubscriptionManager();
+        }
+        return instance;
+    }
+
+    private RoomSubscriptionManager() {
+        this(new PollScheduler() {
+            @Override
+            public void post(Runnable poll, long delayMs) {
+                ChatExecutors.postOnMain(poll, delayMs);
+            }
+
+            @Override
+            public void cancel(Runnable poll) {
+                ChatExecutors.cancelOnMain(poll);
+            }
+        });
+    }
+
+    // Tests drive the polls themselves; the main handler never runs in JVM unit tests.
+    RoomSubscriptionManager(PollScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public synchronized void subscribe(String chatRoomId, RoomListener listener) {
+        List<RoomListener> roomListeners = listeners.get(chatRoomId);
+        if (roomListeners == null) {
+            roomListeners = new ArrayList<>();
+            listeners.put(chatRoomId, roomListeners);
+        }
+        if (!roomListeners.contains(listener)) {
+            roomListeners.add(listener);
+        }
+        if (!cursors.containsKey(chatRoomId)) {
+            cursors.put(chatRoomId, NO_CURSOR);
+            if (inFlight) {
+                pollAgain = true;
+            } else {
+                schedule(0);
+            }
+        }
+    }
+
+    public synchronized void unsubscribe(String chatRoomId, RoomListener listener) {
+        List<RoomListener> roomListeners = listeners.get(chatRoomId);
+        if (roomListeners == null) return;
+        roomListeners.remove(listener);
+        if (roomListeners.isEmpty()) {
+            listeners.remove(chatRoomId);
+            cursors.remove(chatRoomId);
+        }
+        if (cursors.isEmpty()) {
+            scheduler.cancel(pollRunnable);
+        }
+    }
+
+    public synchronized void unsubscribeAll(RoomListener listener) {
+        for (String chatRoomId : new ArrayList<>(listeners.keySet())) {
+            unsubscribe(chatRoomId, listener);
+        }
+    }
+
+    public synchronized Set<String> getSubscribedRooms() {
+        return new HashSet<>(cursors.keySet());
+    }
+
+    private void poll() {
+        Map<String, String> batch;
+        String user;
+        synchronized (this) {
+            if (inFlight || cursors.isEmpty()) return;
+            inFlight = true;
+            pollAgain = false;
+            batch = new HashMap<>(cursors);
+            user = userId;
+        }
+        ChatSdk.whenReady(provider -> provider.api(RequestClass.BACKGROUND).pollRooms(user, batch)
+                .enqueue(new Callback<List<RoomUpdate>>() {
+                    @Override
+                    public void onResponse(Call<List<RoomUpdate>> call, Response<List<RoomUpdate>> response) {
+                        if (response.isSuccessful()) {
+                            onUpdates(batch, response.body());
+                        } else {
+                            Log.d(TAG, "Poll rejected: " + response.code());
+                            onPollFailed();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Call<List<RoomUpdate>> call, Throwable t) {
+                        Log.d(TAG, "Poll failed: " + t.getMessage());
+                        onPollFailed();
+                    }
+                }), error -> onPollFailed());
+    }
+
+    private void onUpdates(Map<String, String> sent, List<RoomUpdate> updates) {
+        List<Runnable> deliveries = new ArrayList<>();
+        synchronized (this) {
+            inFlight = false;
+            failures = 0;
+            if (updates != null) {
+                for (RoomUpdate update : updates) {
+                    String chatRoomId = update.getChatRoomId();
+                    // Skip rooms dropped, or dropped and re-added, while the poll was in flight.
+                    String current = cursors.get(chatRoomId);
+                    if (current == null || !current.equals(sent.get(chatRoomId))) continue;
+                    if (update.getCursor() != null) {
+                        cursors.put(chatRoomId, update.getCursor());
+                    }
+                    List<RoomListener> roomListeners = new ArrayList<>(listeners.get(chatRoomId));
+                    List<Message> messages = update.getMessages();
+                    // The first answer for a room only establishes its cursor.
+                    boolean initial = NO_CURSOR.equals(current);
+                    if (!initial) {
+                        // Other screens, e.g. a room list, hear about them through the bus.
+                        deliveries.add(() -> {
+                            for (Message message : messages) {
+                                ChatEventBus.getInstance().postMessageCreated(message);
+                            }
+                        });
+                    }
+                    for (RoomListener listener : roomListeners) {
+                        if (!messages.isEmpty() && !initial) {
+                            deliveries.add(() -> listener.onNewMessages(chatRoomId, messages));
+                        }
+                        if (update.hasTypingChange()) {
+                            deliveries.add(() -> listener.onTypingChanged(chatRoomId, update.getTyping()));
+                        }
+                    }
+                }
+            }
+            schedule(pollAgain ? 0 : NetworkPolicy.getInstance().getTypingPollIntervalMs());
+        }
+        ChatExecutors.runOnMain(() -> {
+            for (Runnable delivery : deliveries) {
+                delivery.run();
+            }
+        });
+    }
+
+    private synchronized void onPollFailed() {
+        inFlight = false;
+        failures++;
+        long interval = NetworkPolicy.getInstance().getTypingPollIntervalMs();
+        schedule(Math.min(MAX_BACKOFF_MS, interval << Math.min(failures, 5)));
+    }
+
+    private void schedule(long delayMs) {
+        scheduler.cancel(pollRunnable);
+        if (!cursors.isEmpty()) {
+            scheduler.post(pollRunnable, delayMs);
+        }
+    }
+
+    interface PollScheduler {
+        void post(Runnable poll, long delayMs);
+        void cancel(Runnable poll);
+    }
+
+    // Callbacks arrive on the main thread.
+    public interface RoomListener {
+        default void onNewMessages(String chatRoomId, List<Message> messages) {}
+        default void onTypingChanged(String chatRoomId, Map<String, Boolean> typingUsers) {}
+    }
+}
@@ -1,9 +1,20 @@
 package com.avitaliskhakov.librarychat.config;
+
+import com.avitaliskhakov.librarychat.api.RetryPolicy;
+
 public class ChatConfig {
     private static ChatEventsListener eventsListener;
 
+    private static String baseUrl;
+
+    private static RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+
     private static ChatStyle style;
 
+    private static FrameMetricsListener frameMetricsListener;
+
+    private static boolean flatMessageBubbles;
+
     public static void setStyle(ChatStyle chatStyle) {
         style = chatStyle;
     }
@@ -18,4 +29,46 @@ public class ChatConfig {
     public static ChatEventsListener getChatEventsListener() {
         return eventsListener;
     }
+
+    // Points the SDK at another backend, e.g. a local fake server in tests. Null restores the default.
+    public static void setBaseUrl(String url) {
+        baseUrl = url;
+    }
+
+    public static String getBaseUrl() {
+        return baseUrl;
+    }
+
+    // Only idempotent GET calls are retried; pass RetryPolicy.NONE to disable retries.
+    public static void setRetryPolicy(RetryPolicy policy) {
+        retryPolicy = policy != null ? policy : RetryPolicy.NONE;
+    }
+
+    public static RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    // Opt-in frame-time collection on chat screens; null (the default) collects nothing.
+    public static void setFrameMetricsListener(FrameMetricsListener listener) {
+        frameMetricsListener = listener;
+    }
+
+    public static FrameMetricsListener getFrameMetricsListener() {
+        return frameMetricsListener;
+    }
+
+    // Draws plain text messages with a single MessageBubbleView instead of the XML rows; media and
+    // link preview messages keep the XML rows either way. Read when a chat screen is created.
+    public static void setFlatMessageBubbles(boolean enabled) {
+        flatMessageBubbles = enabled;
+    }
+
+    public static boolean isFlatMessageBubbles() {
+        return flatMessageBubbles;
+    }
+
+    // Heap shared by the SDK's memory caches; ChatSdk.initialize sizes it for the device.
+    public static MemoryBudget getMemoryBudget() {
+        return MemoryBudget.getInstance();
+    }
 }
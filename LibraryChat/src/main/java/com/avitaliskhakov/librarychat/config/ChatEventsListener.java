@@ -2,4 +2,10 @@ package com.avitaliskhakov.librarychat.config;
 
 public interface ChatEventsListener {
     void onMessagesSeen(String chatRoomId, String lastMessageTimestamp);
+
+    // Called on the main thread after each history page is shown; see PageMergeStats for aggregates.
+    default void onPageMerged(String chatRoomId, int messageCount, long mainThreadMicros) {}
+
+    // Called on the main thread after a trim-memory signal; see MemoryBudget.getUsage for what is left.
+    default void onMemoryTrimmed(int level, long freedBytes) {}
 }
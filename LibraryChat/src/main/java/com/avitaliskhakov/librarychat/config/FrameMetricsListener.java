@@ -0,0 +1,8 @@
+package com.avitaliskhakov.librarychat.config;
+
+import com.avitaliskhakov.librarychat.ui.FrameReport;
+
+public interface FrameMetricsListener {
+    // Called on the main thread each time a chat screen goes to the background.
+    void onFrameReport(FrameReport report);
+}
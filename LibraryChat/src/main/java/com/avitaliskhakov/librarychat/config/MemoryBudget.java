@@ -0,0 +1,287 @@
+package com.avitaliskhakov.librarychat.config;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+// Heap shared by the SDK's in-memory caches. Each cache registers with a priority and a share of
+// the total, which is a fraction of the app's memory class, and sizes itself from its share. On
+// trim-memory signals the caches are trimmed lowest priority first until usage is down to what the
+// level allows. Caches are held weakly, like ChatEventBus listeners, so they go away with their owner.
+// Caches registered under the same name, e.g. one per open screen, split that name's share.
+public class MemoryBudget implements ComponentCallbacks2 {
+
+    private static final String TAG = "MemoryBudget";
+    private static final float DEFAULT_HEAP_FRACTION = 1f / 8;
+    private static final float LOW_RAM_HEAP_FRACTION = 1f / 16;
+
+    // Evicted in this order; the cheaper an entry is to rebuild, the lower its priority.
+    public enum Priority {
+        LOW,
+        NORMAL,
+        HIGH
+    }
+
+    public interface Cache {
+        // Estimate of the heap held by the cache.
+        long sizeBytes();
+
+        // Evict least recently used entries until sizeBytes() <= maxBytes; 0 empties the cache.
+        void trimToBytes(long maxBytes);
+
+        // Called on registration and whenever its budget changes: the total, or the caches sharing its name.
+        void onBudgetChanged(long budgetBytes);
+    }
+
+    public static final class Usage {
+        private final String name;
+        private final Priority priority;
+        private final long sizeBytes;
+        private final long budgetBytes;
+
+        Usage(String name, Priority priority, long sizeBytes, long budgetBytes) {
+            this.name = name;
+            this.priority = priority;
+            this.sizeBytes = sizeBytes;
+            this.budgetBytes = budgetBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public long getBudgetBytes() {
+            return budgetBytes;
+        }
+    }
+
+    private static final MemoryBudget INSTANCE = new MemoryBudget();
+
+    private final List<Registration> registrations = new ArrayList<>();
+    private Context appContext;
+    private Float heapFraction;
+    private long totalBytes = (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+
+    MemoryBudget() {}
+
+    static MemoryBudget getInstance() {
+        return INSTANCE;
+    }
+
+    // Sizes the budget from the device's memory class and starts listening for trim signals.
+    public void attach(Context context) {
+        Context app = context.getApplicationContext();
+        synchronized (this) {
+            if (appContext != null) return;
+            appContext = app;
+        }
+        app.registerComponentCallbacks(this);
+        resize();
+    }
+
+    // Fraction of the memory class all caches may use together; defaults to 1/8, 1/16 on low-RAM devices.
+    public void setHeapFraction(float fraction) {
+        synchronized (this) {
+            heapFraction = fraction;
+        }
+        resize();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    // Registers cache under name with share of the total budget, split with the other caches of
+    // that name; returns its budget in bytes. The others are told their smaller budget.
+    public long register(String name, Priority priority, float share, Cache cache) {
+        List<Registration> siblings;
+        synchronized (this) {
+            Registration registration = new Registration(name, priority, share, cache);
+            // Kept sorted by priority so trimming walks them in eviction order.
+            int at = 0;
+            while (at < registrations.size() && registrations.get(at).priority.compareTo(priority) <= 0) {
+                at++;
+            }
+            registrations.add(at, registration);
+            siblings = named(Collections.singleton(name));
+        }
+        notifyBudgets(siblings);
+        return budgetOf(cache);
+    }
+
+    // Also drops registrations whose cache was collected; the rest of their name get the freed share.
+    public void unregister(Cache cache) {
+        List<Registration> siblings;
+        synchronized (this) {
+            Set<String> names = new HashSet<>();
+            Iterator<Registration> it = registrations.iterator();
+            while (it.hasNext()) {
+                Registration registration = it.next();
+                Cache registered = registration.cache.get();
+                if (registered == null || registered == cache) {
+                    it.remove();
+                    names.add(registration.name);
+                }
+            }
+            siblings = named(names);
+        }
+        notifyBudgets(siblings);
+    }
+
+    public List<Usage> getUsage() {
+        List<Usage> usage = new ArrayList<>();
+        for (Registration registration : live()) {
+            Cache cache = registration.cache.get();
+            if (cache != null) {
+                usage.add(new Usage(registration.name, registration.priority, cache.sizeBytes(),
+                        budgetOf(registration)));
+            }
+        }
+        return usage;
+    }
+
+    public long getUsedBytes() {
+        long used = 0;
+        for (Usage usage : getUsage()) {
+            used += usage.getSizeBytes();
+        }
+        return used;
+    }
+
+    // Brings usage down to fraction of what it is now, evicting from the lowest priority up.
+    // Returns the bytes freed.
+    public long trim(float fraction) {
+        List<Registration> ordered = live();
+        long used = 0;
+        for (Registration registration : ordered) {
+            Cache cache = registration.cache.get();
+            if (cache != null) used += cache.sizeBytes();
+        }
+        long target = (long) (used * Math.max(0f, Math.min(1f, fraction)));
+        long freed = 0;
+        for (Registration registration : ordered) {
+            long excess = used - freed - target;
+            if (excess <= 0) break;
+            Cache cache = registration.cache.get();
+            if (cache == null) continue;
+            long before = cache.sizeBytes();
+            cache.trimToBytes(Math.max(0, before - excess));
+            freed += before - cache.sizeBytes();
+        }
+        return freed;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        long freed = trim(keepFraction(level));
+        Log.d(TAG, "Trim level " + level + " freed " + freed + " bytes");
+        ChatEventsListener listener = ChatConfig.getChatEventsListener();
+        if (listener != null) {
+            listener.onMemoryTrimmed(level, freed);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+    // Share of current usage a trim level leaves in place.
+    private static float keepFraction(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) return 0f;
+        if (level >= TRIM_MEMORY_BACKGROUND) return 0.25f;
+        // UI_HIDDEN: nothing of the SDK is on screen, laid out text and rows can be rebuilt.
+        if (level >= TRIM_MEMORY_UI_HIDDEN) return 0.5f;
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) return 0.25f;
+        if (level >= TRIM_MEMORY_RUNNING_LOW) return 0.5f;
+        return 0.75f;
+    }
+
+    private void resize() {
+        List<Registration> snapshot;
+        synchronized (this) {
+            if (appContext == null) return;
+            ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            float fraction = heapFraction != null ? heapFraction
+                    : activityManager.isLowRamDevice() ? LOW_RAM_HEAP_FRACTION : DEFAULT_HEAP_FRACTION;
+            totalBytes = (long) (activityManager.getMemoryClass() * 1024L * 1024L * fraction);
+            snapshot = new ArrayList<>(registrations);
+        }
+        notifyBudgets(snapshot);
+    }
+
+    // Registrations whose cache is still alive, in eviction order.
+    private List<Registration> live() {
+        unregister(null);
+        synchronized (this) {
+            return registrations.isEmpty() ? Collections.emptyList() : new ArrayList<>(registrations);
+        }
+    }
+
+    private synchronized List<Registration> named(Set<String> names) {
+        List<Registration> named = new ArrayList<>();
+        for (Registration registration : registrations) {
+            if (names.contains(registration.name)) named.add(registration);
+        }
+        return named;
+    }
+
+    private synchronized long budgetOf(Registration registration) {
+        int sharing = named(Collections.singleton(registration.name)).size();
+        return (long) (totalBytes * registration.share / Math.max(1, sharing));
+    }
+
+    private synchronized long budgetOf(Cache cache) {
+        for (Registration registration : registrations) {
+            if (registration.cache.get() == cache) return budgetOf(registration);
+        }
+        return 0;
+    }
+
+    // Outside the lock, like the other calls into caches.
+    private void notifyBudgets(List<Registration> changed) {
+        for (Registration registration : changed) {
+            Cache cache = registration.cache.get();
+            if (cache != null) {
+                cache.onBudgetChanged(budgetOf(registration));
+            }
+        }
+    }
+
+    private static class Registration {
+        final String name;
+        final Priority priority;
+        final float share;
+        final WeakReference<Cache> cache;
+
+        Registration(String name, Priority priority, float share, Cache cache) {
+            this.name = name;
+            this.priority = priority;
+            this.share = share;
+            this.cache = new WeakReference<>(cache);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.avitaliskhakov.librarychat.media;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+
+import com.avitaliskhakov.librarychat.api.NetworkPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Decodes any audio the device can play and re-encodes it as AAC-LC in an MP4 container at
+// a bitrate that suits voice messages.
+final class AudioTranscoder {
+
+    static final String MIME_TYPE = "audio/mp4";
+
+    private static final long TIMEOUT_US = 10_000;
+
+    private final MediaPreparer.ProgressSink progress;
+    private final int bitRate;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    private MediaExtractor extractor;
+    private MediaCodec decoder;
+    private MediaCodec encoder;
+    private MediaMuxer muxer;
+    private int muxerTrack = -1;
+    private long durationUs;
+
+    // Decoded PCM waiting for encoder input buffers.
+    private ByteBuffer pcm;
+    private boolean pcmPending;
+    private boolean pcmEndOfStream;
+    private long pcmBytesQueued;
+    private int pcmBytesPerSecond;
+
+    private AudioTranscoder(NetworkPolicy.MediaQuality quality, MediaPreparer.ProgressSink progress) {
+        this.progress = progress;
+        this.bitRate = bitRate(quality);
+    }
+
+    static String transcode(Context context, Uri source, File target, NetworkPolicy.MediaQuality quality,
+                            MediaPreparer.ProgressSink progress) throws IOException {
+        new AudioTranscoder(quality, progress).run(context, source, target);
+        return MIME_TYPE;
+    }
+
+    static int bitRate(NetworkPolicy.MediaQuality quality) {
+        switch (quality) {
+            case LOW: return 32_000;
+            case HIGH: return 96_000;
+            default: return 64_000;
+        }
+    }
+
+    private void run(Context context, Uri source, File target) throws IOException {
+        try {
+            extractor = new MediaExtractor();
+            extractor.setDataSource(context, source, null);
+            int track = findAudioTrack(extractor);
+            if (track < 0) {
+                throw new IOException("No audio track in " + source);
+            }
+            extractor.selectTrack(track);
+            MediaFormat input = extractor.getTrackFormat(track);
+            durationUs = input.containsKey(MediaFormat.KEY_DURATION) ? input.getLong(MediaFormat.KEY_DURATION) : -1;
+
+            decoder = MediaCodec.createDecoderByType(input.getString(MediaFormat.KEY_MIME));
+            decoder.configure(input, null, null, 0);
+            decoder.start();
+            muxer = new MediaMuxer(target.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            pump();
+            progress.report(1f);
+        } finally {
+            release();
+        }
+    }
+
+    private void pump() throws IOException {
+        boolean inputDone = false;
+        boolean decoderDone = false;
+        boolean encoderDone = false;
+        while (!encoderDone) {
+            if (!inputDone) {
+                inputDone = feedDecoder();
+            }
+            if (!decoderDone && !pcmPending) {
+                decoderDone = drainDecoder();
+            }
+            if (pcmPending && encoder != null) {
+                feedEncoder();
+            }
+            if (encoder != null) {
+                encoderDone = drainEncoder();
+            }
+        }
+    }
+
+    // Returns true once the end of stream has been queued.
+    private boolean feedDecoder() {
+        int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) return false;
+        ByteBuffer buffer = decoder.getInputBuffer(index);
+        int size = extractor.readSampleData(buffer, 0);
+        if (size < 0) {
+            decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
+        }
+        long sampleTimeUs = extractor.getSampleTime();
+        decoder.queueInputBuffer(index, 0, size, sampleTimeUs, 0);
+        if (durationUs > 0) {
+            // Decoding dominates, so input position is a fair measure of progress.
+            progress.report(Math.min(0.95f, 0.95f * sampleTimeUs / durationUs));
+        }
+        extractor.advance();
+        return false;
+    }
+
+    // Returns true once the decoder has produced its last buffer.
+    private boolean drainDecoder() throws IOException {
+        int index = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            startEncoder(decoder.getOutputFormat());
+            return false;
+        }
+        if (index < 0) return false;
+
+        if (encoder == null) {
+            startEncoder(decoder.getOutputFormat());
+        }
+        ByteBuffer output = decoder.getOutputBuffer(index);
+        if (pcm == null || pcm.capacity() < info.size) {
+            pcm = ByteBuffer.allocateDirect(Math.max(info.size, 16 * 1024));
+        }
+        pcm.clear();
+        if (output != null && info.size > 0) {
+            output.position(info.offset);
+            output.limit(info.offset + info.size);
+            pcm.put(output);
+        }
+        pcm.flip();
+        pcmPending = true;
+        pcmEndOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        decoder.releaseOutputBuffer(index, false);
+        return pcmEndOfStream;
+    }
+
+    private void feedEncoder() {
+        int index = encoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) return;
+        ByteBuffer buffer = encoder.getInputBuffer(index);
+        buffer.clear();
+        int count = Math.min(buffer.remaining(), pcm.remaining());
+        ByteBuffer slice = pcm.duplicate();
+        slice.limit(slice.position() + count);
+        buffer.put(slice);
+        pcm.position(pcm.position() + count);
+
+        long presentationUs = pcmBytesQueued * 1_000_000L / pcmBytesPerSecond;
+        pcmBytesQueued += count;
+        boolean last = !pcm.hasRemaining() && pcmEndOfStream;
+        encoder.queueInputBuffer(index, 0, count, presentationUs, last ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+        if (!pcm.hasRemaining()) {
+            pcmPending = false;
+        }
+    }
+
+    // Returns true once the encoder's last buffer has been written.
+    private boolean drainEncoder() {
+        int index = encoder.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            muxerTrack = muxer.addTrack(encoder.getOutputFormat());
+            muxer.start();
+            return false;
+        }
+        if (index < 0) return false;
+
+        ByteBuffer output = encoder.getOutputBuffer(index);
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // Already part of the output format given to the muxer.
+            info.size = 0;
+        }
+        if (info.size > 0 && muxerTrack >= 0 && output != null) {
+            output.position(info.offset);
+            output.limit(info.offset + info.size);
+            muxer.writeSampleData(muxerTrack, output, info);
+        }
+        encoder.releaseOutputBuffer(index, false);
+        return (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+    }
+
+    private void startEncoder(MediaFormat pcmFormat) throws IOException {
+        if (encoder != null) return;
+        int sampleRate = pcmFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channels = pcmFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        // 16-bit PCM, the decoder default.
+        pcmBytesPerSecond = sampleRate * channels * 2;
+
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, channels);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 16 * 1024);
+        encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoder.start();
+    }
+
+    private void release() {
+        if (decoder != null) {
+            try {
+                decoder.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            decoder.release();
+        }
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            encoder.release();
+        }
+        if (muxer != null) {
+            try {
+                if (muxerTrack >= 0) muxer.stop();
+            } catch (IllegalStateException ignored) {
+                // Nothing was written.
+            }
+            muxer.release();
+        }
+        if (extractor != null) {
+            extractor.release();
+        }
+    }
+
+    private static int findAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,68 @@
+package com.avitaliskhakov.librarychat.media;
+
+import android.media.MediaDataSource;
+
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.store.MediaCache;
+
+import java.io.IOException;
+
+// Feeds MediaPlayer from MediaCache so playback can begin once the first chunk has arrived.
+// The chunk after the one being read is prefetched so playback does not stall at boundaries.
+public class CachedMediaDataSource extends MediaDataSource {
+
+    private final MediaCache cache;
+    private final String url;
+
+    // Player reads are small and sequential, so keep the current chunk in memory.
+    private int currentIndex = -1;
+    private byte[] currentChunk;
+
+    public CachedMediaDataSource(MediaCache cache, String url) {
+        this.cache = cache;
+        this.url = url;
+    }
+
+    // Called by MediaPlayer on its own thread.
+    @Override
+    public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) return 0;
+        long length = getSize();
+        if (position >= length) return -1;
+
+        int read = 0;
+        while (read < size && position + read < length) {
+            long at = position + read;
+            int index = (int) (at / MediaCache.CHUNK_SIZE);
+            byte[] chunk = chunk(index);
+            int within = (int) (at - (long) index * MediaCache.CHUNK_SIZE);
+            if (within >= chunk.length) break;
+            int count = Math.min(size - read, chunk.length - within);
+            System.arraycopy(chunk, within, buffer, offset + read, count);
+            read += count;
+        }
+        return read > 0 ? read : -1;
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return cache.getLength(url, RequestClass.VISIBLE);
+    }
+
+    @Override
+    public synchronized void close() {
+        currentChunk = null;
+        currentIndex = -1;
+    }
+
+    private byte[] chunk(int index) throws IOException {
+        if (index != currentIndex) {
+            currentChunk = cache.readChunk(url, index, RequestClass.VISIBLE);
+            currentIndex = index;
+            if ((long) (index + 1) * MediaCache.CHUNK_SIZE < getSize()) {
+                cache.prefetch(url, index + 1);
+            }
+        }
+        return currentChunk;
+    }
+}
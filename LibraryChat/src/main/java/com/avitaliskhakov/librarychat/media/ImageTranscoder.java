@@ -0,0 +1,133 @@
+package com.avitaliskhakov.librarychat.media;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+
+import com.avitaliskhakov.librarychat.api.NetworkPolicy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Downsamples while decoding, scales to the target size, applies the EXIF rotation and
+// re-encodes. The new file is written from pixels only, so no EXIF (GPS, device) survives.
+final class ImageTranscoder {
+
+    private ImageTranscoder() {}
+
+    static String transcode(ContentResolver resolver, Uri source, File target, NetworkPolicy.MediaQuality quality,
+                            MediaPreparer.ProgressSink progress) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(resolver, source)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not a decodable image: " + source);
+        }
+        int rotation;
+        try (InputStream in = open(resolver, source)) {
+            rotation = rotationOf(new ExifInterface(in));
+        }
+        progress.report(0.1f);
+
+        int maxEdge = maxEdge(quality);
+        BitmapFactory.Options decode = new BitmapFactory.Options();
+        decode.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, maxEdge);
+        Bitmap decoded;
+        try (InputStream in = open(resolver, source)) {
+            decoded = BitmapFactory.decodeStream(in, null, decode);
+        }
+        if (decoded == null) {
+            throw new IOException("Failed to decode " + source);
+        }
+        progress.report(0.5f);
+
+        Bitmap scaled = scaleAndRotate(decoded, maxEdge, rotation);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        progress.report(0.7f);
+
+        Bitmap.CompressFormat format;
+        String mimeType;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            format = Bitmap.CompressFormat.WEBP_LOSSY;
+            mimeType = "image/webp";
+        } else {
+            format = Bitmap.CompressFormat.JPEG;
+            mimeType = "image/jpeg";
+        }
+        try (OutputStream out = new FileOutputStream(target)) {
+            if (!scaled.compress(format, jpegQuality(quality), out)) {
+                throw new IOException("Failed to encode " + source);
+            }
+        } finally {
+            scaled.recycle();
+        }
+        progress.report(1f);
+        return mimeType;
+    }
+
+    static int maxEdge(NetworkPolicy.MediaQuality quality) {
+        switch (quality) {
+            case LOW: return 1024;
+            case HIGH: return 2048;
+            default: return 1600;
+        }
+    }
+
+    static int jpegQuality(NetworkPolicy.MediaQuality quality) {
+        switch (quality) {
+            case LOW: return 60;
+            case HIGH: return 85;
+            default: return 75;
+        }
+    }
+
+    // Largest power of two that still leaves the long edge at or above maxEdge.
+    static int sampleSize(int width, int height, int maxEdge) {
+        int longEdge = Math.max(width, height);
+        int sample = 1;
+        while (longEdge / (sample * 2) >= maxEdge) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private static Bitmap scaleAndRotate(Bitmap bitmap, int maxEdge, int rotation) {
+        int longEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        float scale = longEdge > maxEdge ? (float) maxEdge / longEdge : 1f;
+        if (scale == 1f && rotation == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postRotate(rotation);
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    }
+
+    private static int rotationOf(ExifInterface exif) {
+        switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+            case ExifInterface.ORIENTATION_ROTATE_90: return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180: return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270: return 270;
+            default: return 0;
+        }
+    }
+
+    private static InputStream open(ContentResolver resolver, Uri source) throws IOException {
+        InputStream in = resolver.openInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,137 @@
+package com.avitaliskhakov.librarychat.media;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.avitaliskhakov.librarychat.api.NetworkPolicy;
+import com.avitaliskhakov.librarychat.model.Icontent;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+// Shrinks media before it is uploaded: images are downsampled and re-encoded without EXIF,
+// audio is re-encoded to AAC and video is remuxed without container metadata. Quality follows
+// NetworkPolicy. Work runs on the bounded ChatExecutors.media() executor, never the caller's thread.
+public class MediaPreparer {
+
+    private static final String TAG = "MediaPreparer";
+    // Progress is forwarded to the main thread only in steps of at least this much.
+    private static final float PROGRESS_STEP = 0.02f;
+    private static final long STALE_OUTPUT_MS = 24 * 60 * 60 * 1000L;
+
+    private static MediaPreparer instance;
+
+    private final Context context;
+    private final File outputDir;
+
+    private MediaPreparer(Context context) {
+        this.context = context.getApplicationContext();
+        this.outputDir = new File(this.context.getCacheDir(), "librarychat/media-out");
+        ChatExecutors.background().execute(this::deleteStaleOutput);
+    }
+
+    public static synchronized MediaPreparer getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaPreparer(context);
+        }
+        return instance;
+    }
+
+    public void prepare(Uri source, Icontent.contentType type, Listener listener) {
+        try {
+            ChatExecutors.media().execute(() -> {
+                float[] lastReported = {0f};
+                try {
+                    PreparedMedia media = prepareSync(source, type, fraction -> {
+                        if (fraction >= 1f || fraction - lastReported[0] >= PROGRESS_STEP) {
+                            lastReported[0] = fraction;
+                            ChatExecutors.runOnMain(() -> listener.onProgress(fraction));
+                        }
+                    });
+                    ChatExecutors.runOnMain(() -> listener.onPrepared(media));
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Preparing " + source + " failed", e);
+                    ChatExecutors.runOnMain(() -> listener.onFailed("Media preparation failed: " + e.getMessage()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Posted even when called on the main thread, so the listener never runs inside prepare().
+            ChatExecutors.postOnMain(() -> listener.onFailed("Too many media items queued"), 0);
+        }
+    }
+
+    // Blocking variant for callers already off the main thread.
+    public PreparedMedia prepareSync(Uri source, Icontent.contentType type, ProgressSink progress) throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        long start = SystemClock.elapsedRealtime();
+        long originalBytes = sizeOf(source);
+        NetworkPolicy.MediaQuality quality = NetworkPolicy.getInstance().getMediaQuality();
+        File target = new File(outputDir, UUID.randomUUID().toString());
+
+        String mimeType;
+        try {
+            switch (type) {
+                case IMG:
+                    mimeType = ImageTranscoder.transcode(context.getContentResolver(), source, target, quality, progress);
+                    break;
+                case AUDIO:
+                    mimeType = AudioTranscoder.transcode(context, source, target, quality, progress);
+                    break;
+                case VIDEO:
+                    mimeType = VideoRemuxer.remux(context, source, target, progress);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Nothing to prepare for " + type);
+            }
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        }
+
+        PreparedMedia media = new PreparedMedia(target, mimeType, type, originalBytes,
+                SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, type + " prepared in " + media.getPrepareMs() + " ms, "
+                + originalBytes + " -> " + media.getPreparedBytes() + " bytes (" + quality + ")");
+        return media;
+    }
+
+    private long sizeOf(Uri source) {
+        try (AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(source, "r")) {
+            return descriptor != null ? descriptor.getLength() : -1;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // Leftovers from uploads that never finished, e.g. when the process died mid-way.
+    private void deleteStaleOutput() {
+        File[] files = outputDir.listFiles();
+        if (files == null) return;
+        long cutoff = System.currentTimeMillis() - STALE_OUTPUT_MS;
+        for (File file : files) {
+            if (file.lastModified() < cutoff) {
+                file.delete();
+            }
+        }
+    }
+
+    // Called on the media thread with a value between 0 and 1.
+    public interface ProgressSink {
+        void report(float fraction);
+    }
+
+    // Callbacks arrive on the main thread.
+    public interface Listener {
+        default void onProgress(float fraction) {}
+        void onPrepared(PreparedMedia media);
+        void onFailed(String error);
+    }
+}
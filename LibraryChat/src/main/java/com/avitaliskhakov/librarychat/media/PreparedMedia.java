@@ -0,0 +1,54 @@
+package com.avitaliskhakov.librarychat.media;
+
+import com.avitaliskhakov.librarychat.model.Icontent;
+
+import java.io.File;
+
+// Output of MediaPreparer: the file to upload plus what the preparation saved.
+public class PreparedMedia {
+    private final File file;
+    private final String mimeType;
+    private final Icontent.contentType contentType;
+    private final long originalBytes;
+    private final long preparedBytes;
+    private final long prepareMs;
+
+    PreparedMedia(File file, String mimeType, Icontent.contentType contentType, long originalBytes, long prepareMs) {
+        this.file = file;
+        this.mimeType = mimeType;
+        this.contentType = contentType;
+        this.originalBytes = originalBytes;
+        this.preparedBytes = file.length();
+        this.prepareMs = prepareMs;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public Icontent.contentType getContentType() {
+        return contentType;
+    }
+
+    // -1 when the source did not report its size.
+    public long getOriginalBytes() {
+        return originalBytes;
+    }
+
+    public long getPreparedBytes() {
+        return preparedBytes;
+    }
+
+    public long getPrepareMs() {
+        return prepareMs;
+    }
+
+    // Delete once uploaded; the file lives in the SDK's cache directory.
+    public void delete() {
+        file.delete();
+    }
+}
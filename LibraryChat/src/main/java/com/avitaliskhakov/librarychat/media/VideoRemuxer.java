@@ -0,0 +1,84 @@
+package com.avitaliskhakov.librarychat.media;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Copies the audio and video samples into a fresh MP4 without re-encoding. Container metadata
+// such as the recording location and device tags is not carried over; rotation is.
+final class VideoRemuxer {
+
+    static final String MIME_TYPE = "video/mp4";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private VideoRemuxer() {}
+
+    @SuppressLint("WrongConstant")
+    static String remux(Context context, Uri source, File target, MediaPreparer.ProgressSink progress) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        boolean started = false;
+        try {
+            extractor.setDataSource(context, source, null);
+            muxer = new MediaMuxer(target.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            int[] trackMap = new int[extractor.getTrackCount()];
+            long durationUs = -1;
+            for (int i = 0; i < trackMap.length; i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null || !(mime.startsWith("video/") || mime.startsWith("audio/"))) {
+                    trackMap[i] = -1;
+                    continue;
+                }
+                if (mime.startsWith("video/") && format.containsKey(MediaFormat.KEY_ROTATION)) {
+                    muxer.setOrientationHint(format.getInteger(MediaFormat.KEY_ROTATION));
+                }
+                if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                    durationUs = Math.max(durationUs, format.getLong(MediaFormat.KEY_DURATION));
+                }
+                extractor.selectTrack(i);
+                trackMap[i] = muxer.addTrack(format);
+            }
+            muxer.start();
+            started = true;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            while (true) {
+                int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) break;
+                int track = trackMap[extractor.getSampleTrackIndex()];
+                info.set(0, size, extractor.getSampleTime(), extractor.getSampleFlags());
+                muxer.writeSampleData(track, buffer, info);
+                if (durationUs > 0) {
+                    progress.report(Math.min(0.99f, (float) info.presentationTimeUs / durationUs));
+                }
+                extractor.advance();
+            }
+            progress.report(1f);
+            return MIME_TYPE;
+        } finally {
+            if (muxer != null) {
+                if (started) {
+                    try {
+                        muxer.stop();
+                    } catch (IllegalStateException ignored) {
+                        // Nothing was written.
+                    }
+                }
+                muxer.release();
+            }
+            extractor.release();
+        }
+    }
+}
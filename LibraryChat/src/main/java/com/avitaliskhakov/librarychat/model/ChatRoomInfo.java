@@ -4,6 +4,10 @@ public class ChatRoomInfo {
     private String id;
     private String title;
     private String creator;
+    // Time of the latest message, or of creation for an empty room; same format as createdAt.
+    private String lastActivityAt;
+    private transient long lastActivityMillis;
+    private transient boolean lastActivityParsed;
 
     public ChatRoomInfo() {}
 
@@ -12,6 +16,13 @@ public class ChatRoomInfo {
         this.title = title;
     }
 
+    public ChatRoomInfo(ChatRoomInfo other) {
+        this.id = other.id;
+        this.title = other.title;
+        this.creator = other.creator;
+        this.lastActivityAt = other.lastActivityAt;
+    }
+
     public String getCreator(){
         return creator;
     }
@@ -35,5 +46,27 @@ public class ChatRoomInfo {
     public void setTitle(String title) {
         this.title = title;
     }
-}
 
+    public String getLastActivityAt() {
+        return lastActivityAt;
+    }
+
+    public void setLastActivityAt(String lastActivityAt) {
+        this.lastActivityAt = lastActivityAt;
+        lastActivityParsed = false;
+    }
+
+    public void setLastActivityAtMillis(long epochMillis) {
+        setLastActivityAt(IsoTime.format(epochMillis));
+    }
+
+    // 0 when the server sent no (or an unreadable) timestamp, so such rooms sort last.
+    public long getLastActivityAtMillis() {
+        if (!lastActivityParsed) {
+            long parsed = IsoTime.parse(lastActivityAt);
+            lastActivityMillis = parsed != IsoTime.UNPARSED ? parsed : 0;
+            lastActivityParsed = true;
+        }
+        return lastActivityMillis;
+    }
+}
@@ -0,0 +1,32 @@
+package com.avitaliskhakov.librarychat.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One page of a user's rooms, most recently active first. nextCursor is opaque and points just
+// past the last room of this page (lastActivityAt, then id).
+public class ChatRoomPage {
+    private List<ChatRoomInfo> rooms;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public ChatRoomPage() {}
+
+    public ChatRoomPage(List<ChatRoomInfo> rooms, String nextCursor, boolean hasMore) {
+        this.rooms = rooms;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<ChatRoomInfo> getRooms() {
+        return rooms != null ? rooms : new ArrayList<>();
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
@@ -0,0 +1,22 @@
+package com.avitaliskhakov.librarychat.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Canonical instances for room and user IDs, which repeat on every row of a page. Bounded so
+// an unusual stream of distinct IDs cannot grow it without limit.
+final class IdPool {
+
+    private static final int MAX_SIZE = 4096;
+    private static final ConcurrentHashMap<String, String> POOL = new ConcurrentHashMap<>();
+
+    private IdPool() {}
+
+    static String intern(String id) {
+        if (id == null) return null;
+        String pooled = POOL.get(id);
+        if (pooled != null) return pooled;
+        if (POOL.size() >= MAX_SIZE) return id;
+        pooled = POOL.putIfAbsent(id, id);
+        return pooled != null ? pooled : id;
+    }
+}
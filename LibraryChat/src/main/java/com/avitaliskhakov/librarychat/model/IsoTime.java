@@ -0,0 +1,93 @@
+package com.avitaliskhakov.librarychat.model;
+
+// Allocation-free codec for the backend's "yyyy-MM-ddTHH:mm:ss.SSSZ" UTC timestamps.
+final class IsoTime {
+
+    static final long UNPARSED = Long.MIN_VALUE;
+
+    private static final int LENGTH = 24;
+
+    private IsoTime() {}
+
+    // Epoch millis, or UNPARSED when the string is not in exactly that form.
+    static long parse(String value) {
+        if (value == null || value.length() != LENGTH
+                || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || value.charAt(16) != ':' || value.charAt(19) != '.'
+                || value.charAt(23) != 'Z') {
+            return UNPARSED;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = digits(value, 17, 2);
+        int millis = digits(value, 20, 3);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return UNPARSED;
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+    }
+
+    static String format(long epochMillis) {
+        long days = Math.floorDiv(epochMillis, 86_400_000L);
+        int msOfDay = (int) Math.floorMod(epochMillis, 86_400_000L);
+
+        // Inverse of daysFromCivil (H. Hinnant's civil_from_days).
+        long z = days + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long doe = z - era * 146_097;
+        long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] out = new char[LENGTH];
+        put(out, 0, year, 4);
+        out[4] = '-';
+        put(out, 5, month, 2);
+        out[7] = '-';
+        put(out, 8, day, 2);
+        out[10] = 'T';
+        put(out, 11, msOfDay / 3_600_000, 2);
+        out[13] = ':';
+        put(out, 14, msOfDay / 60_000 % 60, 2);
+        out[16] = ':';
+        put(out, 17, msOfDay / 1000 % 60, 2);
+        out[19] = '.';
+        put(out, 20, msOfDay % 1000, 3);
+        out[23] = 'Z';
+        return new String(out);
+    }
+
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146_097 + doe - 719_468;
+    }
+
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static void put(char[] out, int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
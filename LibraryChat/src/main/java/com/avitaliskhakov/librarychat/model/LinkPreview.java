@@ -0,0 +1,44 @@
+package com.avitaliskhakov.librarychat.model;
+
+public class LinkPreview {
+    private String url;
+    private String title;
+    private String description;
+    private String imageUrl;
+    private String siteName;
+
+    public LinkPreview() {}
+
+    public LinkPreview(String url, String title, String description, String imageUrl, String siteName) {
+        this.url = url;
+        this.title = title;
+        this.description = description;
+        this.imageUrl = imageUrl;
+        this.siteName = siteName;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public String getSiteName() {
+        return siteName;
+    }
+
+    // Nothing worth showing, e.g. a page without title or description.
+    public boolean isEmpty() {
+        return title == null && description == null && imageUrl == null;
+    }
+}
@@ -1,28 +1,83 @@
 package com.avitaliskhakov.librarychat.model;
 
+import com.google.gson.annotations.JsonAdapter;
+
+import java.util.Comparator;
+
+// Stored flat: content fields live on the row, timestamps as epoch millis, the content type as
+// a byte and room/sender IDs shared between rows. The JSON shape is unchanged (see
+// MessageTypeAdapter) and getContent() still returns a Content, built on demand. Timestamp
+// strings are formatted on first use and kept, so only rows that are shown pay for them.
+@JsonAdapter(MessageTypeAdapter.class)
 public class Message {
+
+    // Oldest first, ties broken by id like the server's page order; falls back to string order
+    // for timestamps not in the backend's format.
+    public static final Comparator<Message> BY_CREATED_AT = (m1, m2) -> {
+        int byTime = compareCreatedAt(m1, m2);
+        if (byTime != 0 || m1.id == null || m2.id == null) {
+            return byTime;
+        }
+        return m1.id.compareTo(m2.id);
+    };
+
+    private static final byte NO_TYPE = -1;
+    private static final Icontent.contentType[] TYPES = Icontent.contentType.values();
+
     private String id;
     private String chatRoomId;
     private String senderId;
-    private Content content;
+    private String text;
+    private long createdAt = IsoTime.UNPARSED;
+    private long contentCreatedAt = IsoTime.UNPARSED;
+    // The timestamp as a string: kept verbatim when it did not parse, else formatted on first get.
+    private String createdAtText;
+    private String contentCreatedAtText;
+    private byte contentType = NO_TYPE;
+    private boolean hasContent;
     private boolean edited;
-    private String createdAt;
 
     public Message() {}
 
     public Message(String id, String chatRoomId,String senderId,Content content) {
         this.id = id;
-        this.chatRoomId = chatRoomId;
-        this.senderId = senderId;
-        this.content = content;
+        setChatRoomId(chatRoomId);
+        setSenderId(senderId);
+        setContent(content);
+    }
+
+    private static int compareCreatedAt(Message m1, Message m2) {
+        if (m1.createdAt != IsoTime.UNPARSED && m2.createdAt != IsoTime.UNPARSED) {
+            return Long.compare(m1.createdAt, m2.createdAt);
+        }
+        String c1 = m1.formatCreatedAt();
+        String c2 = m2.formatCreatedAt();
+        if (c1 == null || c2 == null) {
+            return c1 == null ? (c2 == null ? 0 : -1) : 1;
+        }
+        return c1.compareTo(c2);
     }
 
     public String getCreatedAt() {
-        return this.createdAt;
+        if (createdAtText == null && createdAt != IsoTime.UNPARSED) {
+            createdAtText = IsoTime.format(createdAt);
+        }
+        return createdAtText;
+    }
+
+    // Like getCreatedAt() without keeping the string, for serializing whole pages.
+    String formatCreatedAt() {
+        return createdAtText != null || createdAt == IsoTime.UNPARSED ? createdAtText : IsoTime.format(createdAt);
     }
 
     public void setCreatedAt(String createdAt) {
-        this.createdAt = createdAt;
+        this.createdAt = IsoTime.parse(createdAt);
+        this.createdAtText = this.createdAt == IsoTime.UNPARSED ? createdAt : null;
+    }
+
+    // Epoch millis, or -1 when the timestamp is missing or not in the backend's format.
+    public long getCreatedAtMillis() {
+        return createdAt != IsoTime.UNPARSED ? createdAt : -1;
     }
 
     public boolean isEdited() {
@@ -46,7 +101,7 @@ public class Message {
     }
 
     public void setChatRoomId(String chatRoomId) {
-        this.chatRoomId = chatRoomId;
+        this.chatRoomId = IdPool.intern(chatRoomId);
     }
 
     public String getSenderId() {
@@ -54,16 +109,62 @@ public class Message {
     }
 
     public void setSenderId(String senderId) {
-        this.senderId = senderId;
+        this.senderId = IdPool.intern(senderId);
     }
 
+    // Returns a copy, built on every call; call setContent() to change the message. Bind and
+    // merge paths read getText(), getContentType() and the millis getters instead.
     public Content getContent() {
-        return this.content;
+        return hasContent ? new Content(text, getContentType(), getContentCreatedAt()) : null;
     }
 
     public void setContent(Content content) {
-        this.content = content;
+        hasContent = content != null;
+        text = hasContent ? content.getContent() : null;
+        setContentType(hasContent ? content.getContentType() : null);
+        setContentCreatedAt(hasContent ? content.getCreatedAt() : null);
     }
 
+    public boolean hasContent() {
+        return hasContent;
+    }
+
+    // Same as getContent().getContent() without building the Content.
+    public String getText() {
+        return text;
+    }
 
+    void setText(String text) {
+        this.text = text;
+        hasContent = true;
+    }
+
+    public Icontent.contentType getContentType() {
+        return contentType != NO_TYPE ? TYPES[contentType] : null;
+    }
+
+    void setContentType(Icontent.contentType type) {
+        contentType = type != null ? (byte) type.ordinal() : NO_TYPE;
+    }
+
+    public String getContentCreatedAt() {
+        if (contentCreatedAtText == null && contentCreatedAt != IsoTime.UNPARSED) {
+            contentCreatedAtText = IsoTime.format(contentCreatedAt);
+        }
+        return contentCreatedAtText;
+    }
+
+    String formatContentCreatedAt() {
+        return contentCreatedAtText != null || contentCreatedAt == IsoTime.UNPARSED
+                ? contentCreatedAtText : IsoTime.format(contentCreatedAt);
+    }
+
+    void setContentCreatedAt(String createdAt) {
+        contentCreatedAt = IsoTime.parse(createdAt);
+        contentCreatedAtText = contentCreatedAt == IsoTime.UNPARSED ? createdAt : null;
+    }
+
+    public long getContentCreatedAtMillis() {
+        return contentCreatedAt != IsoTime.UNPARSED ? contentCreatedAt : -1;
+    }
 }
@@ -0,0 +1,33 @@
+package com.avitaliskhakov.librarychat.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One page of a room's history. nextCursor is opaque and points just past the oldest message of
+// this page (createdAt, then id), so consecutive pages never overlap or skip a message.
+public class MessagePage {
+    private List<Message> messages;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public MessagePage() {}
+
+    public MessagePage(List<Message> messages, String nextCursor, boolean hasMore) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<Message> getMessages() {
+        return messages != null ? messages : new ArrayList<>();
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    // False once this page reaches the first message of the room.
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
@@ -0,0 +1,110 @@
+package com.avitaliskhakov.librarychat.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+// Reads and writes Message in the same JSON shape as the reflective adapter did, with the
+// content as a nested object, while filling the flat in-memory fields directly.
+final class MessageTypeAdapter extends TypeAdapter<Message> {
+
+    @Override
+    public void write(JsonWriter out, Message message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(message.getId());
+        out.name("chatRoomId").value(message.getChatRoomId());
+        out.name("senderId").value(message.getSenderId());
+        if (message.hasContent()) {
+            Icontent.contentType type = message.getContentType();
+            out.name("content").beginObject();
+            out.name("content").value(message.getText());
+            out.name("contentType").value(type != null ? type.name() : null);
+            out.name("createdAt").value(message.formatContentCreatedAt());
+            out.endObject();
+        }
+        out.name("edited").value(message.isEdited());
+        out.name("createdAt").value(message.formatCreatedAt());
+        out.endObject();
+    }
+
+    @Override
+    public Message read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Message message = new Message();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    message.setId(in.nextString());
+                    break;
+                case "chatRoomId":
+                    message.setChatRoomId(in.nextString());
+                    break;
+                case "senderId":
+                    message.setSenderId(in.nextString());
+                    break;
+                case "content":
+                    readContent(in, message);
+                    break;
+                case "edited":
+                    message.setEdited(in.nextBoolean());
+                    break;
+                case "createdAt":
+                    message.setCreatedAt(in.nextString());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return message;
+    }
+
+    private static void readContent(JsonReader in, Message message) throws IOException {
+        message.setText(null);
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "content":
+                    message.setText(in.nextString());
+                    break;
+                case "contentType":
+                    message.setContentType(typeOf(in.nextString()));
+                    break;
+                case "createdAt":
+                    message.setContentCreatedAt(in.nextString());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    private static Icontent.contentType typeOf(String name) {
+        for (Icontent.contentType type : Icontent.contentType.values()) {
+            if (type.name().equals(name)) return type;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,32 @@
+package com.avitaliskhakov.librarychat.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One page of a room's members in user id order. nextCursor is opaque and points just past the
+// last id of this page.
+public class ParticipantPage {
+    private List<String> participants;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public ParticipantPage() {}
+
+    public ParticipantPage(List<String> participants, String nextCursor, boolean hasMore) {
+        this.participants = participants;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<String> getParticipants() {
+        return participants != null ? participants : new ArrayList<>();
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
@@ -0,0 +1,50 @@
+package com.avitaliskhakov.librarychat.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ReadReceipts {
+    private final String chatRoomId;
+    private final Map<String, String> lastSeenByUser;
+    private final String[] sortedLastSeen;
+
+    public ReadReceipts(String chatRoomId, Map<String, String> lastSeenByUser) {
+        this.chatRoomId = chatRoomId;
+        this.lastSeenByUser = lastSeenByUser != null ? lastSeenByUser : new HashMap<>();
+        this.sortedLastSeen = this.lastSeenByUser.values().toArray(new String[0]);
+        Arrays.sort(sortedLastSeen);
+    }
+
+    public String getChatRoomId() {
+        return chatRoomId;
+    }
+
+    public String getLastSeen(String userId) {
+        return lastSeenByUser.get(userId);
+    }
+
+    // Users whose last seen timestamp is at or after the message, not counting the sender.
+    public int seenByCount(Message message) {
+        String createdAt = message.getCreatedAt();
+        if (createdAt == null) return 0;
+
+        int low = 0;
+        int high = sortedLastSeen.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedLastSeen[mid].compareTo(createdAt) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int count = sortedLastSeen.length - low;
+
+        String senderSeen = lastSeenByUser.get(message.getSenderId());
+        if (senderSeen != null && senderSeen.compareTo(createdAt) >= 0) {
+            count--;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,46 @@
+package com.avitaliskhakov.librarychat.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Changes in one room since the cursor sent with a batched poll.
+public class RoomUpdate {
+    private String chatRoomId;
+    // New messages, oldest first.
+    private List<Message> messages;
+    // Present only when the set of typing users changed.
+    private Map<String, Boolean> typing;
+    // Pass back on the next poll for this room.
+    private String cursor;
+
+    public RoomUpdate() {}
+
+    public RoomUpdate(String chatRoomId, List<Message> messages, Map<String, Boolean> typing, String cursor) {
+        this.chatRoomId = chatRoomId;
+        this.messages = messages;
+        this.typing = typing;
+        this.cursor = cursor;
+    }
+
+    public String getChatRoomId() {
+        return chatRoomId;
+    }
+
+    public List<Message> getMessages() {
+        return messages != null ? messages : new ArrayList<>();
+    }
+
+    public boolean hasTypingChange() {
+        return typing != null;
+    }
+
+    public Map<String, Boolean> getTyping() {
+        return typing != null ? typing : new HashMap<>();
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,46 @@
+package com.avitaliskhakov.librarychat.model;
+
+public class SearchHit {
+    private String messageId;
+    private String chatRoomId;
+    private String senderId;
+    private String createdAt;
+    private String snippet;
+    // Start/end offsets into snippet, two entries per highlighted term.
+    private int[] highlights;
+
+    public SearchHit() {}
+
+    public SearchHit(String messageId, String chatRoomId, String senderId, String createdAt, String snippet, int[] highlights) {
+        this.messageId = messageId;
+        this.chatRoomId = chatRoomId;
+        this.senderId = senderId;
+        this.createdAt = createdAt;
+        this.snippet = snippet;
+        this.highlights = highlights;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getChatRoomId() {
+        return chatRoomId;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public int[] getHighlights() {
+        return highlights != null ? highlights : new int[0];
+    }
+}
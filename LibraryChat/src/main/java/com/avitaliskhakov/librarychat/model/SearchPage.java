@@ -0,0 +1,28 @@
+package com.avitaliskhakov.librarychat.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SearchPage {
+    private List<SearchHit> hits;
+    private String nextCursor;
+
+    public SearchPage() {}
+
+    public SearchPage(List<SearchHit> hits, String nextCursor) {
+        this.hits = hits;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<SearchHit> getHits() {
+        return hits != null ? hits : new ArrayList<>();
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,350 @@
+package com.avitaliskhakov.librarychat.store;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Patterns;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.api.ChatApiProvider;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.config.MemoryBudget;
+import com.avitaliskhakov.librarychat.model.Icontent;
+import com.avitaliskhakov.librarychat.model.LinkPreview;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+
+import retrofit2.Response;
+
+// Link previews for URLs found in text messages, unfurled by the backend and cached in memory
+// and on disk by URL. A URL shared in many messages, or in many rooms, is fetched once; callers
+// asking while a fetch is running join it instead of starting another. A URL whose fetch failed
+// is not asked again for FAILURE_BACKOFF_MS.
+public class LinkPreviewCache implements MemoryBudget.Cache {
+
+    private static final String TAG = "LinkPreviewCache";
+    // Until the memory budget sizes them; split between the two the same way afterwards.
+    private static final int MEMORY_BYTES = 200 * 1024;
+    private static final int TEXT_BYTES = 100 * 1024;
+    private static final long MAX_DISK_BYTES = 2 * 1024 * 1024;
+    private static final long FAILURE_BACKOFF_MS = 60 * 1000;
+    // Remembered in memory for URLs the server could not unfurl, so they are not asked again.
+    private static final LinkPreview NONE = new LinkPreview();
+    private static final String NO_URL = "";
+
+    private static LinkPreviewCache instance;
+
+    private final File directory;
+    private final Gson gson = new Gson();
+    private final LruCache<String, LinkPreview> memory = new LruCache<String, LinkPreview>(MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String url, LinkPreview preview) {
+            return 64 + chars(url) * 2 + chars(preview.getTitle()) * 2 + chars(preview.getDescription()) * 2
+                    + chars(preview.getImageUrl()) * 2 + chars(preview.getSiteName()) * 2;
+        }
+    };
+    // First URL per message text, so binding a bubble does not run the URL pattern again.
+    private final LruCache<String, String> urlByText = new LruCache<String, String>(TEXT_BYTES) {
+        @Override
+        protected int sizeOf(String text, String url) {
+            return 64 + text.length() * 2 + url.length() * 2;
+        }
+    };
+    private final Map<String, List<Callback>> inFlight = new HashMap<>();
+    // When each failed URL may be fetched again. Kept apart from the LRU so trims do not clear it;
+    // expired entries are dropped as new failures come in.
+    private final Map<String, Long> failedUntil = new HashMap<>();
+
+    private LinkPreviewCache(Context context) {
+        this(new File(context.getApplicationContext().getCacheDir(), "librarychat/previews"));
+        ChatConfig.getMemoryBudget().register("link-previews", MemoryBudget.Priority.LOW, 0.1f, this);
+    }
+
+    LinkPreviewCache(File directory) {
+        this.directory = directory;
+    }
+
+    public static synchronized LinkPreviewCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new LinkPreviewCache(context);
+        }
+        return instance;
+    }
+
+    // The URL a text message would preview, or null.
+    @Nullable
+    public String urlFor(Message message) {
+        String text = message.getText();
+        if (text == null || message.getContentType() != Icontent.contentType.TEXT) {
+            return null;
+        }
+        String url = urlByText.get(text);
+        if (url == null) {
+            url = firstUrl(text);
+            urlByText.put(text, url != null ? url : NO_URL);
+        }
+        return NO_URL.equals(url) ? null : url;
+    }
+
+    // Memory only, safe on the main thread.
+    @Nullable
+    public LinkPreview getCached(String url) {
+        LinkPreview preview = memory.get(url);
+        return preview == NONE ? null : preview;
+    }
+
+    // True once the URL has been asked for and turned out to have nothing to show.
+    public boolean isKnownEmpty(String url) {
+        return memory.get(url) == NONE;
+    }
+
+    // Resolves a page's previews ahead of binding: disk hits land in memory before this returns,
+    // misses are fetched in the background. Call off the main thread.
+    public void warmSync(List<Message> page) {
+        for (Message message : page) {
+            String url = urlFor(message);
+            if (url == null || memory.get(url) != null) continue;
+            LinkPreview stored = readSync(url);
+            if (stored != null) {
+                memory.put(url, stored);
+            } else {
+                resolve(url, null);
+            }
+        }
+    }
+
+    // Delivers the preview on the main thread, null when there is none or the fetch failed.
+    public void resolve(String url, @Nullable Callback callback) {
+        LinkPreview cached = memory.get(url);
+        if (cached != null) {
+            if (callback != null) {
+                LinkPreview preview = cached == NONE ? null : cached;
+                ChatExecutors.runOnMain(() -> callback.onResolved(url, preview));
+            }
+            return;
+        }
+        if (isBackingOff(url)) {
+            if (callback != null) {
+                ChatExecutors.runOnMain(() -> callback.onResolved(url, null));
+            }
+            return;
+        }
+        synchronized (inFlight) {
+            List<Callback> waiting = inFlight.get(url);
+            if (waiting != null) {
+                if (callback != null) waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            if (callback != null) waiting.add(callback);
+            inFlight.put(url, waiting);
+        }
+        ChatExecutors.background().execute(() -> {
+            LinkPreview preview = memory.get(url);
+            if (preview == null) {
+                preview = readSync(url);
+            }
+            if (preview == null) {
+                preview = fetch(url);
+            }
+            if (preview != null) {
+                memory.put(url, preview);
+            } else {
+                backOff(url);
+            }
+            List<Callback> callbacks;
+            synchronized (inFlight) {
+                callbacks = inFlight.remove(url);
+            }
+            LinkPreview result = preview == NONE ? null : preview;
+            ChatExecutors.runOnMain(() -> {
+                for (Callback waiting : callbacks) {
+                    waiting.onResolved(url, result);
+                }
+            });
+        });
+    }
+
+    public synchronized void clear() {
+        memory.evictAll();
+        urlByText.evictAll();
+        synchronized (failedUntil) {
+            failedUntil.clear();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public long sizeBytes() {
+        return memory.size() + urlByText.size();
+    }
+
+    // The URL index goes first: it is rebuilt from the text, previews need the disk.
+    @Override
+    public void trimToBytes(long maxBytes) {
+        long excess = sizeBytes() - maxBytes;
+        if (excess <= 0) return;
+        int textSize = urlByText.size();
+        urlByText.trimToSize((int) Math.max(0, textSize - excess));
+        excess -= textSize - urlByText.size();
+        if (excess > 0) {
+            memory.trimToSize((int) Math.max(0, memory.size() - excess));
+        }
+    }
+
+    @Override
+    public void onBudgetChanged(long budgetBytes) {
+        long capped = Math.max(3, Math.min(budgetBytes, Integer.MAX_VALUE));
+        memory.resize((int) (capped * 2 / 3));
+        urlByText.resize((int) (capped / 3));
+    }
+
+    private static int chars(@Nullable String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private boolean isBackingOff(String url) {
+        synchronized (failedUntil) {
+            Long until = failedUntil.get(url);
+            if (until == null) {
+                return false;
+            }
+            if (until <= SystemClock.elapsedRealtime()) {
+                failedUntil.remove(url);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void backOff(String url) {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (failedUntil) {
+            failedUntil.values().removeIf(until -> until <= now);
+            failedUntil.put(url, now + FAILURE_BACKOFF_MS);
+        }
+    }
+
+    @Nullable
+    public static String firstUrl(String text) {
+        Matcher matcher = Patterns.WEB_URL.matcher(text);
+        while (matcher.find()) {
+            String url = matcher.group();
+            // WEB_URL also matches bare domains such as "file.txt"; only preview explicit links.
+            if (url.startsWith("http://") || url.startsWith("https://")) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    // NONE when the server has nothing for the URL, null when it could not be asked.
+    @Nullable
+    private LinkPreview fetch(String url) {
+        try {
+            Response<LinkPreview> response = ChatApiProvider.getInstance()
+                    .api(RequestClass.PREFETCH).unfurl(url).execute();
+            if (response.code() == 404 || response.code() == 204) {
+                return NONE;
+            }
+            if (!response.isSuccessful()) {
+                Log.d(TAG, "Unfurl of " + url + " failed: " + response.code());
+                return null;
+            }
+            LinkPreview preview = response.body();
+            if (preview == null || preview.isEmpty()) {
+                return NONE;
+            }
+            writeSync(url, preview);
+            return preview;
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Unfurl of " + url + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Nullable
+    private synchronized LinkPreview readSync(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader reader = new FileReader(file)) {
+            file.setLastModified(System.currentTimeMillis());
+            return gson.fromJson(reader, LinkPreview.class);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping unreadable preview " + file.getName(), e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private synchronized void writeSync(String url, LinkPreview preview) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File file = fileFor(url);
+        try (Writer writer = new FileWriter(file)) {
+            gson.toJson(preview, writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write preview " + file.getName(), e);
+            file.delete();
+            return;
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(directory, UUID.nameUUIDFromBytes(url.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    public interface Callback {
+        void onResolved(String url, @Nullable LinkPreview preview);
+    }
+}
@@ -0,0 +1,376 @@
+package com.avitaliskhakov.librarychat.store;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.api.ChatApiProvider;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Disk cache of remote media split into fixed-size chunks, each fetched with an HTTP range
+// request on first use. Shared by every media consumer in the SDK, so a chunk is downloaded
+// once no matter who asks for it. Least recently used chunks are evicted past MAX_BYTES, and a
+// resource's length record goes with its last chunk. All reads block; call them off the main thread.
+public class MediaCache {
+
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final String TAG = "MediaCache";
+    private static final long MAX_BYTES = 64 * 1024 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    private static final String LENGTH_SUFFIX = ".len";
+
+    private static MediaCache instance;
+
+    private final File directory;
+    private final long maxBytes;
+    // One lock per chunk being fetched so concurrent readers share a single download.
+    private final ConcurrentHashMap<String, Object> fetchLocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> lengths = new ConcurrentHashMap<>();
+    // Chunks and length records on disk; in-flight .part files are not counted.
+    private long sizeBytes = -1;
+
+    private MediaCache(Context context) {
+        this(new File(context.getApplicationContext().getCacheDir(), "librarychat/media"), MAX_BYTES);
+    }
+
+    MediaCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized MediaCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaCache(context);
+        }
+        return instance;
+    }
+
+    // Total length of the resource, fetching its first chunk if nothing is known yet.
+    public long getLength(String url, RequestClass requestClass) throws IOException {
+        Long known = knownLength(url);
+        if (known != null) {
+            return known;
+        }
+        readChunk(url, 0, requestClass);
+        known = knownLength(url);
+        if (known == null) {
+            throw new IOException("Server did not report a length for " + url);
+        }
+        return known;
+    }
+
+    // The chunk's bytes; shorter than CHUNK_SIZE only for the last chunk, empty past the end.
+    public byte[] readChunk(String url, int index, RequestClass requestClass) throws IOException {
+        File file = chunkFile(url, index);
+        byte[] cached = readFile(file);
+        if (cached != null) {
+            return cached;
+        }
+        String key = file.getName();
+        Object lock = fetchLocks.computeIfAbsent(key, k -> new Object());
+        try {
+            synchronized (lock) {
+                cached = readFile(file);
+                if (cached != null) {
+                    return cached;
+                }
+                return fetch(url, index, requestClass);
+            }
+        } finally {
+            fetchLocks.remove(key, lock);
+        }
+    }
+
+    public boolean isCached(String url, int index) {
+        return chunkFile(url, index).exists();
+    }
+
+    // Loads a chunk in the background ahead of playback.
+    public void prefetch(String url, int index) {
+        if (isCached(url, index)) return;
+        ChatExecutors.background().execute(() -> {
+            try {
+                readChunk(url, index, RequestClass.PREFETCH);
+            } catch (IOException e) {
+                Log.d(TAG, "Prefetch of " + url + " #" + index + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    // Seeds the cache with a local copy, e.g. media the user just uploaded.
+    public void importFile(String url, File source) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int index = 0;
+        try (InputStream in = new FileInputStream(source)) {
+            while (true) {
+                int filled = readFully(in, buffer);
+                if (filled == 0) break;
+                writeChunk(url, index++, filled == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, filled));
+                if (filled < CHUNK_SIZE) break;
+            }
+        }
+        storeLength(url, source.length());
+    }
+
+    public synchronized long getSizeBytes() {
+        if (sizeBytes < 0) {
+            sizeBytes = 0;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.getName().endsWith(PART_SUFFIX)) {
+                        sizeBytes += file.length();
+                    }
+                }
+            }
+        }
+        return sizeBytes;
+    }
+
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        lengths.clear();
+        sizeBytes = 0;
+    }
+
+    private byte[] fetch(String url, int index, RequestClass requestClass) throws IOException {
+        long start = (long) index * CHUNK_SIZE;
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Range", "bytes=" + start + "-" + (start + CHUNK_SIZE - 1))
+                .build();
+        try (Response response = ChatApiProvider.getInstance().client(requestClass).newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (response.code() == 416) {
+                // Past the end of the resource.
+                return new byte[0];
+            }
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("HTTP " + response.code() + " for " + url);
+            }
+            if (response.code() == 206) {
+                long total = totalFromContentRange(response.header("Content-Range"));
+                if (total >= 0) {
+                    storeLength(url, total);
+                }
+                byte[] bytes = body.bytes();
+                writeChunk(url, index, bytes);
+                return bytes;
+            }
+            // The server ignored the range and sent everything; keep all of it.
+            return storeWhole(url, index, body);
+        }
+    }
+
+    private byte[] storeWhole(String url, int wanted, ResponseBody body) throws IOException {
+        byte[] result = new byte[0];
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long total = 0;
+        int index = 0;
+        try (InputStream in = body.byteStream()) {
+            while (true) {
+                int filled = readFully(in, buffer);
+                if (filled == 0) break;
+                byte[] chunk = Arrays.copyOf(buffer, filled);
+                writeChunk(url, index, chunk);
+                if (index == wanted) {
+                    result = chunk;
+                }
+                total += filled;
+                index++;
+                if (filled < CHUNK_SIZE) break;
+            }
+        }
+        storeLength(url, total);
+        return result;
+    }
+
+    private void writeChunk(String url, int index, byte[] bytes) {
+        synchronized (this) {
+            if (!directory.exists() && !directory.mkdirs()) {
+                return;
+            }
+        }
+        File file = chunkFile(url, index);
+        // Unique per writer, so two writers of one chunk never share a partial file.
+        File partial = new File(directory, file.getName() + "." + Thread.currentThread().getId() + PART_SUFFIX);
+        try (OutputStream out = new FileOutputStream(partial)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file.getName(), e);
+            partial.delete();
+            return;
+        }
+        synchronized (this) {
+            // Readers never see a half-written chunk. An existing copy is replaced, not added to.
+            long replaced = file.length();
+            if (!partial.renameTo(file)) {
+                partial.delete();
+                return;
+            }
+            if (sizeBytes >= 0) {
+                sizeBytes += bytes.length - replaced;
+            }
+        }
+        trimToSize();
+    }
+
+    @Nullable
+    private Long knownLength(String url) {
+        Long length = lengths.get(url);
+        if (length != null) {
+            return length;
+        }
+        byte[] stored = readFile(lengthFile(url));
+        if (stored == null) {
+            return null;
+        }
+        try {
+            length = Long.parseLong(new String(stored, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        lengths.put(url, length);
+        return length;
+    }
+
+    private void storeLength(String url, long length) {
+        lengths.put(url, length);
+        File file = lengthFile(url);
+        if (file.exists()) return;
+        if (!directory.exists() && !directory.mkdirs()) return;
+        byte[] bytes = Long.toString(length).getBytes(StandardCharsets.US_ASCII);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            file.delete();
+            return;
+        }
+        synchronized (this) {
+            if (sizeBytes >= 0) {
+                sizeBytes += bytes.length;
+            }
+        }
+    }
+
+    @Nullable
+    private static byte[] readFile(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            if (readFully(in, bytes) != bytes.length) {
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return bytes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void trimToSize() {
+        if (getSizeBytes() <= maxBytes) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        Set<String> evictedKeys = new HashSet<>();
+        for (File file : files) {
+            if (sizeBytes <= maxBytes) {
+                break;
+            }
+            String name = file.getName();
+            // Partial files belong to writers still running; length records go with their chunks.
+            if (name.endsWith(PART_SUFFIX) || name.endsWith(LENGTH_SUFFIX)) continue;
+            long length = file.length();
+            if (file.delete()) {
+                sizeBytes -= length;
+                evictedKeys.add(name.substring(0, name.lastIndexOf('-')));
+            }
+        }
+        for (String key : evictedKeys) {
+            if (hasChunks(files, key)) continue;
+            File lengthFile = new File(directory, key + LENGTH_SUFFIX);
+            long length = lengthFile.length();
+            if (lengthFile.delete()) {
+                sizeBytes -= length;
+            }
+            lengths.keySet().removeIf(url -> keyFor(url).equals(key));
+        }
+    }
+
+    private static boolean hasChunks(File[] files, String key) {
+        String prefix = key + "-";
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && !name.endsWith(PART_SUFFIX) && file.exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int filled = 0;
+        while (filled < buffer.length) {
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read < 0) break;
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static long totalFromContentRange(@Nullable String contentRange) {
+        // "bytes 0-262143/1048576"
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0 || slash == contentRange.length() - 1 || contentRange.charAt(slash + 1) == '*') return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File chunkFile(String url, int index) {
+        return new File(directory, keyFor(url) + "-" + index);
+    }
+
+    private File lengthFile(String url) {
+        return new File(directory, keyFor(url) + LENGTH_SUFFIX);
+    }
+
+    private static String keyFor(String url) {
+        return UUID.nameUUIDFromBytes(url.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.avitaliskhakov.librarychat.store;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+public class MessagePageStore {
+
+    private static final String TAG = "MessagePageStore";
+    private static final long MAX_BYTES = 8 * 1024 * 1024;
+
+    private static MessagePageStore instance;
+
+    private final File directory;
+    private final Gson gson = new Gson();
+
+    private MessagePageStore(Context context) {
+        directory = new File(context.getApplicationContext().getCacheDir(), "librarychat/pages");
+    }
+
+    public static synchronized MessagePageStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessagePageStore(context);
+        }
+        return instance;
+    }
+
+    public void read(String chatRoomId, @Nullable String cursor, PageCallback callback) {
+        ChatExecutors.background().execute(() -> {
+            MessagePage page = readSync(chatRoomId, cursor);
+            ChatExecutors.runOnMain(() -> callback.onPage(page));
+        });
+    }
+
+    public void write(String chatRoomId, @Nullable String cursor, MessagePage page) {
+        MessagePage snapshot = new MessagePage(new ArrayList<>(page.getMessages()), page.getNextCursor(), page.hasMore());
+        ChatExecutors.background().execute(() -> writeSync(chatRoomId, cursor, snapshot));
+    }
+
+    @Nullable
+    public synchronized MessagePage readSync(String chatRoomId, @Nullable String cursor) {
+        File file = fileFor(chatRoomId, cursor);
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader reader = new FileReader(file)) {
+            file.setLastModified(System.currentTimeMillis());
+            // Pages written before cursors were stored are plain arrays and fail here, like any
+            // other unreadable file.
+            return gson.fromJson(reader, MessagePage.class);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping unreadable page " + file.getName(), e);
+            file.delete();
+            return null;
+        }
+    }
+
+    public synchronized void writeSync(String chatRoomId, @Nullable String cursor, MessagePage page) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File file = fileFor(chatRoomId, cursor);
+        try (Writer writer = new FileWriter(file)) {
+            gson.toJson(page, MessagePage.class, writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write page " + file.getName(), e);
+            file.delete();
+            return;
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_BYTES) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private File fileFor(String chatRoomId, @Nullable String cursor) {
+        String key = chatRoomId + '|' + (cursor != null ? cursor : "head");
+        return new File(directory, UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    public interface PageCallback {
+        void onPage(@Nullable MessagePage page);
+    }
+}
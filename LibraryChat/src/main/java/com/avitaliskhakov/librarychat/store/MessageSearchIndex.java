@@ -0,0 +1,208 @@
+package com.avitaliskhakov.librarychat.store;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.model.Icontent;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.SearchHit;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class MessageSearchIndex extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "librarychat_search.db";
+    private static final int DB_VERSION = 1;
+
+    private static final char HIGHLIGHT_START = '\u0001';
+    private static final char HIGHLIGHT_END = '\u0002';
+    // offsets() lists four integers per matched term occurrence, separated by spaces.
+    private static final String MATCH_COUNT = "(length(offsets(message_fts)) "
+            + "- length(replace(offsets(message_fts), ' ', '')) + 1) / 4";
+
+    private static MessageSearchIndex instance;
+
+    private MessageSearchIndex(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+    }
+
+    public static synchronized MessageSearchIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageSearchIndex(context);
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE indexed_messages ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "message_id TEXT NOT NULL UNIQUE, "
+                + "chat_room_id TEXT, "
+                + "sender_id TEXT, "
+                + "created_at TEXT)");
+        db.execSQL("CREATE INDEX indexed_messages_room ON indexed_messages(chat_room_id, created_at)");
+        db.execSQL("CREATE VIRTUAL TABLE message_fts USING fts4(body, tokenize=unicode61)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS indexed_messages");
+        db.execSQL("DROP TABLE IF EXISTS message_fts");
+        onCreate(db);
+    }
+
+    public void indexMessages(List<Message> messages) {
+        if (messages == null || messages.isEmpty()) return;
+        List<Message> snapshot = new ArrayList<>(messages);
+        ChatExecutors.background().execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Message message : snapshot) {
+                    upsert(db, message);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public void indexMessage(Message message) {
+        if (message != null) {
+            indexMessages(Collections.singletonList(message));
+        }
+    }
+
+    public void removeMessage(String messageId) {
+        if (messageId == null) return;
+        ChatExecutors.background().execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                delete(db, messageId);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public void searchMessages(@Nullable String chatRoomId, String query, int limit, SearchCallback callback) {
+        ChatExecutors.background().execute(() -> {
+            List<SearchHit> hits = searchMessagesSync(chatRoomId, query, limit);
+            ChatExecutors.runOnMain(() -> callback.onResults(hits));
+        });
+    }
+
+    public List<SearchHit> searchMessagesSync(@Nullable String chatRoomId, String query, int limit) {
+        String match = toMatchExpression(query);
+        if (match.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        String sql = "SELECT m.message_id, m.chat_room_id, m.sender_id, m.created_at, "
+                + "snippet(message_fts, '" + HIGHLIGHT_START + "', '" + HIGHLIGHT_END + "', '...', -1, 12), "
+                + MATCH_COUNT + " AS matches "
+                + "FROM message_fts JOIN indexed_messages m ON m.id = message_fts.docid "
+                + "WHERE message_fts MATCH ?"
+                + (chatRoomId != null ? " AND m.chat_room_id = ?" : "")
+                // Ranked over every match, so an older message with more hits still comes first.
+                + " ORDER BY matches DESC, m.created_at DESC LIMIT " + limit;
+        String[] args = chatRoomId != null ? new String[]{match, chatRoomId} : new String[]{match};
+
+        List<SearchHit> hits = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                hits.add(toHit(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4)));
+            }
+        }
+        return hits;
+    }
+
+    private void upsert(SQLiteDatabase db, Message message) {
+        if (message.getId() == null) return;
+        if (message.getText() == null || message.getContentType() != Icontent.contentType.TEXT) {
+            delete(db, message.getId());
+            return;
+        }
+
+        // Edit responses may omit fields, keep what the index already knows in that case.
+        ContentValues row = new ContentValues();
+        row.put("message_id", message.getId());
+        if (message.getChatRoomId() != null) row.put("chat_room_id", message.getChatRoomId());
+        if (message.getSenderId() != null) row.put("sender_id", message.getSenderId());
+        if (message.getCreatedAt() != null) row.put("created_at", message.getCreatedAt());
+
+        long rowId = findRowId(db, message.getId());
+        if (rowId < 0) {
+            rowId = db.insert("indexed_messages", null, row);
+        } else {
+            db.update("indexed_messages", row, "id = ?", new String[]{String.valueOf(rowId)});
+            db.delete("message_fts", "docid = ?", new String[]{String.valueOf(rowId)});
+        }
+        if (rowId < 0) return;
+
+        ContentValues fts = new ContentValues();
+        fts.put("docid", rowId);
+        fts.put("body", message.getText());
+        db.insert("message_fts", null, fts);
+    }
+
+    private void delete(SQLiteDatabase db, String messageId) {
+        long rowId = findRowId(db, messageId);
+        if (rowId < 0) return;
+        db.delete("message_fts", "docid = ?", new String[]{String.valueOf(rowId)});
+        db.delete("indexed_messages", "id = ?", new String[]{String.valueOf(rowId)});
+    }
+
+    private long findRowId(SQLiteDatabase db, String messageId) {
+        try (Cursor cursor = db.rawQuery("SELECT id FROM indexed_messages WHERE message_id = ?", new String[]{messageId})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+    }
+
+    private static String toMatchExpression(String query) {
+        if (query == null) return "";
+        StringBuilder match = new StringBuilder();
+        for (String token : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append(token).append('*');
+        }
+        return match.toString();
+    }
+
+    private static SearchHit toHit(String messageId, String chatRoomId, String senderId, String createdAt, String marked) {
+        StringBuilder snippet = new StringBuilder(marked.length());
+        List<Integer> ranges = new ArrayList<>();
+        for (int i = 0; i < marked.length(); i++) {
+            char c = marked.charAt(i);
+            if (c == HIGHLIGHT_START || c == HIGHLIGHT_END) {
+                ranges.add(snippet.length());
+            } else {
+                snippet.append(c);
+            }
+        }
+        int[] highlights = new int[ranges.size() - ranges.size() % 2];
+        for (int i = 0; i < highlights.length; i++) {
+            highlights[i] = ranges.get(i);
+        }
+        return new SearchHit(messageId, chatRoomId, senderId, createdAt, snippet.toString(), highlights);
+    }
+
+    public interface SearchCallback {
+        void onResults(List<SearchHit> hits);
+    }
+}
@@ -0,0 +1,404 @@
+package com.avitaliskhakov.librarychat.store;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.api.ChatApiProvider;
+import com.avitaliskhakov.librarychat.api.ChatEventBus;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.config.MemoryBudget;
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.ParticipantPage;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import retrofit2.Response;
+
+// Members of the rooms the app looked at, loaded a page at a time, plus answers to single
+// membership checks for users outside the loaded pages. Participant changes posted to
+// ChatEventBus are applied in place, so nothing is fetched twice. The backend has no call to
+// remove a participant, so entries only ever gain members; invalidate() starts a room over.
+// "Not a member" is only trusted for a while, since members added from another device may never
+// reach the bus here.
+public class ParticipantCache implements MemoryBudget.Cache {
+
+    private static final String TAG = "ParticipantCache";
+    private static final int MAX_ROOMS = 32;
+    private static final int MEMBERSHIP_ENTRIES = 1000;
+    // Rough heap per loaded member and per membership answer: the id strings plus set and map nodes.
+    private static final int MEMBER_BYTES = 96;
+    private static final int MEMBERSHIP_BYTES = 160;
+    // How long a fully loaded room and a negative membership answer are trusted.
+    static final long COMPLETE_TTL_MS = 5 * 60_000L;
+    static final long NOT_MEMBER_TTL_MS = 60_000L;
+
+    private static ParticipantCache instance;
+
+    private final LongSupplier clock;
+    // Both maps are in access order, least recently used first.
+    private final Map<String, Room> rooms = new LinkedHashMap<String, Room>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Room> eldest) {
+            return size() > MAX_ROOMS;
+        }
+    };
+    // "roomId|userId" -> answer from the server for users not in the loaded pages.
+    private final Map<String, Answer> membership = new LinkedHashMap<String, Answer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Answer> eldest) {
+            return size() > maxMembership;
+        }
+    };
+    private int maxMembership = MEMBERSHIP_ENTRIES;
+    private final Map<String, List<MembershipCallback>> checksInFlight = new HashMap<>();
+    private final Map<String, List<PageCallback>> pagesInFlight = new HashMap<>();
+    // The bus holds listeners weakly; this field keeps ours for the life of the process.
+    private final ChatEventBus.Listener events = new ChatEventBus.Listener() {
+        @Override
+        public void onParticipantsChanged(String chatRoomId, List<String> added) {
+            addParticipants(chatRoomId, added);
+        }
+
+        @Override
+        public void onRoomCreated(ChatRoomInfo room) {
+            if (room.getId() == null || room.getCreator() == null) return;
+            synchronized (ParticipantCache.this) {
+                Room created = new Room();
+                created.members.add(room.getCreator());
+                created.markComplete(clock.getAsLong());
+                rooms.put(room.getId(), created);
+            }
+        }
+    };
+
+    private ParticipantCache() {
+        this(SystemClock::elapsedRealtime);
+        ChatEventBus.getInstance().register(events);
+        ChatConfig.getMemoryBudget().register("participants", MemoryBudget.Priority.HIGH, 0.1f, this);
+    }
+
+    // Not registered with the bus or the budget.
+    ParticipantCache(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public static synchronized ParticipantCache getInstance() {
+        if (instance == null) {
+            instance = new ParticipantCache();
+        }
+        return instance;
+    }
+
+    // Memory only, safe on the main thread. Null when the server has to be asked.
+    @Nullable
+    public synchronized Boolean isParticipantCached(String chatRoomId, String userId) {
+        Room room = rooms.get(chatRoomId);
+        if (room != null) {
+            if (room.members.contains(userId)) return Boolean.TRUE;
+            if (isFresh(room)) return Boolean.FALSE;
+        }
+        String key = key(chatRoomId, userId);
+        Answer answer = membership.get(key);
+        if (answer == null) return null;
+        if (answer.isParticipant) return Boolean.TRUE;
+        if (clock.getAsLong() - answer.answeredAt < NOT_MEMBER_TTL_MS) return Boolean.FALSE;
+        membership.remove(key);
+        return null;
+    }
+
+    // Delivers on the main thread; null when the server could not be asked.
+    public void isParticipant(String chatRoomId, String userId, MembershipCallback callback) {
+        Boolean cached = isParticipantCached(chatRoomId, userId);
+        if (cached != null) {
+            ChatExecutors.runOnMain(() -> callback.onResult(chatRoomId, userId, cached));
+            return;
+        }
+        String key = key(chatRoomId, userId);
+        synchronized (checksInFlight) {
+            List<MembershipCallback> waiting = checksInFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            checksInFlight.put(key, waiting);
+        }
+        ChatExecutors.background().execute(() -> {
+            Boolean result = fetchMembership(chatRoomId, userId);
+            if (result != null) {
+                synchronized (this) {
+                    membership.put(key, new Answer(result, clock.getAsLong()));
+                }
+            }
+            List<MembershipCallback> callbacks;
+            synchronized (checksInFlight) {
+                callbacks = checksInFlight.remove(key);
+            }
+            ChatExecutors.runOnMain(() -> {
+                for (MembershipCallback waiting : callbacks) {
+                    waiting.onResult(chatRoomId, userId, result);
+                }
+            });
+        });
+    }
+
+    public synchronized List<String> getLoadedParticipants(String chatRoomId) {
+        Room room = rooms.get(chatRoomId);
+        return room != null ? new ArrayList<>(room.members) : Collections.emptyList();
+    }
+
+    // True once every page of the room has been loaded, for COMPLETE_TTL_MS.
+    public synchronized boolean isComplete(String chatRoomId) {
+        Room room = rooms.get(chatRoomId);
+        return room != null && isFresh(room);
+    }
+
+    // Fetches the page after the ones already loaded and delivers it on the main thread; a room
+    // that is complete answers with an empty page without a request. Once that goes stale the
+    // room is loaded again from the first page.
+    public void loadNextPage(String chatRoomId, int limit, @Nullable PageCallback callback) {
+        String cursor;
+        synchronized (this) {
+            Room room = rooms.get(chatRoomId);
+            if (room != null && isFresh(room)) {
+                if (callback != null) {
+                    ChatExecutors.runOnMain(() -> callback.onPage(chatRoomId,
+                            new ParticipantPage(new ArrayList<>(), null, false)));
+                }
+                return;
+            }
+            cursor = room != null && !room.complete ? room.nextCursor : null;
+        }
+        loadPage(chatRoomId, cursor, limit, callback);
+    }
+
+    // The page at cursor, delivered on the main thread. A complete room that fits in one page is
+    // answered without a request; other pages are fetched once however many callers ask, and
+    // their members are kept.
+    public void loadPage(String chatRoomId, @Nullable String cursor, int limit, @Nullable PageCallback callback) {
+        if (cursor == null) {
+            ParticipantPage cached = null;
+            synchronized (this) {
+                Room room = rooms.get(chatRoomId);
+                if (room != null && isFresh(room) && room.members.size() <= limit) {
+                    cached = new ParticipantPage(new ArrayList<>(room.members), null, false);
+                }
+            }
+            if (cached != null) {
+                if (callback != null) {
+                    ParticipantPage page = cached;
+                    ChatExecutors.runOnMain(() -> callback.onPage(chatRoomId, page));
+                }
+                return;
+            }
+        }
+        String pageKey = key(chatRoomId, cursor != null ? cursor : "");
+        synchronized (pagesInFlight) {
+            List<PageCallback> waiting = pagesInFlight.get(pageKey);
+            if (waiting != null) {
+                if (callback != null) waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            if (callback != null) waiting.add(callback);
+            pagesInFlight.put(pageKey, waiting);
+        }
+        ChatExecutors.background().execute(() -> {
+            ParticipantPage page = fetchPage(chatRoomId, cursor, limit);
+            if (page != null) {
+                putPage(chatRoomId, cursor, page);
+            }
+            List<PageCallback> callbacks;
+            synchronized (pagesInFlight) {
+                callbacks = pagesInFlight.remove(pageKey);
+            }
+            ChatExecutors.runOnMain(() -> {
+                for (PageCallback waiting : callbacks) {
+                    waiting.onPage(chatRoomId, page);
+                }
+            });
+        });
+    }
+
+    // Seeds a room from a full member list, e.g. one fetched with getParticipantsInRoom.
+    public synchronized void putAll(String chatRoomId, List<String> participants) {
+        Room room = new Room();
+        room.members.addAll(participants);
+        room.markComplete(clock.getAsLong());
+        rooms.put(chatRoomId, room);
+    }
+
+    public synchronized void addParticipants(String chatRoomId, List<String> added) {
+        Room room = rooms.get(chatRoomId);
+        if (room != null) {
+            // The room answers for them now; drop any earlier "not a member" instead of adding answers.
+            room.members.addAll(added);
+            for (String userId : added) {
+                membership.remove(key(chatRoomId, userId));
+            }
+            return;
+        }
+        long now = clock.getAsLong();
+        for (String userId : added) {
+            membership.put(key(chatRoomId, userId), new Answer(true, now));
+        }
+    }
+
+    public synchronized void invalidate(String chatRoomId) {
+        rooms.remove(chatRoomId);
+        String prefix = chatRoomId + '|';
+        membership.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    public synchronized void clear() {
+        rooms.clear();
+        membership.clear();
+    }
+
+    @Override
+    public synchronized long sizeBytes() {
+        long bytes = (long) membership.size() * MEMBERSHIP_BYTES;
+        for (Room room : rooms.values()) {
+            bytes += (long) room.members.size() * MEMBER_BYTES;
+        }
+        return bytes;
+    }
+
+    // Membership answers go first, then whole rooms, least recently used first.
+    @Override
+    public synchronized void trimToBytes(long maxBytes) {
+        long roomBytes = sizeBytes() - (long) membership.size() * MEMBERSHIP_BYTES;
+        trimMembership((int) Math.max(0, (maxBytes - roomBytes) / MEMBERSHIP_BYTES));
+        Iterator<Room> eldest = rooms.values().iterator();
+        while (roomBytes > maxBytes && eldest.hasNext()) {
+            roomBytes -= (long) eldest.next().members.size() * MEMBER_BYTES;
+            eldest.remove();
+        }
+    }
+
+    // Rooms grow in place, so only the membership answers follow the budget; trimming covers rooms.
+    @Override
+    public synchronized void onBudgetChanged(long budgetBytes) {
+        maxMembership = (int) Math.max(16, Math.min(MEMBERSHIP_ENTRIES, budgetBytes / 2 / MEMBERSHIP_BYTES));
+        trimMembership(maxMembership);
+    }
+
+    private void trimMembership(int maxEntries) {
+        Iterator<Answer> eldest = membership.values().iterator();
+        while (membership.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private boolean isFresh(Room room) {
+        return room.complete && clock.getAsLong() - room.completedAt < COMPLETE_TTL_MS;
+    }
+
+    // Any page's members are kept, since members are never removed. The cursor only advances when
+    // the page follows the ones already loaded, or starts a stale room over.
+    private synchronized void putPage(String chatRoomId, @Nullable String cursor, ParticipantPage page) {
+        Room room = rooms.get(chatRoomId);
+        if (room == null) {
+            room = new Room();
+            rooms.put(chatRoomId, room);
+        }
+        room.members.addAll(page.getParticipants());
+        boolean follows;
+        if (room.complete) {
+            follows = cursor == null && !isFresh(room);
+        } else {
+            follows = cursor == null ? room.nextCursor == null : cursor.equals(room.nextCursor);
+        }
+        if (!follows) return;
+        room.nextCursor = page.getNextCursor();
+        if (!page.hasMore() || page.getNextCursor() == null) {
+            room.markComplete(clock.getAsLong());
+        } else {
+            room.complete = false;
+        }
+    }
+
+    @Nullable
+    private static ParticipantPage fetchPage(String chatRoomId, @Nullable String cursor, int limit) {
+        try {
+            Response<ParticipantPage> response = ChatApiProvider.getInstance()
+                    .api(RequestClass.VISIBLE).getParticipantPage(chatRoomId, cursor, limit).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.d(TAG, "Participant page of " + chatRoomId + " failed: " + response.code());
+                return null;
+            }
+            return response.body();
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Participant page of " + chatRoomId + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Boolean fetchMembership(String chatRoomId, String userId) {
+        try {
+            Response<Map<String, Boolean>> response = ChatApiProvider.getInstance()
+                    .api(RequestClass.VISIBLE).isParticipant(chatRoomId, userId).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.d(TAG, "Membership check in " + chatRoomId + " failed: " + response.code());
+                return null;
+            }
+            return Boolean.TRUE.equals(response.body().get("isParticipant"));
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Membership check in " + chatRoomId + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String key(String chatRoomId, String userId) {
+        return chatRoomId + '|' + userId;
+    }
+
+    public interface MembershipCallback {
+        void onResult(String chatRoomId, String userId, @Nullable Boolean isParticipant);
+    }
+
+    public interface PageCallback {
+        // page is null when the request failed.
+        void onPage(String chatRoomId, @Nullable ParticipantPage page);
+    }
+
+    private static class Room {
+        // Insertion order: server pages in id order, then members added later.
+        final Set<String> members = new LinkedHashSet<>();
+        String nextCursor;
+        boolean complete;
+        long completedAt;
+
+        void markComplete(long now) {
+            complete = true;
+            completedAt = now;
+        }
+    }
+
+    private static class Answer {
+        final boolean isParticipant;
+        final long answeredAt;
+
+        Answer(boolean isParticipant, long answeredAt) {
+            this.isParticipant = isParticipant;
+            this.answeredAt = answeredAt;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.avitaliskhakov.librarychat.store;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// How often each room is opened and whether the open was served from the local store ("warm")
+// or had to wait for the network ("cold"). Drives which rooms the background sync keeps fresh.
+public class RoomOpenStats {
+
+    private static final String PREFS = "librarychat_room_opens";
+    private static final String OPENS_PREFIX = "opens:";
+    private static final String WARM = "warm";
+    private static final String COLD = "cold";
+    private static final String LAST_SYNC_AT = "lastSyncAt";
+    private static final String LAST_SYNC_ROOMS = "lastSyncRooms";
+    private static final String LAST_SYNC_BYTES = "lastSyncBytes";
+    private static final String LAST_SYNC_MS = "lastSyncMs";
+
+    private static RoomOpenStats instance;
+
+    private final SharedPreferences prefs;
+
+    private RoomOpenStats(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized RoomOpenStats getInstance(Context context) {
+        if (instance == null) {
+            instance = new RoomOpenStats(context);
+        }
+        return instance;
+    }
+
+    public synchronized void recordOpen(String chatRoomId, boolean warm) {
+        String key = OPENS_PREFIX + chatRoomId;
+        String outcome = warm ? WARM : COLD;
+        prefs.edit()
+                .putInt(key, prefs.getInt(key, 0) + 1)
+                .putInt(outcome, prefs.getInt(outcome, 0) + 1)
+                .apply();
+    }
+
+    // Most opened first.
+    public synchronized List<String> getMostOpenedRooms(int limit) {
+        List<Map.Entry<String, ?>> counted = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getKey().startsWith(OPENS_PREFIX) && entry.getValue() instanceof Integer) {
+                counted.add(entry);
+            }
+        }
+        counted.sort((e1, e2) -> Integer.compare((Integer) e2.getValue(), (Integer) e1.getValue()));
+        List<String> rooms = new ArrayList<>();
+        for (int i = 0; i < counted.size() && i < limit; i++) {
+            rooms.add(counted.get(i).getKey().substring(OPENS_PREFIX.length()));
+        }
+        return rooms;
+    }
+
+    public synchronized int getOpenCount(String chatRoomId) {
+        return prefs.getInt(OPENS_PREFIX + chatRoomId, 0);
+    }
+
+    public synchronized int getWarmOpens() {
+        return prefs.getInt(WARM, 0);
+    }
+
+    public synchronized int getColdOpens() {
+        return prefs.getInt(COLD, 0);
+    }
+
+    // Share of opens that showed messages without waiting for the network, -1 before any open.
+    public synchronized float getWarmOpenRate() {
+        int total = getWarmOpens() + getColdOpens();
+        return total > 0 ? (float) getWarmOpens() / total : -1f;
+    }
+
+    public synchronized void recordSync(int rooms, long bytes, long durationMs) {
+        prefs.edit()
+                .putLong(LAST_SYNC_AT, System.currentTimeMillis())
+                .putInt(LAST_SYNC_ROOMS, rooms)
+                .putLong(LAST_SYNC_BYTES, bytes)
+                .putLong(LAST_SYNC_MS, durationMs)
+                .apply();
+    }
+
+    // Wall clock time of the last completed sync, 0 if it never ran.
+    public synchronized long getLastSyncAt() {
+        return prefs.getLong(LAST_SYNC_AT, 0);
+    }
+
+    public synchronized int getLastSyncRooms() {
+        return prefs.getInt(LAST_SYNC_ROOMS, 0);
+    }
+
+    public synchronized long getLastSyncBytes() {
+        return prefs.getLong(LAST_SYNC_BYTES, 0);
+    }
+
+    public synchronized long getLastSyncMs() {
+        return prefs.getLong(LAST_SYNC_MS, 0);
+    }
+
+    public synchronized void reset() {
+        prefs.edit().clear().apply();
+    }
+}
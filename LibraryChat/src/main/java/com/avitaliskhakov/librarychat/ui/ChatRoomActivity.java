@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.content.res.ColorStateList;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
@@ -13,29 +14,43 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.avitaliskhakov.librarychat.R;
 import com.avitaliskhakov.librarychat.api.ChatController;
+import com.avitaliskhakov.librarychat.api.ChatSdk;
+import com.avitaliskhakov.librarychat.api.NetworkPolicy;
+import com.avitaliskhakov.librarychat.api.RequestClass;
 import com.avitaliskhakov.librarychat.config.ChatConfig;
 import com.avitaliskhakov.librarychat.config.ChatEventsListener;
+import com.avitaliskhakov.librarychat.config.FrameMetricsListener;
 import com.avitaliskhakov.librarychat.config.ChatStyle;
 import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
 import com.avitaliskhakov.librarychat.model.Content;
 import com.avitaliskhakov.librarychat.model.Icontent;
 import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.model.ReadReceipts;
+import com.avitaliskhakov.librarychat.store.LinkPreviewCache;
+import com.avitaliskhakov.librarychat.store.MessagePageStore;
+import com.avitaliskhakov.librarychat.store.RoomOpenStats;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
 import com.avitaliskhakov.multistateviewx.MultiStateView;
 import com.avitaliskhakov.multistateviewx.State;
 import com.google.android.material.button.MaterialButton;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.function.Consumer;
 
 public class ChatRoomActivity extends AppCompatActivity implements MessageAdapter.MessageClickListener {
 
@@ -46,43 +61,74 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
     private MaterialButton sendBtn;
     private MultiStateView multiStateView;
 
+    private ChatRoomViewModel state;
+    // Results from the controller, which lives in the view model, are forwarded here.
+    final ChatController.CallBack_Chat chatCallback = createChatCallback();
     private MessageAdapter messageAdapter;
-    private final List<Message> messages = new ArrayList<>();
-    private final Set<String> loadedMessageIds = new HashSet<>();
-    private ChatController chatController;
+    private LinkPreviewCache linkPreviews;
+    private MessagePageStore pageStore;
     private LinearLayoutManager layoutManager;
+    private MediaPlaybackController playback;
+    // Only set when the app registered a FrameMetricsListener.
+    private FrameJankTracker frameTracker;
+
+    private static final String AROUND_CURSOR_PREFIX = "around:";
 
     private String chatRoomId;
     private String senderId;
-    private boolean isLoading = false;
-    private String lastCreatedAt = null;
-    private final int PAGE_SIZE = 10;
-    private boolean isFirstLoad = true;
+    // createdAt of the last row passed to markMessagesSeen.
+    private String lastMarkedSeen;
+    private final int WINDOW_PAGES = 6;
 
+    private final NetworkPolicy networkPolicy = NetworkPolicy.getInstance();
     private final Handler typingStatusHandler = new Handler();
-    private final int TYPING_STATUS_INTERVAL = 700;
     private final Runnable typingStatusRunnable = new Runnable() {
         @Override
         public void run() {
-            chatController.fetchTypingStatus(chatRoomId);
-            typingStatusHandler.postDelayed(typingStatusRunnable, TYPING_STATUS_INTERVAL);
+            state.lastTypingPollAt = SystemClock.elapsedRealtime();
+            state.chatController.fetchTypingStatus(chatRoomId);
+            typingStatusHandler.postDelayed(typingStatusRunnable, networkPolicy.getTypingPollIntervalMs());
         }
     };
+    // Set when the activity was recreated around existing room state.
+    private boolean restored;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createStart = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_chat_demo_with_state);
 
+        state = new ViewModelProvider(this).get(ChatRoomViewModel.class);
+        restored = state.isInitialized();
         initView();
         initChat();
         initListeners();
         setupMultiStateView();
+        if (state.chatController == null) {
+            return;
+        }
 
-        multiStateView.setState(State.LOADING);
+        // After a configuration change the next typing poll keeps its original schedule.
+        long sinceLastPoll = SystemClock.elapsedRealtime() - state.lastTypingPollAt;
+        typingStatusHandler.postDelayed(typingStatusRunnable,
+                Math.max(0, networkPolicy.getTypingPollIntervalMs() - sinceLastPoll));
+        if (restored) {
+            restoreScreen();
+        } else {
+            state.markInitialized();
+            multiStateView.setState(State.LOADING);
+            if (state.anchorMessageId != null) {
+                loadAroundAnchor();
+            } else {
+                openFromStore();
+            }
+        }
 
-        typingStatusHandler.post(typingStatusRunnable);
-        fetchMessages(true);
+        Log.d("ChatRoomActivity", "onCreate took " + (SystemClock.elapsedRealtime() - createStart)
+                + " ms, SDK ready: " + ChatSdk.isReady()
+                + ", initialize() main thread: " + ChatSdk.getInitializeMainThreadMs() + " ms"
+                + ", warm-up: " + ChatSdk.getWarmUpMs() + " ms");
     }
 
     private void initView() {
@@ -105,7 +151,7 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
         multiStateView.setCustomLayout(State.LOADING, R.layout.layout_chat_loading_state);
         multiStateView.setOnRetryClickListener(v -> {
             multiStateView.setState(State.LOADING);
-            fetchMessages(isFirstLoad);
+            fetchMessages(state.isFirstLoad);
         });
     }
 
@@ -123,39 +169,146 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
         layoutManager = new LinearLayoutManager(this);
         layoutManager.setStackFromEnd(true);
         recyclerView.setLayoutManager(layoutManager);
-        messageAdapter = new MessageAdapter(messages, senderId, this);
+        pageStore = MessagePageStore.getInstance(this);
+        if (!state.isInitialized()) {
+            state.anchorMessageId = intent.getStringExtra("ANCHOR_MESSAGE_ID");
+            state.textCache = new MessageTextCache(readBubbleTextParams());
+            String roomId = chatRoomId;
+            MessagePageStore store = pageStore;
+            state.window = new MessageWindow(state.messages, WINDOW_PAGES, NetworkPolicy.getInstance()::getPageSize,
+                    (cursor, page) -> store.write(roomId, cursor, page));
+            state.chatController = new ChatController(getApplicationContext(), state.forwardingCallback());
+            state.mergePipeline = new MessageMergePipeline(state.textCache,
+                    LinkPreviewCache.getInstance(this), pageStore);
+        }
+        state.attach(this);
+
+        messageAdapter = new MessageAdapter(state.messages, senderId, this);
+        messageAdapter.setTextCache(state.textCache);
+        linkPreviews = LinkPreviewCache.getInstance(this);
+        messageAdapter.setLinkPreviews(linkPreviews);
+        playback = new MediaPlaybackController(this);
+        playback.setListener(messageId -> {
+            int position = state.window.positionOf(messageId);
+            if (position >= 0) {
+                messageAdapter.notifyItemChanged(position, MessageAdapter.PAYLOAD_PLAYBACK);
+            }
+        });
+        messageAdapter.setPlaybackController(playback);
+        FrameMetricsListener frameListener = ChatConfig.getFrameMetricsListener();
+        if (frameListener != null) {
+            frameTracker = new FrameJankTracker(chatRoomId, frameListener);
+            messageAdapter.setFrameTracker(frameTracker);
+        }
         recyclerView.setAdapter(messageAdapter);
+    }
 
-        chatController = new ChatController(createChatCallback());
+    // Puts a recreated activity back where the previous one was, without touching the network.
+    private void restoreScreen() {
+        if (!state.window.isEmpty()) {
+            multiStateView.setState(State.CONTENT);
+        } else if (state.isLoading) {
+            multiStateView.setState(State.LOADING);
+        } else {
+            multiStateView.setState(state.isFirstLoad ? State.ERROR : State.EMPTY);
+        }
+        if (state.readReceipts != null) {
+            messageAdapter.setReadReceipts(state.readReceipts);
+        }
+        if (state.typingUsers != null) {
+            updateTypingIndicator(state.typingUsers);
+        }
+        int anchor = state.scrollAnchorId != null ? state.window.positionOf(state.scrollAnchorId) : -1;
+        if (anchor >= 0) {
+            layoutManager.scrollToPositionWithOffset(anchor, state.scrollAnchorOffset);
+        }
+    }
+
+    private void saveScrollPosition() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        View firstView = first >= 0 ? layoutManager.findViewByPosition(first) : null;
+        if (firstView == null || first >= state.messages.size()) {
+            state.scrollAnchorId = null;
+            return;
+        }
+        state.scrollAnchorId = state.messages.get(first).getId();
+        state.scrollAnchorOffset = firstView.getTop();
+    }
+
+    private PrecomputedTextCompat.Params readBubbleTextParams() {
+        // Both bubble layouts share the same text appearance, so one template is enough.
+        View template = getLayoutInflater().inflate(R.layout.item_message_self, recyclerView, false);
+        TextView bubbleText = template.findViewById(R.id.messageText);
+        return TextViewCompat.getTextMetricsParams(bubbleText);
+    }
+
+    // Lays out text and loads cached link previews off the main thread for sent and edited messages;
+    // history pages get the same through MessageMergePipeline. onReady runs on the current activity,
+    // in the order the messages arrived: the background pool may finish them in any order.
+    private void preparePage(List<Message> page, Consumer<ChatRoomActivity> onReady) {
+        ChatRoomViewModel roomState = state;
+        LinkPreviewCache previews = linkPreviews;
+        ChatRoomViewModel.PendingUpdate update = roomState.queueUpdate(onReady);
+        ChatExecutors.background().execute(() -> {
+            previews.warmSync(page);
+            roomState.textCache.precomputeSync(page);
+            ChatExecutors.runOnMain(() -> roomState.markReady(update));
+        });
     }
 
     private ChatController.CallBack_Chat createChatCallback() {
         return new ChatController.CallBack_Chat() {
             @Override
             public void success(List<Message> newMessages) {
-                handleNewMessages(newMessages);
+                mergePage(new MessagePage(newMessages, null, true), true, null);
+            }
+
+            @Override
+            public void messagePageFetched(String roomId, String cursor, MessagePage page) {
+                mergePage(page, true, null);
             }
 
             @Override
             public void messageSent(Map<String, Message> response) {
-                handleMessageSent(response);
+                Message sentMessage = response != null ? response.get("message") : null;
+                if (sentMessage != null) {
+                    preparePage(Collections.singletonList(sentMessage), host -> host.handleMessageSent(response));
+                } else {
+                    handleMessageSent(response);
+                }
             }
 
             @Override
             public void messageDeleted(Map<String, String> response) {
-                handleMessageDeleted(response);
+                // Behind any send or edit of the same message that is still being laid out.
+                state.markReady(state.queueUpdate(host -> host.handleMessageDeleted(response)));
             }
 
             @Override
             public void messageUpdated(Map<String, Message> response) {
-                handleMessageUpdated(response);
+                Message updated = response != null ? response.get("Message") : null;
+                if (updated != null) {
+                    preparePage(Collections.singletonList(updated), host -> host.handleMessageUpdated(response));
+                }
             }
 
             @Override
             public void typingStatusUpdated(Map<String, Boolean> typingUsers) {
+                state.typingUsers = typingUsers;
                 updateTypingIndicator(typingUsers);
             }
 
+            @Override
+            public void messagesAroundFetched(String messageId, List<Message> aroundMessages) {
+                mergePage(new MessagePage(aroundMessages, null, true), true, null);
+            }
+
+            @Override
+            public void readReceiptsFetched(ReadReceipts receipts) {
+                state.readReceipts = receipts;
+                messageAdapter.setReadReceipts(receipts);
+            }
+
             @Override
             public void chatRoomCreated(Map<String, String> response) {}
 
@@ -168,11 +321,13 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
             @Override
             public void error(String error) {
                 Log.e("ChatRoomActivity", "ERROR SDK: " + error);
-                isLoading = false;
+                state.isLoading = false;
+                // A failed refresh leaves the stored head page on screen.
+                state.refreshingHead = false;
                 runOnUiThread(() -> {
-                    if (error.contains("timeout") && messages.isEmpty()) {
+                    if (error.contains("timeout") && state.window.isEmpty()) {
                         multiStateView.setState(State.EMPTY);
-                    } else if (messages.isEmpty() && isFirstLoad) {
+                    } else if (state.window.isEmpty() && state.isFirstLoad) {
                         multiStateView.setState(State.ERROR);
                     } else {
                         Toast.makeText(ChatRoomActivity.this, "Error: " + error, Toast.LENGTH_SHORT).show();
@@ -188,7 +343,7 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
             private final Handler typingResetHandler = new Handler();
             private final Runnable typingResetRunnable = () -> {
                 isTyping = false;
-                chatController.setTypingStatus(chatRoomId, senderId, false);
+                state.chatController.setTypingStatus(chatRoomId, senderId, false);
             };
 
             @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
@@ -196,7 +351,7 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
             @Override public void onTextChanged(CharSequence s, int start, int before, int count) {
                 if (!isTyping) {
                     isTyping = true;
-                    chatController.setTypingStatus(chatRoomId, senderId, true);
+                    state.chatController.setTypingStatus(chatRoomId, senderId, true);
                 }
                 typingResetHandler.removeCallbacks(typingResetRunnable);
                 typingResetHandler.postDelayed(typingResetRunnable, 1500);
@@ -210,62 +365,124 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
             if (!text.isEmpty()) {
                 Content content = new Content(text, Icontent.contentType.TEXT, null);
                 Message message = new Message(null, chatRoomId, senderId, content);
-                chatController.sendMessage(message);
+                state.chatController.sendMessage(message);
             }
         });
 
         recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView rv, int newState) {
+                if (frameTracker != null) frameTracker.setScrollState(newState);
+            }
+
             @Override
             public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
                 super.onScrolled(rv, dx, dy);
-                if (!isLoading && layoutManager.findFirstVisibleItemPosition() == 0 && dx!=0 && dy!=0) {
-                    isLoading=true;
+                if (state.window.isEmpty()) return;
+                markVisibleMessagesSeen();
+                if (state.isLoading) return;
+                if (dy < 0 && !state.window.hasReachedStart()
+                        && layoutManager.findFirstVisibleItemPosition() <= networkPolicy.getPrefetchDistance()) {
                     Log.d("ChatRoomActivity", "onScrolled dx: "+ dx+" dy: "+dy);
                     fetchMessages(false);
+                } else if (dy > 0 && !state.window.isShowingLatest()
+                        && layoutManager.findLastVisibleItemPosition() >= state.messages.size() - 1 - networkPolicy.getPrefetchDistance()) {
+                    if (state.window.newerPageIndex() >= 0) {
+                        loadPage(state.window.newerPageIndex(), false);
+                    } else {
+                        jumpToLatest();
+                    }
                 }
             }
         });
     }
 
-    private void handleNewMessages(List<Message> newMessages) {
-        runOnUiThread(() -> {
-            if (newMessages.isEmpty() && messages.isEmpty()) {
-                // No messages at all - show empty state
-                multiStateView.setState(State.EMPTY);
-                isLoading = false;
-                isFirstLoad = false;
-                return;
-            }
+    // Hands a page to the merge pipeline; only the finished batch reaches the main thread. then,
+    // if given, runs after the batch on whichever activity applied it.
+    private void mergePage(MessagePage page, boolean fromNetwork, @Nullable Consumer<ChatRoomActivity> then) {
+        MessageMergePipeline.Mode mode = state.refreshingHead ? MessageMergePipeline.Mode.REPLACE
+                : state.pendingOlder ? MessageMergePipeline.Mode.OLDER : MessageMergePipeline.Mode.NEWER;
+        MessageMergePipeline.Request request = new MessageMergePipeline.Request(page, mode, state.window,
+                state.messages, state.anchorMessageId, fromNetwork ? chatRoomId : null, state.pendingCursor);
+        ChatRoomViewModel roomState = state;
+        roomState.mergePipeline.merge(request, batch -> roomState.withHost(host -> {
+            host.applyBatch(batch);
+            if (then != null) then.accept(host);
+        }));
+    }
 
-            if (!newMessages.isEmpty()) {
-                List<Message> filtered = new ArrayList<>();
-                for (Message m : newMessages) {
-                    if (!loadedMessageIds.contains(m.getId())) {
-                        filtered.add(m);
-                        loadedMessageIds.add(m.getId());
-                    }
+    private void applyBatch(MessageMergePipeline.Batch batch) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        if (frameTracker != null) frameTracker.mark(FrameReport.State.PAGE_INSERT);
+        int shown = batch.messages.size();
+        if (batch.mode == MessageMergePipeline.Mode.REPLACE) {
+            refreshHead(batch);
+        } else if (batch.messages.isEmpty() && state.window.isEmpty()) {
+            // No messages at all - show empty state
+            multiStateView.setState(State.EMPTY);
+            state.isLoading = false;
+            state.isFirstLoad = false;
+        } else {
+            shown = applyPage(batch);
+        }
+        long micros = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        PageMergeStats.getInstance().record(micros);
+        ChatEventsListener listener = ChatConfig.getChatEventsListener();
+        if (listener != null) {
+            listener.onPageMerged(chatRoomId, shown, micros);
+        }
+    }
+
+    // Returns the number of messages inserted.
+    private int applyPage(MessageMergePipeline.Batch batch) {
+        List<Message> sorted = batch.messages;
+        int inserted;
+        if (batch.mode == MessageMergePipeline.Mode.OLDER) {
+            // Keep the row the user is looking at in place while the page lands above it.
+            int firstVisible = Math.max(layoutManager.findFirstVisibleItemPosition(), 0);
+            View firstView = layoutManager.findViewByPosition(firstVisible);
+            int offset = firstView != null ? firstView.getTop() : 0;
+
+            inserted = state.window.prependOlder(state.pendingPageIndex, state.pendingCursor, sorted);
+            if (inserted > 0) {
+                int dropped = state.window.getLastDroppedCount();
+                messageAdapter.notifyItemRangeInserted(0, inserted);
+                if (dropped > 0) {
+                    messageAdapter.notifyItemRangeRemoved(state.messages.size(), dropped);
                 }
-                if (!filtered.isEmpty()) {
-                    filtered.sort((m1, m2) -> m1.getCreatedAt().compareTo(m2.getCreatedAt()));
-                    lastCreatedAt = filtered.get(0).getCreatedAt();
-                    messages.addAll(0, filtered);
-                    messageAdapter.notifyItemRangeInserted(0, filtered.size());
-                    layoutManager.scrollToPositionWithOffset(filtered.size(), 0);
-
-                    // Show content state
-                    multiStateView.setState(State.CONTENT);
-                } else if (messages.isEmpty()) {
-                    // No new messages and no existing messages - show empty
-                    multiStateView.setState(State.EMPTY);
+                // The batch sits at the top of the list, so its anchor index is the adapter position
+                // unless the window filtered something out in the meantime.
+                int anchor = inserted == sorted.size() ? batch.anchorIndex
+                        : state.anchorMessageId != null ? state.window.positionOf(state.anchorMessageId) : -1;
+                if (anchor >= 0) {
+                    layoutManager.scrollToPositionWithOffset(anchor, 0);
+                } else {
+                    layoutManager.scrollToPositionWithOffset(firstVisible + inserted, offset);
                 }
-            } else if (messages.isEmpty()) {
-                // No new messages and no existing messages - show empty
-                multiStateView.setState(State.EMPTY);
+                state.anchorMessageId = null;
+                state.window.rememberNext(state.pendingPageIndex, batch.nextCursor, batch.hasMore);
+            } else if (!batch.hasMore && !state.window.isEmpty()) {
+                // Nothing new and nothing older; a page of already shown rows with more behind it
+                // does not mean the start was reached.
+                state.window.markReachedStart();
             }
+        } else {
+            int sizeBefore = state.messages.size();
+            inserted = state.window.appendNewer(state.pendingPageIndex, state.pendingCursor, sorted);
+            int dropped = state.window.getLastDroppedCount();
+            if (dropped > 0) {
+                messageAdapter.notifyItemRangeRemoved(0, dropped);
+            }
+            messageAdapter.notifyItemRangeInserted(sizeBefore - dropped, inserted);
+            state.window.rememberNext(state.pendingPageIndex, batch.nextCursor, batch.hasMore);
+        }
 
-            isLoading = false;
-            isFirstLoad = false;
-        });
+        // Show content state
+        multiStateView.setState(state.window.isEmpty() ? State.EMPTY : State.CONTENT);
+
+        state.isLoading = false;
+        state.isFirstLoad = false;
+        return inserted;
     }
 
     private void handleMessageSent(Map<String, Message> response) {
@@ -273,10 +490,13 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
             inputMessage.setText("");
             Message sentMessage = response.get("message");
             if (sentMessage != null) {
-                messages.add(sentMessage);
-                loadedMessageIds.add(sentMessage.getId());
-                messageAdapter.notifyItemInserted(messages.size() - 1);
-                recyclerView.scrollToPosition(messages.size() - 1);
+                if (state.window.appendLatest(sentMessage)) {
+                    messageAdapter.notifyItemInserted(state.messages.size() - 1);
+                    recyclerView.scrollToPosition(state.messages.size() - 1);
+                } else if (!state.window.isShowingLatest()) {
+                    // The newest page is outside the window, jump back to it.
+                    jumpToLatest();
+                }
 
                 multiStateView.setState(State.CONTENT);
 
@@ -286,16 +506,12 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
 
     private void handleMessageDeleted(Map<String, String> response) {
         String deletedMsgId = response.get("msgId");
-        for (int i = 0; i < messages.size(); i++) {
-            if (messages.get(i).getId().equals(deletedMsgId)) {
-                messages.remove(i);
-                loadedMessageIds.remove(deletedMsgId);
-                messageAdapter.notifyItemRemoved(i);
-
-                if (messages.isEmpty()) {
-                    runOnUiThread(() -> multiStateView.setState(State.EMPTY));
-                }
-                break;
+        int position = state.window.remove(deletedMsgId);
+        if (position >= 0) {
+            messageAdapter.notifyItemRemoved(position);
+
+            if (state.messages.isEmpty()) {
+                runOnUiThread(() -> multiStateView.setState(State.EMPTY));
             }
         }
     }
@@ -304,12 +520,9 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
         Message updated = response.get("Message");
         if (updated != null) {
             runOnUiThread(() -> {
-                for (int i = 0; i < messages.size(); i++) {
-                    if (messages.get(i).getId().equals(updated.getId())) {
-                        messages.set(i, updated);
-                        messageAdapter.notifyItemChanged(i);
-                        break;
-                    }
+                int position = state.window.replace(updated);
+                if (position >= 0) {
+                    messageAdapter.notifyItemChanged(position);
                 }
             });
         }
@@ -317,6 +530,7 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
 
     private void updateTypingIndicator(Map<String, Boolean> typingUsers) {
         runOnUiThread(() -> {
+            if (frameTracker != null) frameTracker.mark(FrameReport.State.TYPING_UPDATE);
             StringBuilder indicator = new StringBuilder();
             for (Map.Entry<String, Boolean> entry : typingUsers.entrySet()) {
 //                if ( entry.getValue()) {
@@ -333,20 +547,139 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
         });
     }
 
+    // Rooms visited before, or kept fresh by RecentRoomsSync, show their stored head page at once
+    // while the network copy is fetched behind it.
+    private void openFromStore() {
+        RoomOpenStats stats = RoomOpenStats.getInstance(this);
+        state.isLoading = true;
+        pageStore.read(chatRoomId, null, page -> state.withHost(host -> {
+            boolean warm = page != null && !page.getMessages().isEmpty();
+            stats.recordOpen(host.chatRoomId, warm);
+            if (!warm) {
+                host.fetchMessages(true);
+                return;
+            }
+            host.state.pendingPageIndex = 0;
+            host.state.pendingOlder = true;
+            host.state.pendingCursor = null;
+            host.mergePage(page, false, ready -> {
+                ready.recyclerView.scrollToPosition(ready.state.messages.size() - 1);
+                ready.state.refreshingHead = true;
+                ready.state.isLoading = true;
+                ready.requestPage(null);
+            });
+        }));
+    }
+
+    // The diff was computed against the window as it was when the page arrived; if the window has
+    // changed since, the whole list is rebound instead, keeping rows that arrived after the page.
+    private void refreshHead(MessageMergePipeline.Batch batch) {
+        state.refreshingHead = false;
+        if (batch.unchanged) {
+            // Same messages; fills in the next cursor if the stored copy had none.
+            state.window.rememberNext(0, batch.nextCursor, batch.hasMore);
+            state.isLoading = false;
+            return;
+        }
+        boolean current = batch.windowVersion == state.window.getVersion();
+        List<Message> newer = current ? Collections.emptyList() : rowsAfter(batch.messages);
+        state.window.clear();
+        state.window.prependOlder(0, null, batch.messages);
+        state.window.rememberNext(0, batch.nextCursor, batch.hasMore);
+        for (Message message : newer) {
+            state.window.appendLatest(message);
+        }
+        if (current && batch.diff != null) {
+            batch.diff.dispatchUpdatesTo(messageAdapter);
+        } else {
+            messageAdapter.notifyDataSetChanged();
+        }
+        recyclerView.scrollToPosition(state.messages.size() - 1);
+        multiStateView.setState(state.window.isEmpty() ? State.EMPTY : State.CONTENT);
+        state.isLoading = false;
+        state.isFirstLoad = false;
+    }
+
+    // Window rows newer than the last of sortedPage, e.g. sent or polled while the page was merged.
+    private List<Message> rowsAfter(List<Message> sortedPage) {
+        Message last = sortedPage.isEmpty() ? null : sortedPage.get(sortedPage.size() - 1);
+        List<Message> newer = new ArrayList<>();
+        for (Message message : state.messages) {
+            if (last == null || Message.BY_CREATED_AT.compare(message, last) > 0) {
+                newer.add(message);
+            }
+        }
+        return newer;
+    }
+
     private void fetchMessages(boolean scrollToBottom) {
-        isLoading = true;
-        chatController.fetchMessages(chatRoomId, lastCreatedAt, PAGE_SIZE);
-        if (scrollToBottom && messages.size() > 0) {
-            recyclerView.scrollToPosition(messages.size() - 1);
+        loadPage(state.window.olderPageIndex(), true);
+        if (scrollToBottom && state.messages.size() > 0) {
+            recyclerView.scrollToPosition(state.messages.size() - 1);
         }
     }
 
+    private void loadAroundAnchor() {
+        state.isLoading = true;
+        state.pendingPageIndex = 0;
+        state.pendingOlder = true;
+        state.pendingCursor = AROUND_CURSOR_PREFIX + state.anchorMessageId;
+        state.window.detachFromLatest();
+        state.chatController.fetchMessagesAround(chatRoomId, state.anchorMessageId, state.window.getPageSize());
+    }
+
+    private void jumpToLatest() {
+        state.window.clear();
+        messageAdapter.notifyDataSetChanged();
+        fetchMessages(true);
+    }
+
+    private void requestPage(String cursor) {
+        if (cursor != null && cursor.startsWith(AROUND_CURSOR_PREFIX)) {
+            state.chatController.fetchMessagesAround(chatRoomId, cursor.substring(AROUND_CURSOR_PREFIX.length()),
+                    state.window.getPageSize());
+            return;
+        }
+        // Pages requested before the user reaches the edge of the list yield to visible work.
+        boolean atEdge = layoutManager.findFirstVisibleItemPosition() <= 0
+                || layoutManager.findLastVisibleItemPosition() >= state.messages.size() - 1;
+        RequestClass requestClass = atEdge ? RequestClass.VISIBLE : RequestClass.PREFETCH;
+        if (cursor != null && cursor.startsWith(MessageWindow.BEFORE_CURSOR_PREFIX)) {
+            String beforeMessageId = cursor.substring(MessageWindow.BEFORE_CURSOR_PREFIX.length());
+            state.chatController.fetchMessagePage(chatRoomId, null, beforeMessageId,
+                    state.window.getPageSize(), requestClass);
+        } else {
+            state.chatController.fetchMessagePage(chatRoomId, cursor, null,
+                    state.window.getPageSize(), requestClass);
+        }
+    }
+
+    private void loadPage(int index, boolean older) {
+        state.isLoading = true;
+        state.pendingPageIndex = index;
+        state.pendingOlder = older;
+        state.pendingCursor = state.window.cursorFor(index);
+        if (!state.window.isKnownPage(index)) {
+            requestPage(state.pendingCursor);
+            return;
+        }
+        // Pages that were dropped from the window come back from disk before the network.
+        String cursor = state.pendingCursor;
+        pageStore.read(chatRoomId, cursor, page -> state.withHost(host -> {
+            if (page != null) {
+                host.mergePage(page, false, null);
+            } else {
+                host.requestPage(cursor);
+            }
+        }));
+    }
+
     @Override
     public void onMessageLongClicked(Message message) {
         if (!message.getSenderId().equals(senderId)) return;
 
         EditText editText = new EditText(this);
-        editText.setText(message.getContent().getContent());
+        editText.setText(message.getText());
 
         new AlertDialog.Builder(this)
                 .setTitle("Edit Message")
@@ -355,7 +688,7 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
                     String newText = editText.getText().toString().trim();
                     if (!newText.isEmpty()) {
                         Content updated = new Content(newText, Icontent.contentType.TEXT, null);
-                        chatController.updateMessage(message.getId(), updated);
+                        state.chatController.updateMessage(message.getId(), updated);
                     }
                 })
                 .setNegativeButton("Cancel", null)
@@ -370,7 +703,7 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
                 .setTitle("Delete Message")
                 .setMessage("Are you sure you want to delete this message?")
                 .setPositiveButton("Delete", (dialog, which) ->
-                        chatController.deleteMessage(message.getId(), chatRoomId)
+                        state.chatController.deleteMessage(message.getId(), chatRoomId)
                 )
                 .setNegativeButton("Cancel", null)
                 .show();
@@ -380,20 +713,66 @@ public class ChatRoomActivity extends AppCompatActivity implements MessageAdapte
     protected void onDestroy() {
         super.onDestroy();
         typingStatusHandler.removeCallbacks(typingStatusRunnable);
+        if (state != null) {
+            if (isChangingConfigurations() && layoutManager != null) {
+                saveScrollPosition();
+            }
+            state.detach(this);
+        }
+        if (playback != null) {
+            playback.stop();
+        }
+        if (messageAdapter != null) {
+            messageAdapter.release();
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
+        if (state.chatController == null) return;
         notifySeenLastMessage();
+        // Receipts carried over a configuration change are recent enough.
+        if (!restored || state.readReceipts == null) {
+            state.chatController.fetchReadReceipts(chatRoomId);
+        }
+        restored = false;
+        if (frameTracker != null) {
+            frameTracker.start(this);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (state.chatController != null) {
+            state.chatController.flushReadReceipts();
+        }
+        if (playback != null) {
+            playback.pause();
+        }
+        if (frameTracker != null) {
+            frameTracker.stop();
+        }
+    }
+
+    // Called on every scroll frame; only a new last visible row reaches the reporter.
+    private void markVisibleMessagesSeen() {
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible < 0 || lastVisible >= state.messages.size()) return;
+        String createdAt = state.messages.get(lastVisible).getCreatedAt();
+        if (createdAt == null || createdAt.equals(lastMarkedSeen)) return;
+        lastMarkedSeen = createdAt;
+        state.chatController.markMessagesSeen(senderId, chatRoomId, createdAt);
     }
 
     private void notifySeenLastMessage() {
-        if (messages.isEmpty()) return;
-        Message lastMessage = messages.get(messages.size() - 1);
+        if (state.messages.isEmpty() || !state.window.isShowingLatest()) return;
+        Message lastMessage = state.messages.get(state.messages.size() - 1);
         ChatEventsListener listener = ChatConfig.getChatEventsListener();
         if (listener != null) {
             listener.onMessagesSeen(chatRoomId, lastMessage.getCreatedAt());
         }
+        state.chatController.markMessagesSeen(senderId, chatRoomId, lastMessage.getCreatedAt());
     }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import androidx.lifecycle.ViewModel;
+
+import com.avitaliskhakov.librarychat.api.ChatController;
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.ChatRoomPage;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.model.ParticipantPage;
+import com.avitaliskhakov.librarychat.model.ReadReceipts;
+import com.avitaliskhakov.librarychat.model.SearchPage;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Room state that outlives ChatRoomActivity across configuration changes: the message window,
+// paging cursors, the controller and its in-flight calls. Results that land while the activity
+// is being recreated go to the new instance; the calls are cancelled once the room is closed.
+public class ChatRoomViewModel extends ViewModel {
+
+    final List<Message> messages = new ArrayList<>();
+    MessageWindow window;
+    ChatController chatController;
+    MessageTextCache textCache;
+    MessageMergePipeline mergePipeline;
+    ReadReceipts readReceipts;
+    Map<String, Boolean> typingUsers;
+
+    boolean isLoading;
+    int pendingPageIndex;
+    String pendingCursor;
+    boolean pendingOlder;
+    boolean isFirstLoad = true;
+    // The head page came from the store and the network copy is on its way.
+    boolean refreshingHead;
+    String anchorMessageId;
+    long lastTypingPollAt;
+
+    // First visible message and its top offset when the last activity went away.
+    String scrollAnchorId;
+    int scrollAnchorOffset;
+
+    private ChatRoomActivity host;
+    private boolean initialized;
+    // Sent, edited and deleted messages in arrival order; main thread only.
+    private final ArrayDeque<PendingUpdate> pendingUpdates = new ArrayDeque<>();
+
+    boolean isInitialized() {
+        return initialized;
+    }
+
+    void markInitialized() {
+        initialized = true;
+    }
+
+    void attach(ChatRoomActivity activity) {
+        host = activity;
+    }
+
+    void detach(ChatRoomActivity activity) {
+        if (host == activity) {
+            host = null;
+        }
+    }
+
+    // Runs on the main thread against the activity attached at that moment, if any.
+    void withHost(Consumer<ChatRoomActivity> action) {
+        ChatExecutors.runOnMain(() -> {
+            if (host != null) {
+                action.accept(host);
+            }
+        });
+    }
+
+    // Queues an update behind the ones that arrived earlier; it runs once markReady was called for it
+    // and for everything ahead of it, so a message laid out quickly cannot overtake a slower one.
+    PendingUpdate queueUpdate(Consumer<ChatRoomActivity> apply) {
+        PendingUpdate update = new PendingUpdate(apply);
+        pendingUpdates.addLast(update);
+        return update;
+    }
+
+    void markReady(PendingUpdate update) {
+        update.ready = true;
+        while (!pendingUpdates.isEmpty() && pendingUpdates.peekFirst().ready) {
+            withHost(pendingUpdates.pollFirst().apply);
+        }
+    }
+
+    static final class PendingUpdate {
+        final Consumer<ChatRoomActivity> apply;
+        boolean ready;
+
+        PendingUpdate(Consumer<ChatRoomActivity> apply) {
+            this.apply = apply;
+        }
+    }
+
+    ChatController.CallBack_Chat forwardingCallback() {
+        return new ChatController.CallBack_Chat() {
+            @Override
+            public void success(List<Message> messages) {
+                withHost(activity -> activity.chatCallback.success(messages));
+            }
+
+            @Override
+            public void messageSent(Map<String, Message> response) {
+                withHost(activity -> activity.chatCallback.messageSent(response));
+            }
+
+            @Override
+            public void messageDeleted(Map<String, String> response) {
+                withHost(activity -> activity.chatCallback.messageDeleted(response));
+            }
+
+            @Override
+            public void messageUpdated(Map<String, Message> response) {
+                withHost(activity -> activity.chatCallback.messageUpdated(response));
+            }
+
+            @Override
+            public void error(String error) {
+                withHost(activity -> activity.chatCallback.error(error));
+            }
+
+            @Override
+            public void typingStatusUpdated(Map<String, Boolean> typingUsers) {
+                withHost(activity -> activity.chatCallback.typingStatusUpdated(typingUsers));
+            }
+
+            @Override
+            public void chatRoomCreated(Map<String, String> response) {
+                withHost(activity -> activity.chatCallback.chatRoomCreated(response));
+            }
+
+            @Override
+            public void userChatRoomsFetched(List<ChatRoomInfo> chatRooms) {
+                withHost(activity -> activity.chatCallback.userChatRoomsFetched(chatRooms));
+            }
+
+            @Override
+            public void userChatRoomPageFetched(String cursor, ChatRoomPage page) {
+                withHost(activity -> activity.chatCallback.userChatRoomPageFetched(cursor, page));
+            }
+
+            @Override
+            public void participantsFetched(List<String> participants) {
+                withHost(activity -> activity.chatCallback.participantsFetched(participants));
+            }
+
+            @Override
+            public void participantPageFetched(String roomId, String cursor, ParticipantPage page) {
+                withHost(activity -> activity.chatCallback.participantPageFetched(roomId, cursor, page));
+            }
+
+            @Override
+            public void searchResultsFetched(String query, SearchPage page) {
+                withHost(activity -> activity.chatCallback.searchResultsFetched(query, page));
+            }
+
+            @Override
+            public void messagesAroundFetched(String messageId, List<Message> messages) {
+                withHost(activity -> activity.chatCallback.messagesAroundFetched(messageId, messages));
+            }
+
+            @Override
+            public void messagePageFetched(String chatRoomId, String cursor, MessagePage page) {
+                withHost(activity -> activity.chatCallback.messagePageFetched(chatRoomId, cursor, page));
+            }
+
+            @Override
+            public void readReceiptsFetched(ReadReceipts receipts) {
+                withHost(activity -> activity.chatCallback.readReceiptsFetched(receipts));
+            }
+        };
+    }
+
+    @Override
+    protected void onCleared() {
+        host = null;
+        if (chatController != null) {
+            chatController.cancelAll();
+        }
+        if (textCache != null) {
+            textCache.release();
+        }
+    }
+}
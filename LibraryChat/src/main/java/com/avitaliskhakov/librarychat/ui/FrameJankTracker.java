@@ -0,0 +1,131 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import android.app.Activity;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.Display;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.avitaliskhakov.librarychat.config.FrameMetricsListener;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Collects FrameMetrics for a chat screen between start() and stop() and hands the listener one
+// aggregated FrameReport per visit. Events are marked on the main thread; frames are attributed on
+// a dedicated thread to the most specific state active while they were produced.
+class FrameJankTracker implements Window.OnFrameMetricsAvailableListener {
+
+    private static final float JANK_MULTIPLIER = 2f;
+    // Transient states, most specific first.
+    private static final FrameReport.State[] EVENTS = {
+            FrameReport.State.PAGE_INSERT, FrameReport.State.MEDIA_BIND, FrameReport.State.TYPING_UPDATE
+    };
+
+    private static HandlerThread thread;
+    private static Handler handler;
+
+    private final String chatRoomId;
+    private final FrameMetricsListener listener;
+    // System.nanoTime() of the latest event per state, the time base FrameMetrics uses too.
+    private final AtomicLongArray lastEventNanos = new AtomicLongArray(FrameReport.State.values().length);
+    private volatile int scrollState = RecyclerView.SCROLL_STATE_IDLE;
+
+    private Window window;
+    private long budgetNanos;
+
+    // Frame thread only.
+    private Map<FrameReport.State, FrameReport.Histogram> histograms = FrameReport.emptyHistograms();
+    private long previousFrameEnd;
+    private int droppedReports;
+    private long startedAt;
+
+    FrameJankTracker(String chatRoomId, FrameMetricsListener listener) {
+        this.chatRoomId = chatRoomId;
+        this.listener = listener;
+    }
+
+    private static synchronized Handler handler() {
+        if (handler == null) {
+            thread = new HandlerThread("librarychat-frames");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    void start(Activity activity) {
+        if (window != null) return;
+        // Before R an activity cannot report its own display; chat screens run on the default one.
+        Display display = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? activity.getDisplay()
+                : activity.getSystemService(DisplayManager.class).getDisplay(Display.DEFAULT_DISPLAY);
+        float refreshRate = display != null ? display.getRefreshRate() : 60f;
+        budgetNanos = (long) (1_000_000_000L / Math.max(refreshRate, 30f));
+        window = activity.getWindow();
+        long now = SystemClock.elapsedRealtime();
+        handler().post(() -> startedAt = now);
+        window.addOnFrameMetricsAvailableListener(this, handler());
+    }
+
+    void stop() {
+        if (window == null) return;
+        window.removeOnFrameMetricsAvailableListener(this);
+        window = null;
+        long now = SystemClock.elapsedRealtime();
+        handler().post(() -> {
+            FrameReport report = new FrameReport(chatRoomId, now - startedAt, budgetNanos, droppedReports, histograms);
+            histograms = FrameReport.emptyHistograms();
+            droppedReports = 0;
+            if (report.getTotalFrames() > 0) {
+                ChatExecutors.runOnMain(() -> listener.onFrameReport(report));
+            }
+        });
+    }
+
+    void mark(FrameReport.State state) {
+        lastEventNanos.set(state.ordinal(), System.nanoTime());
+    }
+
+    void setScrollState(int scrollState) {
+        this.scrollState = scrollState;
+    }
+
+    @Override
+    public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+        droppedReports += dropCountSinceLastInvocation;
+        if (frameMetrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 1) {
+            return;
+        }
+        long total = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        long vsync = frameMetrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP);
+        long end = vsync + total;
+        FrameReport.State state = attribute(end);
+        previousFrameEnd = end;
+        histograms.get(state).add(total, total > budgetNanos * JANK_MULTIPLIER);
+    }
+
+    // An event belongs to the first frame that ends after it; continuous scroll states cover the rest.
+    private FrameReport.State attribute(long frameEnd) {
+        for (FrameReport.State event : EVENTS) {
+            long at = lastEventNanos.get(event.ordinal());
+            if (at > previousFrameEnd && at <= frameEnd) {
+                return event;
+            }
+        }
+        switch (scrollState) {
+            case RecyclerView.SCROLL_STATE_SETTLING:
+                return FrameReport.State.FLINGING;
+            case RecyclerView.SCROLL_STATE_DRAGGING:
+                return FrameReport.State.SCROLLING;
+            default:
+                return FrameReport.State.IDLE;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// Frame durations of one visit to a chat screen, bucketed per state the frame was attributed to.
+// A frame is janky when it took more than twice the display's refresh interval.
+public class FrameReport {
+
+    // Upper bounds of the histogram buckets in ms; the last bucket holds everything slower.
+    public static final int[] BUCKET_UPPER_MS = {8, 12, 16, 24, 33, 50, 75, 100, 200, 500};
+
+    public enum State {
+        IDLE,
+        // Finger on the list.
+        SCROLLING,
+        // List settling after a fling.
+        FLINGING,
+        // A history page was added to or replaced in the list.
+        PAGE_INSERT,
+        // The typing indicator changed.
+        TYPING_UPDATE,
+        // A player or link preview image was bound to a row.
+        MEDIA_BIND
+    }
+
+    private final String chatRoomId;
+    private final long durationMs;
+    private final long frameBudgetNanos;
+    private final int droppedReports;
+    private final Map<State, Histogram> histograms;
+
+    FrameReport(String chatRoomId, long durationMs, long frameBudgetNanos, int droppedReports,
+                Map<State, Histogram> histograms) {
+        this.chatRoomId = chatRoomId;
+        this.durationMs = durationMs;
+        this.frameBudgetNanos = frameBudgetNanos;
+        this.droppedReports = droppedReports;
+        this.histograms = histograms;
+    }
+
+    public String getChatRoomId() {
+        return chatRoomId;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public long getFrameBudgetNanos() {
+        return frameBudgetNanos;
+    }
+
+    // Frames the platform did not report because the collector fell behind.
+    public int getDroppedReports() {
+        return droppedReports;
+    }
+
+    public Histogram getHistogram(State state) {
+        Histogram histogram = histograms.get(state);
+        return histogram != null ? histogram : new Histogram();
+    }
+
+    public long getTotalFrames() {
+        long total = 0;
+        for (Histogram histogram : histograms.values()) total += histogram.frames;
+        return total;
+    }
+
+    public long getJankyFrames() {
+        long janky = 0;
+        for (Histogram histogram : histograms.values()) janky += histogram.jankyFrames;
+        return janky;
+    }
+
+    static Map<State, Histogram> emptyHistograms() {
+        Map<State, Histogram> histograms = new EnumMap<>(State.class);
+        for (State state : State.values()) {
+            histograms.put(state, new Histogram());
+        }
+        return histograms;
+    }
+
+    public static class Histogram {
+        private final long[] counts = new long[BUCKET_UPPER_MS.length + 1];
+        private long frames;
+        private long jankyFrames;
+
+        void add(long durationNanos, boolean janky) {
+            long ms = durationNanos / 1_000_000;
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_MS.length && ms > BUCKET_UPPER_MS[bucket]) bucket++;
+            counts[bucket]++;
+            frames++;
+            if (janky) jankyFrames++;
+        }
+
+        // Index matches BUCKET_UPPER_MS; BUCKET_UPPER_MS.length is the overflow bucket.
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public long getJankyFrames() {
+            return jankyFrames;
+        }
+
+        // Upper bound of the bucket holding the p-th percentile, -1 without frames and
+        // Integer.MAX_VALUE when it falls in the overflow bucket.
+        public int percentileUpperMs(double p) {
+            if (frames == 0) return -1;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * frames));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return bucket < BUCKET_UPPER_MS.length ? BUCKET_UPPER_MS[bucket] : Integer.MAX_VALUE;
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+    }
+}
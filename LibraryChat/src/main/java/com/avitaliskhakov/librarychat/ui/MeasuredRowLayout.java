@@ -0,0 +1,43 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.widget.LinearLayout;
+
+import androidx.annotation.Nullable;
+
+// Root of the XML message rows. Behaves like a LinearLayout and records how long each
+// measure and layout pass of the row takes, nested views included, in RowLayoutStats.
+public class MeasuredRowLayout extends LinearLayout {
+
+    private long measureNanos;
+
+    public MeasuredRowLayout(Context context) {
+        super(context);
+    }
+
+    public MeasuredRowLayout(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public MeasuredRowLayout(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        measureNanos += SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        super.onLayout(changed, l, t, r, b);
+        long total = measureNanos + SystemClock.elapsedRealtimeNanos() - start;
+        measureNanos = 0;
+        RowLayoutStats.getInstance().record(RowLayoutStats.Kind.XML, total / 1000);
+    }
+}
@@ -0,0 +1,165 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.MediaPlayer;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.media.CachedMediaDataSource;
+import com.avitaliskhakov.librarychat.model.Icontent;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.store.MediaCache;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+// Plays one AUDIO or VIDEO message at a time inside its bubble, streaming through MediaCache.
+// Starting another message stops the current one. Everything here runs on the main thread.
+public class MediaPlaybackController {
+
+    private static final String TAG = "MediaPlayback";
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    private final MediaCache cache;
+    private final Runnable progressTick = this::onProgressTick;
+    private Listener listener;
+
+    private MediaPlayer player;
+    private String activeMessageId;
+    private boolean prepared;
+
+    public MediaPlaybackController(Context context) {
+        this.cache = MediaCache.getInstance(context);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public static boolean isPlayable(Message message) {
+        Icontent.contentType type = message.getContentType();
+        return (type == Icontent.contentType.AUDIO || type == Icontent.contentType.VIDEO) && message.getText() != null;
+    }
+
+    public void toggle(Message message, @Nullable Surface surface) {
+        if (message.getId() != null && message.getId().equals(activeMessageId)) {
+            if (!prepared) return;
+            if (player.isPlaying()) {
+                player.pause();
+                ChatExecutors.cancelOnMain(progressTick);
+            } else {
+                player.start();
+                ChatExecutors.postOnMain(progressTick, PROGRESS_INTERVAL_MS);
+            }
+            notifyChanged(activeMessageId);
+            return;
+        }
+        stop();
+        if (isPlayable(message)) {
+            start(message, surface);
+        }
+    }
+
+    // Attaches the bubble's video surface once it becomes available.
+    public void setSurface(String messageId, @Nullable Surface surface) {
+        if (player != null && messageId.equals(activeMessageId)) {
+            player.setSurface(surface);
+        }
+    }
+
+    public boolean isActive(String messageId) {
+        return messageId != null && messageId.equals(activeMessageId);
+    }
+
+    public boolean isPlaying(String messageId) {
+        return isActive(messageId) && prepared && player.isPlaying();
+    }
+
+    // Started but waiting for the first chunks.
+    public boolean isBuffering(String messageId) {
+        return isActive(messageId) && !prepared;
+    }
+
+    // Between 0 and 1; 0 while buffering or for any other message.
+    public float getProgress(String messageId) {
+        if (!isActive(messageId) || !prepared) return 0f;
+        int duration = player.getDuration();
+        return duration > 0 ? (float) player.getCurrentPosition() / duration : 0f;
+    }
+
+    public void pause() {
+        if (player != null && prepared && player.isPlaying()) {
+            player.pause();
+            ChatExecutors.cancelOnMain(progressTick);
+            notifyChanged(activeMessageId);
+        }
+    }
+
+    public void stop() {
+        ChatExecutors.cancelOnMain(progressTick);
+        String stopped = activeMessageId;
+        if (player != null) {
+            player.release();
+            player = null;
+        }
+        activeMessageId = null;
+        prepared = false;
+        if (stopped != null) {
+            notifyChanged(stopped);
+        }
+    }
+
+    private void start(Message message, @Nullable Surface surface) {
+        String messageId = message.getId();
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        mediaPlayer.setAudioAttributes(new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_MEDIA)
+                .setContentType(message.getContentType() == Icontent.contentType.VIDEO
+                        ? AudioAttributes.CONTENT_TYPE_MOVIE : AudioAttributes.CONTENT_TYPE_SPEECH)
+                .build());
+        // Reads go through the cache: the player starts after the first chunk and a replay
+        // costs no network traffic.
+        mediaPlayer.setDataSource(new CachedMediaDataSource(cache, message.getText()));
+        if (surface != null) {
+            mediaPlayer.setSurface(surface);
+        }
+        mediaPlayer.setOnPreparedListener(mp -> {
+            if (mp != player) return;
+            prepared = true;
+            mp.start();
+            ChatExecutors.postOnMain(progressTick, PROGRESS_INTERVAL_MS);
+            notifyChanged(messageId);
+        });
+        mediaPlayer.setOnCompletionListener(mp -> {
+            if (mp == player) stop();
+        });
+        mediaPlayer.setOnErrorListener((mp, what, extra) -> {
+            Log.w(TAG, "Playback of " + messageId + " failed: " + what + "/" + extra);
+            if (mp == player) stop();
+            return true;
+        });
+
+        player = mediaPlayer;
+        activeMessageId = messageId;
+        prepared = false;
+        mediaPlayer.prepareAsync();
+        notifyChanged(messageId);
+    }
+
+    private void onProgressTick() {
+        if (player == null || !prepared || !player.isPlaying()) return;
+        notifyChanged(activeMessageId);
+        ChatExecutors.postOnMain(progressTick, PROGRESS_INTERVAL_MS);
+    }
+
+    private void notifyChanged(String messageId) {
+        if (listener != null) {
+            listener.onPlaybackChanged(messageId);
+        }
+    }
+
+    public interface Listener {
+        void onPlaybackChanged(String messageId);
+    }
+}
@@ -1,26 +1,49 @@
 package com.avitaliskhakov.librarychat.ui;
 
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.graphics.SurfaceTexture;
+import android.net.Uri;
 import android.view.GestureDetector;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
+import android.view.Surface;
+import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.os.TraceCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.ImageViewCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.avitaliskhakov.librarychat.config.ChatConfig;
 import com.avitaliskhakov.librarychat.config.ChatStyle;
+import com.avitaliskhakov.librarychat.model.LinkPreview;
+import com.avitaliskhakov.librarychat.store.LinkPreviewCache;
 import com.avitaliskhakov.librarychat.utils.ChatViewUtils;
+import com.avitaliskhakov.librarychat.model.Icontent;
 import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.ReadReceipts;
 import com.avitaliskhakov.librarychat.R;
+import com.bumptech.glide.Glide;
 
 import java.util.List;
 
-public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
+public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.RowHolder> {
+
+    // notifyItemChanged payload that only refreshes the play button and progress.
+    public static final Object PAYLOAD_PLAYBACK = new Object();
+
+    // Plain text rows drawn by a single MessageBubbleView, see ChatConfig.setFlatMessageBubbles.
+    private static final int VIEW_TYPE_FLAT_SELF = 2;
+    private static final int VIEW_TYPE_FLAT_OTHER = 3;
 
     public interface MessageClickListener {
         void onMessageLongClicked(Message message);
@@ -30,6 +53,14 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
     private final List<Message> messages;
     private final String currentUserId;
     private final MessageClickListener listener;
+    private MessageTextCache textCache;
+    private ReadReceipts readReceipts;
+    private MediaPlaybackController playback;
+    private LinkPreviewCache linkPreviews;
+    private FrameJankTracker frameTracker;
+    private final boolean flatBubbles = ChatConfig.isFlatMessageBubbles();
+    private MessageBubbleView.Appearance selfAppearance;
+    private MessageBubbleView.Appearance otherAppearance;
 
     public MessageAdapter(List<Message> messages, String currentUserId, MessageClickListener listener) {
         this.messages = messages;
@@ -38,23 +69,125 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
 
     }
 
+    // Call when the screen goes away; the text cache belongs to the caller.
+    public void release() {
+        if (selfAppearance != null) selfAppearance.release();
+        if (otherAppearance != null) otherAppearance.release();
+        selfAppearance = null;
+        otherAppearance = null;
+    }
+
+    public void setTextCache(MessageTextCache textCache) {
+        this.textCache = textCache;
+    }
+
+    public void setPlaybackController(MediaPlaybackController playback) {
+        this.playback = playback;
+    }
+
+    public void setLinkPreviews(LinkPreviewCache linkPreviews) {
+        this.linkPreviews = linkPreviews;
+    }
+
+    void setFrameTracker(FrameJankTracker frameTracker) {
+        this.frameTracker = frameTracker;
+    }
+
+    public void setReadReceipts(ReadReceipts readReceipts) {
+        this.readReceipts = readReceipts;
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
     @Override
     public int getItemViewType(int position) {
-        return messages.get(position).getSenderId().equals(currentUserId) ? 0 : 1;
+        Message message = messages.get(position);
+        boolean isMine = message.getSenderId().equals(currentUserId);
+        if (flatBubbles && canDrawFlat(message)) {
+            return isMine ? VIEW_TYPE_FLAT_SELF : VIEW_TYPE_FLAT_OTHER;
+        }
+        return isMine ? 0 : 1;
+    }
+
+    // Media and link previews need real child views, so only plain text is drawn flat.
+    private boolean canDrawFlat(Message message) {
+        return !MediaPlaybackController.isPlayable(message)
+                && (linkPreviews == null || linkPreviews.urlFor(message) == null);
     }
 
     @NonNull
     @Override
-    public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+    public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (viewType == VIEW_TYPE_FLAT_SELF || viewType == VIEW_TYPE_FLAT_OTHER) {
+            MessageBubbleView view = new MessageBubbleView(parent.getContext());
+            view.setLayoutParams(new RecyclerView.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+            view.setAppearance(appearance(parent, viewType == VIEW_TYPE_FLAT_SELF));
+            RowLayoutStats.getInstance().recordViewCount(RowLayoutStats.Kind.FLAT, 1);
+            return new FlatViewHolder(view);
+        }
         int layoutId = (viewType == 0) ? R.layout.item_message_self : R.layout.item_message_other;
         View view = LayoutInflater.from(parent.getContext()).inflate(layoutId, parent, false);
+        RowLayoutStats.getInstance().recordViewCount(RowLayoutStats.Kind.XML, countViews(view));
         return new MessageViewHolder(view);
     }
 
+    private MessageBubbleView.Appearance appearance(ViewGroup parent, boolean isMine) {
+        if (isMine) {
+            if (selfAppearance == null) {
+                selfAppearance = MessageBubbleView.Appearance.create(parent.getContext(), true, ChatConfig.getStyle());
+            }
+            return selfAppearance;
+        }
+        if (otherAppearance == null) {
+            otherAppearance = MessageBubbleView.Appearance.create(parent.getContext(), false, ChatConfig.getStyle());
+        }
+        return otherAppearance;
+    }
+
+    private static int countViews(View view) {
+        if (!(view instanceof ViewGroup)) return 1;
+        ViewGroup group = (ViewGroup) view;
+        int count = 1;
+        for (int i = 0; i < group.getChildCount(); i++) {
+            count += countViews(group.getChildAt(i));
+        }
+        return count;
+    }
+
     @Override
-    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        Message message = messages.get(position);
-        holder.bind(message);
+    public void onBindViewHolder(@NonNull RowHolder holder, int position) {
+        TraceCompat.beginSection("MessageAdapter.bind");
+        try {
+            holder.bind(messages.get(position));
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position, @NonNull List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_PLAYBACK) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+        }
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+        } else {
+            holder.bindPlayback(messages.get(position));
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull RowHolder holder) {
+        // A video cannot keep playing once its surface belongs to another row.
+        if (playback != null && holder.boundMessage != null
+                && holder.boundMessage.getContentType() == Icontent.contentType.VIDEO
+                && playback.isActive(holder.boundMessage.getId())) {
+            playback.stop();
+        }
+        holder.boundMessage = null;
     }
 
     @Override
@@ -62,12 +195,106 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         return messages.size();
     }
 
-    class MessageViewHolder extends RecyclerView.ViewHolder {
+    // Time, edit time and read count shown under the text of both row kinds.
+    private String timeTextFor(Message message, boolean isMine) {
+        // The string forms are only needed for timestamps that did not parse.
+        long createdAt = message.getCreatedAtMillis();
+        String timeText = formatTimestamp(createdAt, createdAt < 0 ? message.getCreatedAt() : null);
+
+        if (message.isEdited()) {
+            long editedAt = message.getContentCreatedAtMillis();
+            timeText += "\n (edited at " + formatTimestamp(editedAt, editedAt < 0 ? message.getContentCreatedAt() : null) + ")";
+        }
+
+        if (isMine && readReceipts != null) {
+            int seenBy = readReceipts.seenByCount(message);
+            if (seenBy > 0) {
+                timeText += "\n Seen by " + seenBy;
+            }
+        }
+        return timeText;
+    }
+
+    private static final java.time.format.DateTimeFormatter TIME_FORMAT =
+            java.time.format.DateTimeFormatter.ofPattern("HH:mm, dd/MM/yyyy");
+
+    private static String formatTimestamp(long millis, String timestamp) {
+        try {
+            java.time.OffsetDateTime odt = millis >= 0
+                    ? java.time.Instant.ofEpochMilli(millis).atOffset(java.time.ZoneOffset.UTC)
+                    : java.time.OffsetDateTime.parse(timestamp);
+            return odt.format(TIME_FORMAT);
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    abstract class RowHolder extends RecyclerView.ViewHolder {
+        Message boundMessage;
+
+        // One detector per row for its lifetime; it reports on whatever message is bound.
+        RowHolder(@NonNull View itemView) {
+            super(itemView);
+            GestureDetector gestureDetector = new GestureDetector(itemView.getContext(), new GestureDetector.SimpleOnGestureListener() {
+                @Override
+                public void onLongPress(MotionEvent e) {
+                    if (boundMessage != null) listener.onMessageLongClicked(boundMessage);
+                }
+
+                @Override
+                public boolean onDoubleTap(MotionEvent e) {
+                    if (boundMessage != null) listener.onMessageDoubleClicked(boundMessage);
+                    return true;
+                }
+            });
+            itemView.setOnTouchListener((v, event) -> {
+                gestureDetector.onTouchEvent(event);
+                return true;
+            });
+        }
+
+        abstract void bind(Message message);
+
+        void bindPlayback(Message message) {}
+    }
+
+    class FlatViewHolder extends RowHolder {
+        private final MessageBubbleView bubbleView;
+
+        FlatViewHolder(@NonNull MessageBubbleView itemView) {
+            super(itemView);
+            bubbleView = itemView;
+        }
+
+        @Override
+        void bind(Message message) {
+            boundMessage = message;
+            boolean isMine = message.getSenderId().equals(currentUserId);
+            PrecomputedTextCompat precomputed = textCache != null ? textCache.get(message) : null;
+            CharSequence text = precomputed != null ? precomputed : message.getText();
+            String layoutKey = message.getId() != null && message.getText() != null
+                    ? message.getId() + ':' + message.getContentCreatedAtMillis() + ':' + message.getText().hashCode()
+                    : null;
+            bubbleView.setContent(layoutKey, text, timeTextFor(message, isMine));
+        }
+    }
+
+    class MessageViewHolder extends RowHolder {
         private final TextView textView;
         private final TextView timestampTextView;
-        private GestureDetector gestureDetector;
         private final ImageView userImage;
         private LinearLayout bubbleLayout;
+        private final View mediaPlayer;
+        private final TextureView mediaVideo;
+        private final ImageView mediaPlayButton;
+        private final ProgressBar mediaProgress;
+        private final View linkPreview;
+        private final ImageView linkPreviewImage;
+        private final TextView linkPreviewTitle;
+        private final TextView linkPreviewDescription;
+        // One Surface per texture, released with it; playback keeps a reference while active.
+        private SurfaceTexture surfaceTexture;
+        private Surface surface;
 
         public MessageViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -75,11 +302,56 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
             timestampTextView = itemView.findViewById(R.id.messageTimestamp);
             userImage = itemView.findViewById(R.id.userImage);
             bubbleLayout = itemView.findViewById(R.id.bubbleLayout);
+            mediaPlayer = itemView.findViewById(R.id.mediaPlayer);
+            mediaVideo = itemView.findViewById(R.id.mediaVideo);
+            mediaPlayButton = itemView.findViewById(R.id.mediaPlayButton);
+            mediaProgress = itemView.findViewById(R.id.mediaProgress);
+            linkPreview = itemView.findViewById(R.id.linkPreview);
+            linkPreviewImage = itemView.findViewById(R.id.linkPreviewImage);
+            linkPreviewTitle = itemView.findViewById(R.id.linkPreviewTitle);
+            linkPreviewDescription = itemView.findViewById(R.id.linkPreviewDescription);
+            linkPreview.setOnClickListener(v -> openPreview());
+            mediaPlayButton.setOnClickListener(v -> {
+                if (playback != null && boundMessage != null) {
+                    playback.toggle(boundMessage, videoSurface());
+                }
+            });
+            mediaVideo.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+                @Override
+                public void onSurfaceTextureAvailable(@NonNull SurfaceTexture texture, int width, int height) {
+                    if (playback != null && boundMessage != null && playback.isActive(boundMessage.getId())) {
+                        playback.setSurface(boundMessage.getId(), surfaceFor(texture));
+                    }
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(@NonNull SurfaceTexture texture, int width, int height) {}
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(@NonNull SurfaceTexture texture) {
+                    if (playback != null && boundMessage != null && playback.isActive(boundMessage.getId())) {
+                        playback.setSurface(boundMessage.getId(), null);
+                    }
+                    releaseSurface();
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(@NonNull SurfaceTexture texture) {}
+            });
 
         }
 
+        @Override
         public void bind(Message message) {
-            textView.setText(message.getContent().getContent());
+            boundMessage = message;
+            bindText(message);
+            // Playback ticks rebind only the controls below; only a full bind counts as a media bind.
+            if (frameTracker != null && playback != null && MediaPlaybackController.isPlayable(message)) {
+                frameTracker.mark(FrameReport.State.MEDIA_BIND);
+            }
+            bindPlayback(message);
+            bindPreview(message);
 
             ChatStyle style = ChatConfig.getStyle();
             boolean isMine = message.getSenderId().equals(currentUserId);
@@ -90,40 +362,104 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
 
             }
 
-            String timeText = formatTimestamp(message.getCreatedAt());
-
-            if (message.isEdited()) {
-                timeText += "\n (edited at " + formatTimestamp(message.getContent().getCreatedAt()) + ")";
-            }
+            timestampTextView.setText(timeTextFor(message, isMine));
+        }
 
-            timestampTextView.setText(timeText);
+        @Override
+        void bindPlayback(Message message) {
+            boolean playable = playback != null && MediaPlaybackController.isPlayable(message);
+            // The text of a media message is its URL.
+            textView.setVisibility(playable ? View.GONE : View.VISIBLE);
+            mediaPlayer.setVisibility(playable ? View.VISIBLE : View.GONE);
+            if (!playable) return;
 
-            gestureDetector = new GestureDetector(itemView.getContext(), new GestureDetector.SimpleOnGestureListener() {
-                @Override
-                public void onLongPress(MotionEvent e) {
-                    listener.onMessageLongClicked(message);
-                }
+            mediaVideo.setVisibility(message.getContentType() == Icontent.contentType.VIDEO ? View.VISIBLE : View.GONE);
+            mediaPlayButton.setImageResource(playback.isPlaying(message.getId()) ? R.drawable.ic_pause : R.drawable.ic_play);
+            ImageViewCompat.setImageTintList(mediaPlayButton, textView.getTextColors());
+            mediaProgress.setIndeterminate(playback.isBuffering(message.getId()));
+            mediaProgress.setProgress((int) (playback.getProgress(message.getId()) * mediaProgress.getMax()));
+        }
 
-                @Override
-                public boolean onDoubleTap(MotionEvent e) {
-                    listener.onMessageDoubleClicked(message);
-                    return true;
+        // Reads memory only; a preview that is not resolved yet rebinds the bubble when it arrives.
+        private void bindPreview(Message message) {
+            String url = linkPreviews != null ? linkPreviews.urlFor(message) : null;
+            LinkPreview preview = url != null ? linkPreviews.getCached(url) : null;
+            if (preview == null) {
+                linkPreview.setVisibility(View.GONE);
+                if (url != null && !linkPreviews.isKnownEmpty(url)) {
+                    linkPreviews.resolve(url, (resolvedUrl, resolved) -> {
+                        if (resolved != null && boundMessage == message) {
+                            bindPreview(message);
+                        }
+                    });
                 }
-            });
+                return;
+            }
+            linkPreview.setVisibility(View.VISIBLE);
+            setOptionalText(linkPreviewTitle, preview.getTitle() != null ? preview.getTitle() : preview.getSiteName());
+            setOptionalText(linkPreviewDescription, preview.getDescription());
+            linkPreviewTitle.setTextColor(textView.getTextColors());
+            linkPreviewDescription.setTextColor(textView.getTextColors());
+            if (preview.getImageUrl() != null) {
+                linkPreviewImage.setVisibility(View.VISIBLE);
+                if (frameTracker != null) frameTracker.mark(FrameReport.State.MEDIA_BIND);
+                Glide.with(linkPreviewImage).load(preview.getImageUrl()).centerCrop().into(linkPreviewImage);
+            } else {
+                Glide.with(linkPreviewImage).clear(linkPreviewImage);
+                linkPreviewImage.setVisibility(View.GONE);
+            }
+        }
 
-            itemView.setOnTouchListener((v, event) -> {
-                gestureDetector.onTouchEvent(event);
-                return true;
-            });
+        private void setOptionalText(TextView view, String text) {
+            view.setText(text);
+            view.setVisibility(text != null ? View.VISIBLE : View.GONE);
         }
-        private String formatTimestamp(String timestamp) {
+
+        private void openPreview() {
+            String url = boundMessage != null && linkPreviews != null ? linkPreviews.urlFor(boundMessage) : null;
+            if (url == null) return;
             try {
-                java.time.OffsetDateTime odt = java.time.OffsetDateTime.parse(timestamp);
-                java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("HH:mm, dd/MM/yyyy");
-                return odt.format(formatter);
-            } catch (Exception e) {
-                return "";
+                itemView.getContext().startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+            } catch (ActivityNotFoundException e) {
+                // No browser installed, nothing to open the link with.
+            }
+        }
+
+        private Surface videoSurface() {
+            if (boundMessage.getContentType() != Icontent.contentType.VIDEO || !mediaVideo.isAvailable()) {
+                return null;
+            }
+            return surfaceFor(mediaVideo.getSurfaceTexture());
+        }
+
+        private Surface surfaceFor(SurfaceTexture texture) {
+            if (surfaceTexture != texture) {
+                releaseSurface();
+                surfaceTexture = texture;
+                surface = new Surface(texture);
+            }
+            return surface;
+        }
+
+        private void releaseSurface() {
+            if (surface != null) {
+                surface.release();
+                surface = null;
+            }
+            surfaceTexture = null;
+        }
+
+        private void bindText(Message message) {
+            PrecomputedTextCompat precomputed = textCache != null ? textCache.get(message) : null;
+            if (precomputed != null) {
+                try {
+                    TextViewCompat.setPrecomputedText(textView, precomputed);
+                    return;
+                } catch (IllegalArgumentException e) {
+                    // Text metrics changed since the page was laid out, fall back to a normal layout pass.
+                }
             }
+            textView.setText(message.getText());
         }
     }
 }
@@ -0,0 +1,332 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.os.SystemClock;
+import android.text.Layout;
+import android.text.PrecomputedText;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.TextView;
+
+import androidx.annotation.Nullable;
+import androidx.core.os.TraceCompat;
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.avitaliskhakov.librarychat.R;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.config.ChatStyle;
+import com.avitaliskhakov.librarychat.config.MemoryBudget;
+
+// One view for a plain text row: avatar, bubble, message text and timestamp are drawn directly,
+// so a row costs one measure and one layout instead of a pass per nested view. Dimensions and
+// colors match item_message_self/other. Text layouts are cached in the Appearance, which is shared
+// by every row of one side, so a row that scrolls back in is not laid out again.
+public class MessageBubbleView extends View {
+
+    private final RectF bubble = new RectF();
+
+    private Appearance appearance;
+    private String layoutKey;
+    private CharSequence text = "";
+    private String timestamp = "";
+
+    private Sized textLayout;
+    private Sized timeLayout;
+    private float avatarLeft;
+    private float contentLeft;
+    private long measureNanos;
+
+    public MessageBubbleView(Context context) {
+        super(context);
+    }
+
+    public MessageBubbleView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public void setAppearance(Appearance appearance) {
+        if (this.appearance == appearance) return;
+        this.appearance = appearance;
+        requestLayout();
+        invalidate();
+    }
+
+    // layoutKey identifies the text version, e.g. message id and edit time; text may be precomputed.
+    public void setContent(String layoutKey, CharSequence text, String timestamp) {
+        CharSequence newText = text != null ? text : "";
+        String newTimestamp = timestamp != null ? timestamp : "";
+        if (layoutKey != null && layoutKey.equals(this.layoutKey) && newTimestamp.equals(this.timestamp)) {
+            return;
+        }
+        this.layoutKey = layoutKey;
+        this.text = newText;
+        this.timestamp = newTimestamp;
+        // There are no child views to read, so the row speaks as one: text, then time.
+        setContentDescription(newTimestamp.isEmpty() ? newText : newText + ", " + newTimestamp);
+        requestLayout();
+        invalidate();
+    }
+
+    public int getTextColor() {
+        return appearance != null ? appearance.textPaint.getColor() : Color.BLACK;
+    }
+
+    // Announced as text, like the TextViews of the XML rows.
+    @Override
+    public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info) {
+        super.onInitializeAccessibilityNodeInfo(info);
+        info.setClassName(TextView.class.getName());
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        TraceCompat.beginSection("MessageBubbleView.measure");
+        try {
+            int width = MeasureSpec.getSize(widthMeasureSpec);
+            if (appearance == null || width == 0) {
+                setMeasuredDimension(width, 0);
+                return;
+            }
+            Appearance a = appearance;
+            int maxContent = Math.max(0, width - a.rowPadding * 2 - a.avatarSize - a.avatarGap - a.avatarOuter
+                    - a.bubblePadding * 2);
+            textLayout = a.layout(a.textPaint, layoutKey != null ? "t:" + layoutKey : null, text, maxContent);
+            timeLayout = a.layout(a.timePaint, "s:" + timestamp, timestamp, maxContent);
+
+            int contentWidth = Math.max(textLayout.width, timeLayout.width);
+            int bubbleWidth = contentWidth + a.bubblePadding * 2;
+            int bubbleHeight = a.bubblePadding * 2 + textLayout.layout.getHeight() + a.timeGap
+                    + timeLayout.layout.getHeight();
+            int height = a.rowPadding * 2 + Math.max(a.avatarSize, bubbleHeight);
+
+            float top = a.rowPadding;
+            if (a.mine) {
+                avatarLeft = a.rowPadding;
+                bubble.set(avatarLeft + a.avatarSize + a.avatarGap, top, 0, top + bubbleHeight);
+                bubble.right = bubble.left + bubbleWidth;
+            } else {
+                avatarLeft = width - a.rowPadding - a.avatarOuter - a.avatarSize;
+                bubble.set(avatarLeft - a.avatarGap - bubbleWidth, top, avatarLeft - a.avatarGap, top + bubbleHeight);
+            }
+            contentLeft = bubble.left + a.bubblePadding;
+            setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+        } finally {
+            TraceCompat.endSection();
+            measureNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        // Nothing to place; the pass is recorded so rows can be compared with the XML ones. A
+        // layout without a measure since the last one has nothing to report.
+        if (measureNanos == 0) return;
+        RowLayoutStats.getInstance().record(RowLayoutStats.Kind.FLAT, measureNanos / 1000);
+        measureNanos = 0;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (appearance == null || textLayout == null) return;
+        TraceCompat.beginSection("MessageBubbleView.draw");
+        try {
+            Appearance a = appearance;
+            float avatarRadius = a.avatarSize / 2f;
+            canvas.save();
+            canvas.translate(avatarLeft, a.rowPadding);
+            canvas.drawCircle(avatarRadius, avatarRadius, avatarRadius, a.avatarPaint);
+            canvas.drawCircle(avatarRadius, avatarRadius, avatarRadius - a.avatarRing.getStrokeWidth() / 2,
+                    a.avatarRing);
+            canvas.restore();
+
+            canvas.drawRoundRect(bubble, a.cornerRadius, a.cornerRadius, a.bubblePaint);
+
+            canvas.save();
+            canvas.translate(contentLeft, bubble.top + a.bubblePadding);
+            textLayout.layout.draw(canvas);
+            canvas.translate(0, textLayout.layout.getHeight() + a.timeGap);
+            timeLayout.layout.draw(canvas);
+            canvas.restore();
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    // Paints, dimensions and the layout cache for one side of the conversation. Create once per
+    // adapter and side; the layout cache is sized by the MemoryBudget.
+    public static final class Appearance implements MemoryBudget.Cache {
+
+        // Until the memory budget sizes it.
+        private static final int INITIAL_BYTES = 200 * 1024;
+
+        final boolean mine;
+        final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        final TextPaint timePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        final Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        final Paint avatarPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        final Paint avatarRing = new Paint(Paint.ANTI_ALIAS_FLAG);
+        final int rowPadding;
+        final int avatarSize;
+        // Between avatar and bubble, and on the far side of the avatar.
+        final int avatarGap;
+        final int avatarOuter;
+        final int bubblePadding;
+        final int timeGap;
+        final float cornerRadius;
+        // textPaint with the measurement settings of the precomputed text, see layout().
+        private TextPaint measuredPaint;
+        private TextPaint measuredSource;
+
+        // Keyed by text key and width; the width changes on rotation only.
+        private final LruCache<String, Sized> layouts = new LruCache<String, Sized>(INITIAL_BYTES) {
+            @Override
+            protected int sizeOf(String key, Sized value) {
+                return value.bytes;
+            }
+        };
+
+        private Appearance(Context context, boolean mine, @Nullable ChatStyle style) {
+            Resources res = context.getResources();
+            this.mine = mine;
+            rowPadding = dp(res, 8);
+            avatarSize = dp(res, 40);
+            avatarGap = dp(res, mine ? 8 : 15);
+            avatarOuter = mine ? 0 : dp(res, 8);
+            bubblePadding = dp(res, 12);
+            timeGap = dp(res, 4);
+            cornerRadius = dp(res, 16);
+
+            textPaint.setTextSize(sp(res, 16));
+            textPaint.setColor(mine ? Color.WHITE : Color.BLACK);
+            timePaint.setTextSize(sp(res, 12));
+            timePaint.setColor(mine ? 0xFFDDDDDD : 0xFF5D5D5D);
+            bubblePaint.setColor(mine ? 0xFF5994C5 : 0xFFF6F6F6);
+            if (style != null) {
+                textPaint.setColor(mine ? style.textSelfColor : style.textOtherColor);
+                bubblePaint.setColor(mine ? style.bubbleSelfColor : style.bubbleOtherColor);
+            }
+
+            avatarRing.setStyle(Paint.Style.STROKE);
+            avatarRing.setStrokeWidth(dp(res, 3));
+            avatarRing.setColor(0xFF5B5B5B);
+            Bitmap source = BitmapFactory.decodeResource(res, R.drawable.default_user);
+            if (source != null) {
+                Bitmap scaled = Bitmap.createScaledBitmap(source, avatarSize, avatarSize, true);
+                avatarPaint.setShader(new BitmapShader(scaled, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+            } else {
+                avatarPaint.setColor(Color.LTGRAY);
+            }
+        }
+
+        public static Appearance create(Context context, boolean mine, @Nullable ChatStyle style) {
+            Appearance appearance = new Appearance(context, mine, style);
+            ChatConfig.getMemoryBudget().register("bubble-layouts", MemoryBudget.Priority.NORMAL, 0.1f, appearance);
+            return appearance;
+        }
+
+        public void clear() {
+            layouts.evictAll();
+        }
+
+        // Empties the cache and hands its share of the budget back to the other Appearances.
+        public void release() {
+            clear();
+            ChatConfig.getMemoryBudget().unregister(this);
+        }
+
+        @Override
+        public long sizeBytes() {
+            return layouts.size();
+        }
+
+        @Override
+        public void trimToBytes(long maxBytes) {
+            layouts.trimToSize((int) Math.min(maxBytes, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public void onBudgetChanged(long budgetBytes) {
+            layouts.resize((int) Math.max(1, Math.min(budgetBytes, Integer.MAX_VALUE)));
+        }
+
+        // A null key lays the text out without caching it.
+        Sized layout(TextPaint paint, @Nullable String key, CharSequence text, int maxWidth) {
+            String cacheKey = key != null ? key + '@' + maxWidth : null;
+            Sized cached = cacheKey != null ? layouts.get(cacheKey) : null;
+            if (cached != null) return cached;
+            // StaticLayout only skips measuring for a platform PrecomputedText built with the same
+            // paint and line breaking as the builder. PrecomputedTextCompat wraps one from API 29;
+            // on 28 the text is measured here.
+            PrecomputedText measured = text instanceof PrecomputedTextCompat
+                    ? ((PrecomputedTextCompat) text).getPrecomputedText() : null;
+            StaticLayout.Builder builder;
+            if (measured != null) {
+                PrecomputedText.Params params = measured.getParams();
+                builder = StaticLayout.Builder.obtain(measured, 0, measured.length(),
+                                measuredPaint(params.getTextPaint(), paint), maxWidth)
+                        .setBreakStrategy(params.getBreakStrategy())
+                        .setHyphenationFrequency(params.getHyphenationFrequency())
+                        .setTextDirection(params.getTextDirection());
+            } else {
+                builder = StaticLayout.Builder.obtain(text, 0, text.length(), paint, maxWidth);
+            }
+            Sized sized = new Sized(builder
+                    .setAlignment(Layout.Alignment.ALIGN_NORMAL)
+                    .setIncludePad(true)
+                    .build());
+            if (cacheKey != null) layouts.put(cacheKey, sized);
+            return sized;
+        }
+
+        // The color is not part of the measurement, so ours is kept.
+        private TextPaint measuredPaint(TextPaint source, TextPaint paint) {
+            if (measuredSource != source) {
+                measuredPaint = new TextPaint(source);
+                measuredSource = source;
+            }
+            measuredPaint.setColor(paint.getColor());
+            return measuredPaint;
+        }
+
+        private static int dp(Resources res, float value) {
+            return Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, res.getDisplayMetrics()));
+        }
+
+        private static float sp(Resources res, float value) {
+            return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, value, res.getDisplayMetrics());
+        }
+    }
+
+    // A layout and the width of its widest line, so the bubble wraps its content like wrap_content.
+    static final class Sized {
+        final StaticLayout layout;
+        final int width;
+        // Rough heap of the layout: its text plus per-line bookkeeping.
+        final int bytes;
+
+        Sized(StaticLayout layout) {
+            this.layout = layout;
+            float widest = 0;
+            for (int i = 0; i < layout.getLineCount(); i++) {
+                widest = Math.max(widest, layout.getLineWidth(i));
+            }
+            this.width = (int) Math.ceil(widest);
+            this.bytes = 256 + layout.getText().length() * 2 + layout.getLineCount() * 64;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.store.LinkPreviewCache;
+import com.avitaliskhakov.librarychat.store.MessagePageStore;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Turns an incoming page into a batch the activity can apply without further work: sorted,
+// deduplicated against the window, text laid out, previews warmed, the anchor located and, when
+// the page replaces the window, the adapter diff computed. Everything here runs off the main thread.
+class MessageMergePipeline {
+
+    enum Mode {
+        // Page above the window.
+        OLDER,
+        // Page below the window.
+        NEWER,
+        // Network copy of a head page that is already shown from the store.
+        REPLACE
+    }
+
+    private final MessageTextCache textCache;
+    private final LinkPreviewCache previews;
+    private final MessagePageStore pageStore;
+
+    MessageMergePipeline(MessageTextCache textCache, LinkPreviewCache previews, MessagePageStore pageStore) {
+        this.textCache = textCache;
+        this.previews = previews;
+        this.pageStore = pageStore;
+    }
+
+    // onReady runs on a background thread; hop to the main thread to apply the batch.
+    void merge(Request request, Consumer<Batch> onReady) {
+        ChatExecutors.background().execute(() -> onReady.accept(build(request)));
+    }
+
+    private Batch build(Request request) {
+        List<Message> sorted = sort(request.page);
+        if (request.storeChatRoomId != null && !sorted.isEmpty()) {
+            pageStore.write(request.storeChatRoomId, request.cursor,
+                    new MessagePage(sorted, request.page.getNextCursor(), request.page.hasMore()));
+        }
+
+        List<Message> items;
+        DiffUtil.DiffResult diff = null;
+        boolean unchanged = false;
+        if (request.mode == Mode.REPLACE) {
+            items = sorted;
+            diff = diff(request.current, items);
+            unchanged = diff == null;
+        } else {
+            items = dedupe(sorted, request.window);
+        }
+
+        previews.warmSync(items);
+        textCache.precomputeSync(items);
+
+        int anchorIndex = -1;
+        if (request.anchorMessageId != null) {
+            for (int i = 0; i < items.size(); i++) {
+                if (request.anchorMessageId.equals(items.get(i).getId())) {
+                    anchorIndex = i;
+                    break;
+                }
+            }
+        }
+        return new Batch(request, items, diff, unchanged, anchorIndex);
+    }
+
+    // Oldest first, as the window and the store keep them.
+    static List<Message> sort(MessagePage page) {
+        List<Message> sorted = new ArrayList<>(page.getMessages());
+        sorted.sort(Message.BY_CREATED_AT);
+        return sorted;
+    }
+
+    // Drops repeats within the page and rows the window already shows. The window checks again
+    // when the batch is applied, in case it changed meanwhile.
+    static List<Message> dedupe(List<Message> sorted, MessageWindow window) {
+        List<Message> items = new ArrayList<>(sorted.size());
+        Set<String> seen = new HashSet<>();
+        for (Message message : sorted) {
+            if (seen.add(message.getId()) && !window.isLoaded(message.getId())) {
+                items.add(message);
+            }
+        }
+        return items;
+    }
+
+    // Null when both lists hold the same ids in the same order.
+    @Nullable
+    static DiffUtil.DiffResult diff(List<Message> current, List<Message> next) {
+        if (sameIds(current, next)) {
+            return null;
+        }
+        return DiffUtil.calculateDiff(new IdDiff(current, next), false);
+    }
+
+    private static boolean sameIds(List<Message> a, List<Message> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).getId().equals(b.get(i).getId())) return false;
+        }
+        return true;
+    }
+
+    static final class Request {
+        final MessagePage page;
+        final Mode mode;
+        final MessageWindow window;
+        final int windowVersion;
+        // Copy of the adapter list, only taken for REPLACE.
+        final List<Message> current;
+        final String anchorMessageId;
+        // Network pages are written to the store under cursor; pages read from it are not.
+        final String storeChatRoomId;
+        final String cursor;
+
+        Request(MessagePage page, Mode mode, MessageWindow window, List<Message> messages,
+                @Nullable String anchorMessageId, @Nullable String storeChatRoomId, @Nullable String cursor) {
+            this.page = page;
+            this.mode = mode;
+            this.window = window;
+            this.windowVersion = window.getVersion();
+            this.current = mode == Mode.REPLACE ? new ArrayList<>(messages) : new ArrayList<>();
+            this.anchorMessageId = anchorMessageId;
+            this.storeChatRoomId = storeChatRoomId;
+            this.cursor = cursor;
+        }
+    }
+
+    static final class Batch {
+        final Mode mode;
+        final List<Message> messages;
+        final String nextCursor;
+        final boolean hasMore;
+        // Null unless the page replaces the window and differs from it.
+        final DiffUtil.DiffResult diff;
+        final boolean unchanged;
+        final int windowVersion;
+        // Position of the anchor message within messages, or -1.
+        final int anchorIndex;
+
+        Batch(Request request, List<Message> messages, @Nullable DiffUtil.DiffResult diff, boolean unchanged,
+              int anchorIndex) {
+            this.mode = request.mode;
+            this.messages = messages;
+            this.nextCursor = request.page.getNextCursor();
+            this.hasMore = request.page.hasMore();
+            this.diff = diff;
+            this.unchanged = unchanged;
+            this.windowVersion = request.windowVersion;
+            this.anchorIndex = anchorIndex;
+        }
+    }
+
+    private static class IdDiff extends DiffUtil.Callback {
+        private final List<Message> oldList;
+        private final List<Message> newList;
+
+        IdDiff(List<Message> oldList, List<Message> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldList.get(oldItemPosition).getId().equals(newList.get(newItemPosition).getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Message oldMessage = oldList.get(oldItemPosition);
+            Message newMessage = newList.get(newItemPosition);
+            return oldMessage.getContentCreatedAtMillis() == newMessage.getContentCreatedAtMillis()
+                    && oldMessage.isEdited() == newMessage.isEdited();
+        }
+    }
+}
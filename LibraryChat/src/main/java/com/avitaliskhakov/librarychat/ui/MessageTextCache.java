@@ -0,0 +1,99 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.config.MemoryBudget;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.Collections;
+import java.util.List;
+
+public class MessageTextCache implements MemoryBudget.Cache {
+
+    // Until the budget sizes it; about 300 average messages.
+    private static final int INITIAL_BYTES = 300 * 1024;
+
+    private final PrecomputedTextCompat.Params params;
+    // Keyed by message id and content version, so an edited message is laid out again.
+    private final LruCache<String, PrecomputedTextCompat> cache = new LruCache<String, PrecomputedTextCompat>(INITIAL_BYTES) {
+        @Override
+        protected int sizeOf(String key, PrecomputedTextCompat value) {
+            return bytesOf(value);
+        }
+    };
+
+    public MessageTextCache(PrecomputedTextCompat.Params params) {
+        this.params = params;
+        ChatConfig.getMemoryBudget().register("precomputed-text", MemoryBudget.Priority.NORMAL, 0.3f, this);
+    }
+
+    public void precompute(Message message, Runnable onReady) {
+        precompute(Collections.singletonList(message), onReady);
+    }
+
+    public void precompute(List<Message> page, Runnable onReady) {
+        ChatExecutors.background().execute(() -> {
+            precomputeSync(page);
+            ChatExecutors.runOnMain(onReady);
+        });
+    }
+
+    // Call off the main thread.
+    public void precomputeSync(List<Message> page) {
+        for (Message message : page) {
+            String key = keyFor(message);
+            if (key != null && cache.get(key) == null) {
+                cache.put(key, PrecomputedTextCompat.create(message.getText(), params));
+            }
+        }
+    }
+
+    @Nullable
+    public PrecomputedTextCompat get(Message message) {
+        String key = keyFor(message);
+        return key != null ? cache.get(key) : null;
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    // Empties the cache and hands its share of the budget back to the other open rooms.
+    public void release() {
+        clear();
+        ChatConfig.getMemoryBudget().unregister(this);
+    }
+
+    @Override
+    public long sizeBytes() {
+        return cache.size();
+    }
+
+    @Override
+    public void trimToBytes(long maxBytes) {
+        cache.trimToSize((int) Math.min(maxBytes, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void onBudgetChanged(long budgetBytes) {
+        cache.resize((int) Math.max(1, Math.min(budgetBytes, Integer.MAX_VALUE)));
+    }
+
+    // Rough: the chars, a measured width per char and the span and object overhead.
+    private static int bytesOf(PrecomputedTextCompat text) {
+        return text.length() * 6 + 128;
+    }
+
+    @Nullable
+    private static String keyFor(Message message) {
+        if (message.getId() == null || message.getText() == null) {
+            return null;
+        }
+        return message.getId() + ':' + message.getContentCreatedAtMillis() + ':' + message.getText().hashCode();
+    }
+}
@@ -0,0 +1,284 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+// Keeps at most maxPages consecutive history pages in the adapter list. Page 0 is the newest page
+// of the room; pages outside the window only keep their cursor so they can be reloaded.
+public class MessageWindow {
+
+    // Cursor for a page the server has not handed out a cursor for yet, e.g. above a page loaded
+    // around a message: "before:<messageId>" is resolved by the caller to a beforeMessageId query.
+    public static final String BEFORE_CURSOR_PREFIX = "before:";
+
+    private final int maxPages;
+    private final List<Message> messages;
+    // Written on the main thread only; MessageMergePipeline reads it from the background.
+    private final Set<String> loadedMessageIds = ConcurrentHashMap.newKeySet();
+    // Oldest page first, matching the order of messages.
+    private final Deque<Page> pages = new ArrayDeque<>();
+    private final List<String> cursors = new ArrayList<>();
+    private final PageChangeListener pageChangeListener;
+    private final IntSupplier pageSizeSource;
+    // Size of every page requested for this window. Cursors mark positions, so a dropped page
+    // fetched again at another size would overlap or leave a gap before the next remembered cursor;
+    // the size is chosen on the first request and kept until the window is cleared.
+    private int pageSize;
+    // Index of the page holding the first message of the room, once the server said so.
+    private int lastPageIndex = -1;
+    // Set when the window was opened around a message instead of at the head of the room.
+    private boolean detached = false;
+    private int lastDroppedCount;
+    // Bumped on every change to messages, so a batch prepared against an older state can tell.
+    private int version;
+
+    public MessageWindow(List<Message> messages, int maxPages, IntSupplier pageSizeSource,
+                         PageChangeListener pageChangeListener) {
+        this.messages = messages;
+        this.maxPages = maxPages;
+        this.pageSizeSource = pageSizeSource;
+        this.pageChangeListener = pageChangeListener;
+    }
+
+    public int getPageSize() {
+        if (pageSize <= 0) {
+            pageSize = pageSizeSource.getAsInt();
+        }
+        return pageSize;
+    }
+
+    public int getLastDroppedCount() {
+        return lastDroppedCount;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isLoaded(String messageId) {
+        return messageId != null && loadedMessageIds.contains(messageId);
+    }
+
+    public boolean isEmpty() {
+        return pages.isEmpty();
+    }
+
+    // True only while the first page of the room is actually in the window, so scrolling back up
+    // after it was dropped reloads it instead of stopping early.
+    public boolean hasReachedStart() {
+        return lastPageIndex >= 0 && !pages.isEmpty() && pages.peekFirst().index >= lastPageIndex;
+    }
+
+    public void markReachedStart() {
+        if (!pages.isEmpty()) {
+            lastPageIndex = pages.peekFirst().index;
+        }
+    }
+
+    public boolean isShowingLatest() {
+        return !detached && (pages.isEmpty() || pages.peekLast().index == 0);
+    }
+
+    public void detachFromLatest() {
+        detached = true;
+    }
+
+    public int positionOf(String messageId) {
+        return indexOf(messageId);
+    }
+
+    public int olderPageIndex() {
+        return pages.isEmpty() ? 0 : pages.peekFirst().index + 1;
+    }
+
+    public int newerPageIndex() {
+        return pages.isEmpty() ? -1 : pages.peekLast().index - 1;
+    }
+
+    public boolean isKnownPage(int index) {
+        return index < cursors.size();
+    }
+
+    @Nullable
+    public String cursorFor(int index) {
+        if (index < cursors.size()) {
+            return cursors.get(index);
+        }
+        Page oldest = pages.peekFirst();
+        return oldest != null && !oldest.items.isEmpty() ? BEFORE_CURSOR_PREFIX + oldest.items.get(0).getId() : null;
+    }
+
+    // Records the server's cursor for the page after index and whether there is one at all.
+    public void rememberNext(int index, @Nullable String nextCursor, boolean hasMore) {
+        if (!hasMore) {
+            lastPageIndex = index;
+        } else if (nextCursor != null) {
+            rememberCursor(index + 1, nextCursor);
+        }
+    }
+
+    // Adds the page above the window and drops pages from the bottom to stay within budget.
+    // Returns the number of inserted messages; see getLastDroppedCount() for the removed ones.
+    public int prependOlder(int index, @Nullable String cursor, List<Message> sortedPage) {
+        lastDroppedCount = 0;
+        List<Message> items = dedupe(sortedPage);
+        if (items.isEmpty()) {
+            return 0;
+        }
+        version++;
+        rememberCursor(index, cursor);
+        pages.addFirst(new Page(index, cursor, items));
+        messages.addAll(0, items);
+
+        while (pages.size() > maxPages) {
+            Page newest = pages.removeLast();
+            lastDroppedCount += newest.items.size();
+            forget(newest);
+            messages.subList(messages.size() - newest.items.size(), messages.size()).clear();
+        }
+        return items.size();
+    }
+
+    // Adds the page below the window and drops pages from the top to stay within budget.
+    public int appendNewer(int index, @Nullable String cursor, List<Message> sortedPage) {
+        lastDroppedCount = 0;
+        List<Message> items = dedupe(sortedPage);
+        version++;
+        rememberCursor(index, cursor);
+        pages.addLast(new Page(index, cursor, items));
+        messages.addAll(items);
+
+        while (pages.size() > maxPages) {
+            Page oldest = pages.removeFirst();
+            lastDroppedCount += oldest.items.size();
+            forget(oldest);
+            messages.subList(0, oldest.items.size()).clear();
+        }
+        return items.size();
+    }
+
+    public boolean appendLatest(Message message) {
+        if (!isShowingLatest() || loadedMessageIds.contains(message.getId())) {
+            return false;
+        }
+        if (pages.isEmpty()) {
+            rememberCursor(0, null);
+            pages.addLast(new Page(0, null, new ArrayList<>()));
+        }
+        version++;
+        Page newest = pages.peekLast();
+        newest.items.add(message);
+        loadedMessageIds.add(message.getId());
+        messages.add(message);
+        pageChangeListener.onPageChanged(newest.cursor, snapshot(newest));
+        return true;
+    }
+
+    public int remove(String messageId) {
+        int position = indexOf(messageId);
+        if (position < 0) {
+            return -1;
+        }
+        version++;
+        Message removed = messages.remove(position);
+        loadedMessageIds.remove(messageId);
+        for (Page page : pages) {
+            if (page.items.remove(removed)) {
+                pageChangeListener.onPageChanged(page.cursor, snapshot(page));
+                break;
+            }
+        }
+        return position;
+    }
+
+    public int replace(Message updated) {
+        int position = indexOf(updated.getId());
+        if (position < 0) {
+            return -1;
+        }
+        version++;
+        Message previous = messages.set(position, updated);
+        for (Page page : pages) {
+            int inPage = page.items.indexOf(previous);
+            if (inPage >= 0) {
+                page.items.set(inPage, updated);
+                pageChangeListener.onPageChanged(page.cursor, snapshot(page));
+                break;
+            }
+        }
+        return position;
+    }
+
+    public void clear() {
+        version++;
+        pages.clear();
+        cursors.clear();
+        loadedMessageIds.clear();
+        messages.clear();
+        lastPageIndex = -1;
+        detached = false;
+        pageSize = 0;
+    }
+
+    private int indexOf(String messageId) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getId().equals(messageId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<Message> dedupe(List<Message> sortedPage) {
+        List<Message> filtered = new ArrayList<>(sortedPage.size());
+        for (Message message : sortedPage) {
+            if (loadedMessageIds.add(message.getId())) {
+                filtered.add(message);
+            }
+        }
+        return filtered;
+    }
+
+    private void forget(Page page) {
+        for (Message message : page.items) {
+            loadedMessageIds.remove(message.getId());
+        }
+    }
+
+    private void rememberCursor(int index, @Nullable String cursor) {
+        if (index == cursors.size()) {
+            cursors.add(cursor);
+        }
+    }
+
+    private MessagePage snapshot(Page page) {
+        String next = page.index + 1 < cursors.size() ? cursors.get(page.index + 1) : null;
+        return new MessagePage(new ArrayList<>(page.items), next, page.index != lastPageIndex);
+    }
+
+    public interface PageChangeListener {
+        void onPageChanged(@Nullable String cursor, MessagePage page);
+    }
+
+    private static class Page {
+        final int index;
+        final String cursor;
+        final List<Message> items;
+
+        Page(int index, String cursor, List<Message> items) {
+            this.index = index;
+            this.cursor = cursor;
+            this.items = items;
+        }
+    }
+}
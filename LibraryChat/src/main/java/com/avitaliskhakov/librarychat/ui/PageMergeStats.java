@@ -0,0 +1,33 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import com.avitaliskhakov.librarychat.utils.SampleWindow;
+
+// Main-thread time spent applying each merged page in ChatRoomActivity: window update, adapter
+// notifications and scroll restore. Sorting, dedupe and diffing happen before and are not counted.
+public class PageMergeStats {
+
+    private static final PageMergeStats INSTANCE = new PageMergeStats();
+
+    private final SampleWindow mainThreadMicros = new SampleWindow();
+
+    public static PageMergeStats getInstance() {
+        return INSTANCE;
+    }
+
+    public void record(long micros) {
+        mainThreadMicros.record(micros);
+    }
+
+    public long getCount() {
+        return mainThreadMicros.getCount();
+    }
+
+    // p in [0, 100]; returns -1 before any page was applied.
+    public long percentileMicros(double p) {
+        return mainThreadMicros.percentile(p);
+    }
+
+    public void reset() {
+        mainThreadMicros.reset();
+    }
+}
@@ -0,0 +1,119 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.avitaliskhakov.librarychat.R;
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// Room rows with stable ids; lists submitted by RoomListController are diffed off the main thread.
+public class RoomListAdapter extends ListAdapter<ChatRoomInfo, RoomListAdapter.RoomViewHolder> {
+
+    public interface OnRoomClickListener {
+        void onRoomClicked(ChatRoomInfo room);
+    }
+
+    private static final DiffUtil.ItemCallback<ChatRoomInfo> DIFF = new DiffUtil.ItemCallback<ChatRoomInfo>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatRoomInfo oldItem, @NonNull ChatRoomInfo newItem) {
+            return oldItem.getId().equals(newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatRoomInfo oldItem, @NonNull ChatRoomInfo newItem) {
+            return Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && oldItem.getLastActivityAtMillis() == newItem.getLastActivityAtMillis();
+        }
+    };
+
+    private final OnRoomClickListener listener;
+    // Room ids are strings; each gets a distinct long while it is in the list. Ids are never reused.
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private long nextStableId;
+
+    public RoomListAdapter(OnRoomClickListener listener) {
+        super(DIFF);
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String id = getItem(position).getId();
+        Long stableId = stableIds.get(id);
+        if (stableId == null) {
+            stableId = nextStableId++;
+            stableIds.put(id, stableId);
+        }
+        return stableId;
+    }
+
+    // Rooms that left the list give up their ids, so the map stays the size of the list.
+    @Override
+    public void onCurrentListChanged(@NonNull List<ChatRoomInfo> previousList,
+                                     @NonNull List<ChatRoomInfo> currentList) {
+        if (stableIds.size() <= currentList.size()) return;
+        Set<String> current = new HashSet<>();
+        for (ChatRoomInfo room : currentList) {
+            current.add(room.getId());
+        }
+        stableIds.keySet().retainAll(current);
+    }
+
+    @NonNull
+    @Override
+    public RoomViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_chat_room, parent, false);
+        return new RoomViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RoomViewHolder holder, int position) {
+        holder.bind(getItem(position));
+    }
+
+    class RoomViewHolder extends RecyclerView.ViewHolder {
+        private final TextView titleView;
+        private final TextView lastActivityView;
+        private ChatRoomInfo boundRoom;
+
+        RoomViewHolder(@NonNull View itemView) {
+            super(itemView);
+            titleView = itemView.findViewById(R.id.roomTitle);
+            lastActivityView = itemView.findViewById(R.id.roomLastActivity);
+            itemView.setOnClickListener(v -> {
+                if (boundRoom != null && listener != null) {
+                    listener.onRoomClicked(boundRoom);
+                }
+            });
+        }
+
+        void bind(ChatRoomInfo room) {
+            boundRoom = room;
+            titleView.setText(room.getTitle());
+            long lastActivity = room.getLastActivityAtMillis();
+            if (lastActivity > 0) {
+                lastActivityView.setText(DateUtils.getRelativeTimeSpanString(lastActivity,
+                        System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS));
+                lastActivityView.setVisibility(View.VISIBLE);
+            } else {
+                lastActivityView.setVisibility(View.GONE);
+            }
+        }
+    }
+}
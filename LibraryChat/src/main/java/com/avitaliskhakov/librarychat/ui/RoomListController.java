@@ -0,0 +1,234 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.avitaliskhakov.librarychat.api.ChatController;
+import com.avitaliskhakov.librarychat.api.ChatEventBus;
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.ChatRoomPage;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.utils.ChatExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Feeds a RoomListAdapter from the paged rooms endpoint, most recently active first. The next page
+// is requested as the list nears its end; new messages and rooms from ChatEventBus reorder the
+// loaded rows in place. A room that becomes active before its page was loaded comes in through a
+// refresh of the first page, debounced so a burst of such messages costs one request. Call from
+// the main thread and release() when the screen goes away.
+public class RoomListController implements ChatEventBus.Listener {
+
+    public interface Listener {
+        default void onRoomsChanged(int loadedCount, boolean hasMore) {}
+        default void onError(String error) {}
+    }
+
+    private static final long HEAD_REFRESH_DELAY_MS = 500;
+
+    private final String userId;
+    private final RoomListAdapter adapter;
+    private final int pageSize;
+    private final int prefetchDistance;
+    private final ChatController chatController;
+    private final RoomOrder rooms = new RoomOrder();
+    private final Runnable headRefresh = this::refreshHead;
+
+    private Listener listener;
+    private RecyclerView recyclerView;
+    private final RecyclerView.OnScrollListener pager = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+            if (dy <= 0 || !(rv.getLayoutManager() instanceof LinearLayoutManager)) return;
+            int lastVisible = ((LinearLayoutManager) rv.getLayoutManager()).findLastVisibleItemPosition();
+            if (lastVisible >= rooms.size() - 1 - prefetchDistance) {
+                loadMore();
+            }
+        }
+    };
+    private String nextCursor;
+    private boolean hasMore = true;
+    private boolean loading;
+    private boolean refreshingHead;
+    private boolean headRefreshScheduled;
+    // A head refresh was asked for while another request was running; it follows that one.
+    private boolean headRefreshOwed;
+    // Responses still owed for requests made before the last refresh(); they are ignored.
+    private int staleResponses;
+
+    public RoomListController(String userId, RoomListAdapter adapter, int pageSize) {
+        this.userId = userId;
+        this.adapter = adapter;
+        this.pageSize = pageSize;
+        this.prefetchDistance = Math.max(5, pageSize / 2);
+        this.chatController = new ChatController(createCallback());
+        ChatEventBus.getInstance().register(this);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void attach(RecyclerView recyclerView) {
+        if (recyclerView.getLayoutManager() == null) {
+            recyclerView.setLayoutManager(new LinearLayoutManager(recyclerView.getContext()));
+        }
+        recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(pager);
+        this.recyclerView = recyclerView;
+    }
+
+    // Drops what is loaded and starts again from the most recently active room.
+    public void refresh() {
+        if (loading) staleResponses++;
+        cancelHeadRefresh();
+        rooms.clear();
+        nextCursor = null;
+        hasMore = true;
+        loading = false;
+        refreshingHead = false;
+        publish();
+        loadMore();
+    }
+
+    public void loadMore() {
+        if (loading || !hasMore) return;
+        loading = true;
+        refreshingHead = false;
+        chatController.fetchUserChatRoomPage(userId, nextCursor, pageSize);
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public List<ChatRoomInfo> getRooms() {
+        return rooms.rooms();
+    }
+
+    public void release() {
+        if (recyclerView != null) {
+            recyclerView.removeOnScrollListener(pager);
+            recyclerView = null;
+        }
+        ChatEventBus.getInstance().unregister(this);
+        cancelHeadRefresh();
+        chatController.cancelAll();
+    }
+
+    @Override
+    public void onMessageCreated(Message message) {
+        if (!rooms.contains(message.getChatRoomId())) {
+            scheduleHeadRefresh();
+            return;
+        }
+        if (rooms.onMessage(message)) {
+            publish();
+        }
+    }
+
+    @Override
+    public void onRoomCreated(ChatRoomInfo room) {
+        if (!userId.equals(room.getCreator()) || rooms.contains(room.getId())) return;
+        rooms.put(new ChatRoomInfo(room));
+        publish();
+    }
+
+    @Override
+    public void onParticipantsChanged(String chatRoomId, List<String> added) {
+        if (added.contains(userId) && !rooms.contains(chatRoomId)) {
+            scheduleHeadRefresh();
+        }
+    }
+
+    private void scheduleHeadRefresh() {
+        if (headRefreshScheduled) return;
+        headRefreshScheduled = true;
+        ChatExecutors.postOnMain(headRefresh, HEAD_REFRESH_DELAY_MS);
+    }
+
+    private void cancelHeadRefresh() {
+        ChatExecutors.cancelOnMain(headRefresh);
+        headRefreshScheduled = false;
+        headRefreshOwed = false;
+    }
+
+    // Merges the first page again without moving the paging cursor.
+    private void refreshHead() {
+        headRefreshScheduled = false;
+        if (loading) {
+            headRefreshOwed = true;
+            return;
+        }
+        loading = true;
+        refreshingHead = true;
+        chatController.fetchUserChatRoomPage(userId, null, pageSize);
+    }
+
+    private void onPage(String cursor, ChatRoomPage page) {
+        if (staleResponses > 0) {
+            staleResponses--;
+            return;
+        }
+        loading = false;
+        for (ChatRoomInfo room : page.getRooms()) {
+            rooms.merge(room);
+        }
+        if (!refreshingHead || (cursor == null && nextCursor == null)) {
+            nextCursor = page.getNextCursor();
+            hasMore = page.hasMore() && nextCursor != null;
+        }
+        refreshingHead = false;
+        publish();
+        settleOwedRefresh();
+    }
+
+    private void settleOwedRefresh() {
+        if (headRefreshOwed) {
+            headRefreshOwed = false;
+            scheduleHeadRefresh();
+        }
+    }
+
+    private void publish() {
+        adapter.submitList(new ArrayList<>(rooms.rooms()));
+        if (listener != null) {
+            listener.onRoomsChanged(rooms.size(), hasMore);
+        }
+    }
+
+    private ChatController.CallBack_Chat createCallback() {
+        return new ChatController.CallBack_Chat() {
+            @Override
+            public void userChatRoomPageFetched(String cursor, ChatRoomPage page) {
+                ChatExecutors.runOnMain(() -> onPage(cursor, page));
+            }
+
+            @Override
+            public void error(String error) {
+                ChatExecutors.runOnMain(() -> {
+                    if (staleResponses > 0) {
+                        staleResponses--;
+                        return;
+                    }
+                    loading = false;
+                    refreshingHead = false;
+                    if (listener != null) listener.onError(error);
+                    settleOwedRefresh();
+                });
+            }
+
+            @Override public void success(List<Message> messages) {}
+            @Override public void messageSent(Map<String, Message> response) {}
+            @Override public void messageDeleted(Map<String, String> response) {}
+            @Override public void messageUpdated(Map<String, Message> response) {}
+            @Override public void typingStatusUpdated(Map<String, Boolean> typingUsers) {}
+            @Override public void chatRoomCreated(Map<String, String> response) {}
+            @Override public void userChatRoomsFetched(List<ChatRoomInfo> chatRooms) {}
+            @Override public void participantsFetched(List<String> participants) {}
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import androidx.annotation.Nullable;
+
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Loaded rooms by id, most recently active first with ties broken by id. A binary search finds
+// both the old row and the new slot, so one update costs O(log n) compares plus the list shift.
+final class RoomOrder {
+
+    static final Comparator<ChatRoomInfo> BY_ACTIVITY = (r1, r2) -> {
+        int byTime = Long.compare(r2.getLastActivityAtMillis(), r1.getLastActivityAtMillis());
+        return byTime != 0 ? byTime : r1.getId().compareTo(r2.getId());
+    };
+
+    private final Map<String, ChatRoomInfo> roomsById = new HashMap<>();
+    private final List<ChatRoomInfo> rooms = new ArrayList<>();
+
+    boolean contains(String chatRoomId) {
+        return roomsById.containsKey(chatRoomId);
+    }
+
+    @Nullable
+    ChatRoomInfo get(String chatRoomId) {
+        return roomsById.get(chatRoomId);
+    }
+
+    int size() {
+        return rooms.size();
+    }
+
+    List<ChatRoomInfo> rooms() {
+        return Collections.unmodifiableList(rooms);
+    }
+
+    void clear() {
+        roomsById.clear();
+        rooms.clear();
+    }
+
+    void put(ChatRoomInfo room) {
+        ChatRoomInfo previous = roomsById.put(room.getId(), room);
+        if (previous != null) {
+            int at = Collections.binarySearch(rooms, previous, BY_ACTIVITY);
+            if (at >= 0) rooms.remove(at);
+        }
+        int slot = Collections.binarySearch(rooms, room, BY_ACTIVITY);
+        rooms.add(slot >= 0 ? slot : -slot - 1, room);
+    }
+
+    // A room from a page. Activity can move a room between pages while paging; keeps the newer copy.
+    void merge(ChatRoomInfo room) {
+        ChatRoomInfo known = roomsById.get(room.getId());
+        if (known == null || room.getLastActivityAtMillis() >= known.getLastActivityAtMillis()) {
+            put(room);
+        }
+    }
+
+    // Moves the message's room up. False when the room is not loaded or the message is not newer.
+    boolean onMessage(Message message) {
+        ChatRoomInfo room = roomsById.get(message.getChatRoomId());
+        if (room == null || message.getCreatedAtMillis() <= room.getLastActivityAtMillis()) {
+            return false;
+        }
+        ChatRoomInfo updated = new ChatRoomInfo(room);
+        updated.setLastActivityAt(message.getCreatedAt());
+        put(updated);
+        return true;
+    }
+}
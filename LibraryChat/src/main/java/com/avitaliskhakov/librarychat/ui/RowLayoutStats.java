@@ -0,0 +1,63 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import com.avitaliskhakov.librarychat.utils.SampleWindow;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// Measure plus layout time of message rows and the views each row is built from, kept apart for
+// the XML rows and the single-view MessageBubbleView rows so the two can be compared on a device.
+public class RowLayoutStats {
+
+    public enum Kind {
+        XML,
+        FLAT
+    }
+
+    private static final RowLayoutStats INSTANCE = new RowLayoutStats();
+
+    private final Map<Kind, Samples> samples = new EnumMap<>(Kind.class);
+
+    private RowLayoutStats() {
+        for (Kind kind : Kind.values()) {
+            samples.put(kind, new Samples());
+        }
+    }
+
+    public static RowLayoutStats getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void record(Kind kind, long micros) {
+        samples.get(kind).micros.record(micros);
+    }
+
+    synchronized void recordViewCount(Kind kind, int views) {
+        samples.get(kind).viewsPerRow = views;
+    }
+
+    public synchronized long getCount(Kind kind) {
+        return samples.get(kind).micros.getCount();
+    }
+
+    // Views in the latest row created of that kind, the row itself included; 0 before any.
+    public synchronized int getViewsPerRow(Kind kind) {
+        return samples.get(kind).viewsPerRow;
+    }
+
+    // p in [0, 100]; returns -1 before any row of that kind was laid out.
+    public synchronized long percentileMicros(Kind kind, double p) {
+        return samples.get(kind).micros.percentile(p);
+    }
+
+    public synchronized void reset() {
+        for (Kind kind : Kind.values()) {
+            samples.put(kind, new Samples());
+        }
+    }
+
+    private static class Samples {
+        final SampleWindow micros = new SampleWindow();
+        int viewsPerRow;
+    }
+}
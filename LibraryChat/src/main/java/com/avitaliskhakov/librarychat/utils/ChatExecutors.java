@@ -0,0 +1,76 @@
+package com.avitaliskhakov.librarychat.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChatExecutors {
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final ExecutorService BACKGROUND = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "librarychat-bg-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // One worker with a short queue: media work is heavy and must never crowd out page loads.
+    // Submitting beyond the queue throws RejectedExecutionException.
+    private static final ExecutorService MEDIA = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(8), runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "librarychat-media");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Timers only, e.g. the backoff before a retry; scheduled tasks must hand real work elsewhere.
+    private static final ScheduledExecutorService SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "librarychat-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static ExecutorService background() {
+        return BACKGROUND;
+    }
+
+    public static ExecutorService media() {
+        return MEDIA;
+    }
+
+    public static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    public static void runOnMain(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            MAIN_HANDLER.post(runnable);
+        }
+    }
+
+    public static void postOnMain(Runnable runnable, long delayMillis) {
+        MAIN_HANDLER.postDelayed(runnable, delayMillis);
+    }
+
+    public static void cancelOnMain(Runnable runnable) {
+        MAIN_HANDLER.removeCallbacks(runnable);
+    }
+}
@@ -0,0 +1,41 @@
+package com.avitaliskhakov.librarychat.utils;
+
+import java.util.Arrays;
+
+// The last 256 values recorded, for percentiles, plus a count of every value ever recorded. Values
+// are stored as given; the owner decides the unit and says so in its own API.
+public class SampleWindow {
+
+    private static final int SIZE = 256;
+
+    private final long[] samples = new long[SIZE];
+    private int next;
+    private int size;
+    private long total;
+
+    public synchronized void record(long value) {
+        samples[next] = value;
+        next = (next + 1) % SIZE;
+        size = Math.min(size + 1, SIZE);
+        total++;
+    }
+
+    public synchronized long getCount() {
+        return total;
+    }
+
+    // p in [0, 100]; returns -1 before anything was recorded.
+    public synchronized long percentile(double p) {
+        if (size == 0) return -1;
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+        total = 0;
+    }
+}
@@ -0,0 +1,164 @@
+package com.avitaliskhakov.librarychat.api;
+
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.fake.FakeChatServer;
+import com.avitaliskhakov.librarychat.fake.NetworkShaper;
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.model.SearchHit;
+import com.avitaliskhakov.librarychat.model.SearchPage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChatControllerTest {
+
+    private FakeChatServer server;
+    private Recorder recorder;
+    private ChatController controller;
+    private String roomId;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeChatServer(NetworkShaper.none());
+        server.start();
+        ChatConfig.setBaseUrl(server.getBaseUrl());
+        CircuitBreaker.resetAll();
+        recorder = new Recorder();
+        controller = new ChatController(recorder);
+        roomId = server.createRoom("Room", "alice");
+    }
+
+    @After
+    public void tearDown() {
+        controller.cancelAll();
+        server.stop();
+        ChatConfig.setBaseUrl(null);
+        CircuitBreaker.resetAll();
+    }
+
+    @Test
+    public void searchMessages_pagesToTheLastPageWithoutRepeatsOrGaps() throws Exception {
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 25; i++) {
+            expected.add(server.seedMessage(roomId, "alice", "needle " + i).getId());
+            server.seedMessage(roomId, "alice", "hay " + i);
+        }
+
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            controller.searchMessages("alice", roomId, "needle", cursor, 10);
+            SearchPage page = (SearchPage) recorder.next();
+            for (SearchHit hit : page.getHits()) {
+                seen.add(hit.getMessageId());
+            }
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(25, seen.size());
+        assertEquals(expected, new HashSet<>(seen));
+    }
+
+    @Test
+    public void searchMessages_withoutRoomCoversOnlyTheUsersRooms() throws Exception {
+        String otherId = server.createRoom("Other", "bob");
+        Message mine = server.seedMessage(roomId, "alice", "needle here");
+        server.seedMessage(otherId, "bob", "needle there");
+
+        controller.searchMessages("alice", null, "needle", null, 10);
+        SearchPage page = (SearchPage) recorder.next();
+
+        assertEquals(1, page.getHits().size());
+        assertEquals(mine.getId(), page.getHits().get(0).getMessageId());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void fetchMessagesAround_holdsTheAnchorBetweenItsNeighbours() throws Exception {
+        List<Message> seeded = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            seeded.add(server.seedMessage(roomId, "alice", "message " + i));
+        }
+        Message anchor = seeded.get(5);
+
+        controller.fetchMessagesAround(roomId, anchor.getId(), 5);
+        @SuppressWarnings("unchecked")
+        List<Message> around = (List<Message>) recorder.next();
+
+        assertEquals(ids(seeded.subList(3, 8)), ids(around));
+        assertEquals(anchor.getId(), around.get(2).getId());
+
+        // Paging older from the first row continues right above the window.
+        controller.fetchMessagePage(roomId, null, around.get(0).getId(), 10, RequestClass.VISIBLE);
+        MessagePage older = (MessagePage) recorder.next();
+        assertEquals(seeded.get(2).getId(), older.getMessages().get(0).getId());
+        assertEquals(3, older.getMessages().size());
+        assertFalse(older.hasMore());
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    // Queues each delivered result; errors fail the test that waits for them.
+    private static class Recorder implements ChatController.CallBack_Chat {
+        private final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+        Object next() throws InterruptedException {
+            Object result = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no response", result);
+            if (result instanceof String) fail((String) result);
+            return result;
+        }
+
+        @Override public void success(List<Message> messages) {}
+        @Override public void messageSent(Map<String, Message> response) {}
+        @Override public void messageDeleted(Map<String, String> response) {}
+        @Override public void messageUpdated(Map<String, Message> response) {}
+        @Override public void typingStatusUpdated(Map<String, Boolean> typingUsers) {}
+        @Override public void chatRoomCreated(Map<String, String> response) {}
+        @Override public void userChatRoomsFetched(List<ChatRoomInfo> chatRooms) {}
+        @Override public void participantsFetched(List<String> participants) {}
+
+        @Override
+        public void searchResultsFetched(String query, SearchPage page) {
+            results.add(page);
+        }
+
+        @Override
+        public void messagesAroundFetched(String messageId, List<Message> messages) {
+            results.add(messages);
+        }
+
+        @Override
+        public void messagePageFetched(String chatRoomId, String cursor, MessagePage page) {
+            results.add(page);
+        }
+
+        @Override
+        public void error(String message) {
+            results.add(message);
+        }
+    }
+}
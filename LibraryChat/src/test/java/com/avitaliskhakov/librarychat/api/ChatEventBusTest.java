@@ -0,0 +1,106 @@
+package com.avitaliskhakov.librarychat.api;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+// Robolectric, unlike the stubbed android.jar, gives the bus a main looper to post to.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ChatEventBusTest {
+
+    private final ChatEventBus bus = ChatEventBus.getInstance();
+    private final List<ChatEventBus.Listener> registered = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (ChatEventBus.Listener listener : registered) {
+            bus.unregister(listener);
+        }
+    }
+
+    @Test
+    public void events_areDeliveredOnTheMainLooper() throws Exception {
+        Recorder listener = register(new Recorder());
+
+        Thread poster = new Thread(() -> bus.postMessageDeleted("room", "m1"));
+        poster.start();
+        poster.join();
+        assertTrue(listener.deleted.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(Collections.singletonList("m1"), listener.deleted);
+        assertSame(Looper.getMainLooper().getThread(), listener.thread);
+    }
+
+    @Test
+    public void unregister_stopsDelivery() {
+        Recorder kept = register(new Recorder());
+        Recorder dropped = register(new Recorder());
+
+        bus.unregister(dropped);
+        bus.postMessageDeleted("room", "m1");
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(Collections.singletonList("m1"), kept.deleted);
+        assertTrue(dropped.deleted.isEmpty());
+    }
+
+    @Test
+    public void unreferencedListener_isDroppedAfterGc() throws Exception {
+        AtomicInteger deliveries = new AtomicInteger();
+        WeakReference<ChatEventBus.Listener> reference = registerUnreferenced(deliveries);
+
+        // The bus must not be what keeps the listener alive.
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("listener still reachable", reference.get());
+
+        bus.postMessageDeleted("room", "m1");
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(0, deliveries.get());
+    }
+
+    private WeakReference<ChatEventBus.Listener> registerUnreferenced(AtomicInteger deliveries) {
+        ChatEventBus.Listener listener = new ChatEventBus.Listener() {
+            @Override
+            public void onMessageDeleted(String chatRoomId, String messageId) {
+                deliveries.incrementAndGet();
+            }
+        };
+        bus.register(listener);
+        return new WeakReference<>(listener);
+    }
+
+    private Recorder register(Recorder listener) {
+        bus.register(listener);
+        registered.add(listener);
+        return listener;
+    }
+
+    private static class Recorder implements ChatEventBus.Listener {
+        final List<String> deleted = new ArrayList<>();
+        Thread thread;
+
+        @Override
+        public void onMessageDeleted(String chatRoomId, String messageId) {
+            deleted.add(messageId);
+            thread = Thread.currentThread();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.avitaliskhakov.librarychat.api;
+
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Message;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ChatSdkTest {
+
+    @After
+    public void tearDown() {
+        ChatConfig.setBaseUrl(null);
+    }
+
+    @Test
+    public void failedWarmUp_failsPendingCallsAndAllowsAnother() throws Exception {
+        // Retrofit rejects this while the stack is built on the warm-up thread.
+        ChatConfig.setBaseUrl("not a url");
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        CountDownLatch failed = new CountDownLatch(2);
+        ChatSdk.whenReady(provider -> fail("ready with a broken base URL"), error -> {
+            failure.set(error);
+            failed.countDown();
+        });
+        ChatSdk.whenReady(provider -> fail("ready with a broken base URL"), error -> failed.countDown());
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof IllegalArgumentException);
+        assertFalse(ChatSdk.isReady());
+
+        ChatConfig.setBaseUrl("http://localhost:1/");
+        AtomicReference<ChatApiProvider> ready = new AtomicReference<>();
+        CountDownLatch built = new CountDownLatch(1);
+        ChatSdk.whenReady(provider -> {
+            ready.set(provider);
+            built.countDown();
+        }, error -> fail("second warm-up failed: " + error));
+        assertTrue(built.await(10, TimeUnit.SECONDS));
+        assertNotNull(ready.get());
+        assertTrue(ChatSdk.isReady());
+    }
+
+    @Test
+    public void failedWarmUp_reachesControllerCallbacks() throws Exception {
+        ChatConfig.setBaseUrl("not a url");
+        AtomicReference<String> error = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        ChatController controller = new ChatController(new ChatController.CallBack_Chat() {
+            @Override public void success(List<Message> messages) {}
+            @Override public void messageSent(Map<String, Message> response) {}
+            @Override public void messageDeleted(Map<String, String> response) {}
+            @Override public void messageUpdated(Map<String, Message> response) {}
+            @Override public void typingStatusUpdated(Map<String, Boolean> typingUsers) {}
+            @Override public void chatRoomCreated(Map<String, String> response) {}
+            @Override public void userChatRoomsFetched(List<ChatRoomInfo> chatRooms) {}
+            @Override public void participantsFetched(List<String> participants) {}
+
+            @Override
+            public void error(String message) {
+                error.set(message);
+                done.countDown();
+            }
+        });
+        controller.fetchMessages("room-1", null, 10);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNotNull(error.get());
+    }
+}
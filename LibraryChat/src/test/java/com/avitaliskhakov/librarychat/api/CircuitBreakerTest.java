@@ -0,0 +1,68 @@
+package com.avitaliskhakov.librarychat.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 1000);
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(500));
+    }
+
+    @Test
+    public void successResetsCount() {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 1000);
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        breaker.onSuccess();
+        breaker.onFailure(0);
+        assertEquals(1, breaker.getConsecutiveFailures());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpen_letsOneTrialThrough() {
+        CircuitBreaker breaker = openBreaker();
+        assertTrue(breaker.allowRequest(1000));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1001));
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(1002));
+    }
+
+    @Test
+    public void failedTrial_reopens() {
+        CircuitBreaker breaker = openBreaker();
+        assertTrue(breaker.allowRequest(1000));
+        breaker.onFailure(1000);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1500));
+        assertTrue(breaker.allowRequest(2000));
+    }
+
+    @Test
+    public void releasedTrial_freesSlot() {
+        CircuitBreaker breaker = openBreaker();
+        assertTrue(breaker.allowRequest(1000));
+        breaker.release();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest(1001));
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 1, 1000);
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
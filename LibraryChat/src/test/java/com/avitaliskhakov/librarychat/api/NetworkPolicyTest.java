@@ -0,0 +1,91 @@
+package com.avitaliskhakov.librarychat.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NetworkPolicyTest {
+
+    private NetworkPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new NetworkPolicy();
+    }
+
+    @Test
+    public void noSamples_isUnknownWithSmallPages() {
+        assertEquals(NetworkPolicy.LinkQuality.UNKNOWN, policy.getLinkQuality());
+        assertEquals(10, policy.getPageSize());
+        assertEquals(0, policy.getSampleCount());
+    }
+
+    @Test
+    public void rttOnly_decidesQuality() {
+        feed(80, 0, 0, 20);
+        assertEquals(NetworkPolicy.LinkQuality.EXCELLENT, policy.getLinkQuality());
+        assertEquals(50, policy.getPageSize());
+
+        policy.reset();
+        feed(300, 0, 0, 20);
+        assertEquals(NetworkPolicy.LinkQuality.GOOD, policy.getLinkQuality());
+        assertEquals(30, policy.getPageSize());
+
+        policy.reset();
+        feed(700, 0, 0, 20);
+        assertEquals(NetworkPolicy.LinkQuality.MODERATE, policy.getLinkQuality());
+        assertEquals(20, policy.getPageSize());
+
+        policy.reset();
+        feed(1500, 0, 0, 20);
+        assertEquals(NetworkPolicy.LinkQuality.POOR, policy.getLinkQuality());
+        assertEquals(10, policy.getPageSize());
+    }
+
+    @Test
+    public void slowBandwidth_limitsFastRtt() {
+        // 64 KB in 4 s is ~131 kbps.
+        feed(50, 64 * 1024, 4000, 20);
+        assertEquals(NetworkPolicy.LinkQuality.POOR, policy.getLinkQuality());
+        assertEquals(NetworkPolicy.MediaQuality.LOW, policy.getMediaQuality());
+    }
+
+    @Test
+    public void smallBodies_doNotCountAsBandwidth() {
+        feed(50, 512, 1000, 20);
+        assertTrue(policy.getBandwidthKbps() < 0);
+        assertEquals(NetworkPolicy.LinkQuality.EXCELLENT, policy.getLinkQuality());
+    }
+
+    @Test
+    public void movingAverage_followsNewSamples() {
+        feed(100, 0, 0, 1);
+        assertEquals(100, policy.getRttMs(), 0.001);
+        policy.recordSample(500, 0, 0);
+        assertEquals(200, policy.getRttMs(), 0.001);
+        feed(2000, 0, 0, 30);
+        assertEquals(NetworkPolicy.LinkQuality.POOR, policy.getLinkQuality());
+    }
+
+    @Test
+    public void reset_forgetsSamples() {
+        feed(80, 64 * 1024, 100, 5);
+        policy.reset();
+        assertEquals(NetworkPolicy.LinkQuality.UNKNOWN, policy.getLinkQuality());
+        assertEquals(0, policy.getSampleCount());
+        assertTrue(policy.getRttMs() < 0);
+    }
+
+    @Test
+    public void instances_doNotShareSamples() {
+        feed(1500, 0, 0, 5);
+        assertEquals(NetworkPolicy.LinkQuality.UNKNOWN, new NetworkPolicy().getLinkQuality());
+    }
+
+    private void feed(long rttMs, long bytes, long transferMs, int count) {
+        for (int i = 0; i < count; i++) {
+            policy.recordSample(rttMs, bytes, transferMs);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.avitaliskhakov.librarychat.api;
+
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Content;
+import com.avitaliskhakov.librarychat.model.Icontent;
+import com.avitaliskhakov.librarychat.model.Message;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecentRoomsSyncWorkerTest {
+
+    @Test
+    public void pickRooms_putsMostOpenedFirst() {
+        List<ChatRoomInfo> rooms = rooms("r1", "r2", "r3", "r4");
+
+        assertEquals(Arrays.asList("r3", "r1", "r2"),
+                RecentRoomsSyncWorker.pickRooms(rooms, Arrays.asList("r3", "r1"), 3));
+    }
+
+    @Test
+    public void pickRooms_skipsRoomsTheUserLeft() {
+        List<ChatRoomInfo> rooms = rooms("r1", "r2");
+
+        assertEquals(Arrays.asList("r2", "r1"),
+                RecentRoomsSyncWorker.pickRooms(rooms, Arrays.asList("gone", "r2"), 5));
+    }
+
+    @Test
+    public void pickRooms_fillsFromServerOrderAndIgnoresMissingIds() {
+        List<ChatRoomInfo> rooms = rooms("r1", null, "r2");
+
+        assertEquals(Arrays.asList("r1", "r2"),
+                RecentRoomsSyncWorker.pickRooms(rooms, Collections.emptyList(), 5));
+        assertEquals(Collections.singletonList("r1"),
+                RecentRoomsSyncWorker.pickRooms(rooms, Collections.emptyList(), 1));
+    }
+
+    @Test
+    public void sameMessages_comparesIdsAndEditTimes() {
+        List<Message> stored = Arrays.asList(
+                message("m1", "2024-03-01T10:00:00.000Z"), message("m2", "2024-03-01T10:01:00.000Z"));
+
+        assertTrue(RecentRoomsSyncWorker.sameMessages(stored, Arrays.asList(
+                message("m1", "2024-03-01T10:00:00.000Z"), message("m2", "2024-03-01T10:01:00.000Z"))));
+        // Edited since it was stored.
+        assertFalse(RecentRoomsSyncWorker.sameMessages(stored, Arrays.asList(
+                message("m1", "2024-03-01T10:00:00.000Z"), message("m2", "2024-03-01T10:05:00.000Z"))));
+        // A new message pushed the oldest one out.
+        assertFalse(RecentRoomsSyncWorker.sameMessages(stored, Arrays.asList(
+                message("m2", "2024-03-01T10:01:00.000Z"), message("m3", "2024-03-01T10:02:00.000Z"))));
+        assertFalse(RecentRoomsSyncWorker.sameMessages(stored, stored.subList(0, 1)));
+    }
+
+    private static List<ChatRoomInfo> rooms(String... ids) {
+        ChatRoomInfo[] rooms = new ChatRoomInfo[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            rooms[i] = new ChatRoomInfo(ids[i], "Room " + i);
+        }
+        return Arrays.asList(rooms);
+    }
+
+    private static Message message(String id, String contentCreatedAt) {
+        return new Message(id, "room", "sender", new Content("hi", Icontent.contentType.TEXT, contentCreatedAt));
+    }
+}
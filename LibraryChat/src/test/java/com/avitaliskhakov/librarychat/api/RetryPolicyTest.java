@@ -0,0 +1,55 @@
+package com.avitaliskhakov.librarychat.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void delay_staysUnderExponentialCeiling() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+        for (int i = 0; i < 1000; i++) {
+            assertInRange(policy.delayBeforeRetry(1), 100);
+            assertInRange(policy.delayBeforeRetry(2), 200);
+            assertInRange(policy.delayBeforeRetry(3), 400);
+            assertInRange(policy.delayBeforeRetry(5), 1000);
+            assertInRange(policy.delayBeforeRetry(60), 1000);
+        }
+    }
+
+    @Test
+    public void delay_isJittered() {
+        RetryPolicy policy = new RetryPolicy(3, 1000, 1000);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 200; i++) {
+            long delay = policy.delayBeforeRetry(1);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 100);
+    }
+
+    @Test
+    public void none_neverRetriesOrWaits() {
+        assertEquals(1, RetryPolicy.NONE.getMaxAttempts());
+        assertEquals(0, RetryPolicy.NONE.delayBeforeRetry(1));
+        assertEquals(1, new RetryPolicy(0, 10, 10).getMaxAttempts());
+    }
+
+    @Test
+    public void retryableStatuses() {
+        assertTrue(RetryPolicy.isRetryableStatus(408));
+        assertTrue(RetryPolicy.isRetryableStatus(429));
+        assertTrue(RetryPolicy.isRetryableStatus(500));
+        assertTrue(RetryPolicy.isRetryableStatus(503));
+        assertFalse(RetryPolicy.isRetryableStatus(200));
+        assertFalse(RetryPolicy.isRetryableStatus(404));
+        assertFalse(RetryPolicy.isRetryableStatus(400));
+    }
+
+    private static void assertInRange(long delay, long ceiling) {
+        assertTrue("delay " + delay, delay >= 0 && delay < ceiling);
+    }
+}
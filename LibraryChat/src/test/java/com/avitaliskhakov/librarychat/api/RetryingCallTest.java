@@ -0,0 +1,246 @@
+package com.avitaliskhakov.librarychat.api;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import static org.junit.Assert.*;
+
+public class RetryingCallTest {
+
+    private static final RetryPolicy THREE_QUICK = new RetryPolicy(3, 1, 1);
+
+    @Test
+    public void failedAttempts_countOncePerCall() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 60_000);
+        FakeCall call = new FakeCall(new IOException("1"), new IOException("2"), new IOException("3"));
+        Outcome outcome = enqueue(new RetryingCall<>(call, breaker, THREE_QUICK, null));
+
+        assertTrue(outcome.failure.get() instanceof IOException);
+        assertEquals(3, call.attempts.get());
+        assertEquals(1, breaker.getConsecutiveFailures());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void retryThenSuccess_closesBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 60_000);
+        breaker.onFailure(0);
+        FakeCall call = new FakeCall(error(503), Response.success("ok"));
+        Outcome outcome = enqueue(new RetryingCall<>(call, breaker, THREE_QUICK, null));
+
+        assertEquals("ok", outcome.response.get().body());
+        assertEquals(2, call.attempts.get());
+        assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void lastRetryableStatus_isReturnedAndCounted() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 60_000);
+        FakeCall call = new FakeCall(error(500), error(500), error(502));
+        Outcome outcome = enqueue(new RetryingCall<>(call, breaker, THREE_QUICK, null));
+
+        assertEquals(502, outcome.response.get().code());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void unparsableBody_isNotRetried() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 60_000);
+        FakeCall call = new FakeCall(new IllegalStateException("bad json"), Response.success("ok"));
+        Outcome outcome = enqueue(new RetryingCall<>(call, breaker, THREE_QUICK, null));
+
+        assertTrue(outcome.failure.get() instanceof IllegalStateException);
+        assertEquals(1, call.attempts.get());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void openBreaker_failsFastWithoutCalling() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 1, 60_000);
+        breaker.onFailure(System.nanoTime() / 1_000_000);
+        FakeCall call = new FakeCall(Response.success("ok"));
+        Outcome outcome = enqueue(new RetryingCall<>(call, breaker, THREE_QUICK, null));
+
+        assertTrue(outcome.failure.get().getMessage().startsWith("Circuit open"));
+        assertEquals(0, call.attempts.get());
+    }
+
+    @Test
+    public void trialThatThrows_releasesSlot() {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 1, 0);
+        breaker.onFailure(0);
+        FakeCall call = new FakeCall(new IllegalStateException("boom"));
+        try {
+            new RetryingCall<>(call, breaker, THREE_QUICK, null).execute();
+            fail();
+        } catch (IllegalStateException | IOException expected) {
+            // Thrown by the trial itself.
+        }
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest(System.nanoTime() / 1_000_000));
+    }
+
+    @Test
+    public void execute_retriesAndCountsOnce() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 60_000);
+        FakeCall call = new FakeCall(new IOException("1"), error(503), Response.success("ok"));
+        Response<String> response = new RetryingCall<>(call, breaker, THREE_QUICK, null).execute();
+
+        assertEquals("ok", response.body());
+        assertEquals(3, call.attempts.get());
+        assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void nonIdempotentPolicy_triesOnce() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("POST /x", 3, 60_000);
+        FakeCall call = new FakeCall(new IOException("1"), Response.success("ok"));
+        Outcome outcome = enqueue(new RetryingCall<>(call, breaker, RetryPolicy.NONE, null));
+
+        assertNotNull(outcome.failure.get());
+        assertEquals(1, call.attempts.get());
+    }
+
+    @Test
+    public void cancelDuringBackoff_sendsNoFurtherAttempt() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("GET /x", 3, 60_000);
+        RetryPolicy slow = new RetryPolicy(3, 1, 1) {
+            @Override
+            public long delayBeforeRetry(int attempt) {
+                return 200;
+            }
+        };
+        FakeCall call = new FakeCall(error(503), Response.success("ok"));
+        RetryingCall<String> retrying = new RetryingCall<>(call, breaker, slow, null);
+        Outcome outcome = new Outcome();
+        retrying.enqueue(outcome.callback());
+        assertEquals(1, call.attempts.get());
+
+        retrying.cancel();
+        assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+
+        assertNull(outcome.response.get());
+        assertTrue(outcome.failure.get() instanceof IOException);
+        assertEquals(1, call.attempts.get());
+        assertTrue(retrying.isCanceled());
+    }
+
+    private static Response<String> error(int code) {
+        return Response.error(code, ResponseBody.create(MediaType.parse("text/plain"), "err"));
+    }
+
+    private static Outcome enqueue(Call<String> call) throws InterruptedException {
+        Outcome outcome = new Outcome();
+        call.enqueue(outcome.callback());
+        assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+        return outcome;
+    }
+
+    private static final class Outcome {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Response<String>> response = new AtomicReference<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Callback<String> callback() {
+            return new Callback<String>() {
+                @Override
+                public void onResponse(Call<String> c, Response<String> response) {
+                    Outcome.this.response.set(response);
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Call<String> c, Throwable t) {
+                    failure.set(t);
+                    done.countDown();
+                }
+            };
+        }
+    }
+
+    // Plays back one scripted result per attempt, shared by its clones like a real retried request.
+    private static final class FakeCall implements Call<String> {
+
+        final Deque<Object> script;
+        final AtomicInteger attempts;
+        private boolean canceled;
+
+        FakeCall(Object... results) {
+            this(new ArrayDeque<>(Arrays.asList(results)), new AtomicInteger());
+        }
+
+        private FakeCall(Deque<Object> script, AtomicInteger attempts) {
+            this.script = script;
+            this.attempts = attempts;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Response<String> execute() throws IOException {
+            attempts.incrementAndGet();
+            Object next = script.poll();
+            if (next instanceof IOException) throw (IOException) next;
+            if (next instanceof RuntimeException) throw (RuntimeException) next;
+            return (Response<String>) next;
+        }
+
+        @Override
+        public void enqueue(Callback<String> callback) {
+            Response<String> response;
+            try {
+                response = execute();
+            } catch (IOException | RuntimeException e) {
+                callback.onFailure(this, e);
+                return;
+            }
+            callback.onResponse(this, response);
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return attempts.get() > 0;
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public Call<String> clone() {
+            return new FakeCall(script, attempts);
+        }
+
+        @Override
+        public Request request() {
+            return new Request.Builder().url("http://localhost/x").build();
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+    }
+}
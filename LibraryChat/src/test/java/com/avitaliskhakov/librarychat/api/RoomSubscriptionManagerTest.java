@@ -0,0 +1,216 @@
+package com.avitaliskhakov.librarychat.api;
+
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.fake.FakeChatServer;
+import com.avitaliskhakov.librarychat.fake.NetworkShaper;
+import com.avitaliskhakov.librarychat.model.Message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RoomSubscriptionManagerTest {
+
+    private FakeChatServer server;
+    private ManualScheduler scheduler;
+    private RoomSubscriptionManager manager;
+    private String roomA;
+    private String roomB;
+
+    @Before
+    public void setUp() throws Exception {
+        // Slow enough that the test can act while a poll is in flight.
+        server = new FakeChatServer(NetworkShaper.none().setLatency(300, 0));
+        server.start();
+        ChatConfig.setBaseUrl(server.getBaseUrl());
+        CircuitBreaker.resetAll();
+        scheduler = new ManualScheduler();
+        manager = new RoomSubscriptionManager(scheduler);
+        manager.setUserId("alice");
+        roomA = server.createRoom("A", "alice");
+        roomB = server.createRoom("B", "alice");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ChatConfig.setBaseUrl(null);
+        CircuitBreaker.resetAll();
+    }
+
+    @Test
+    public void firstPoll_onlyEstablishesTheCursor() throws Exception {
+        server.seedBurst(roomA, "bob", 5);
+        Recorder listener = new Recorder();
+        manager.subscribe(roomA, listener);
+
+        pollOnce();
+        Message fresh = server.seedMessage(roomA, "bob", "after subscribing");
+        pollOnce();
+
+        assertEquals(Collections.singletonList(fresh.getId()), listener.nextIds());
+        assertTrue(listener.received.isEmpty());
+    }
+
+    @Test
+    public void updates_reachOnlyTheirRoomsListeners() throws Exception {
+        Recorder listenerA = new Recorder();
+        Recorder listenerB = new Recorder();
+        manager.subscribe(roomA, listenerA);
+        manager.subscribe(roomB, listenerB);
+        pollOnce();
+
+        Message inA = server.seedMessage(roomA, "bob", "for A");
+        Message inB = server.seedMessage(roomB, "bob", "for B");
+        pollOnce();
+
+        assertEquals(Collections.singletonList(inA.getId()), listenerA.nextIds());
+        assertEquals(Collections.singletonList(inB.getId()), listenerB.nextIds());
+        assertTrue(listenerA.received.isEmpty());
+        assertTrue(listenerB.received.isEmpty());
+    }
+
+    @Test
+    public void subscribeDuringPoll_isPolledRightAfterIt() throws Exception {
+        Recorder listenerA = new Recorder();
+        Recorder listenerB = new Recorder();
+        manager.subscribe(roomA, listenerA);
+        scheduler.runNext();
+
+        // The poll in flight does not carry B, so nothing is posted until it returns.
+        manager.subscribe(roomB, listenerB);
+        assertEquals(0, scheduler.awaitPost());
+        pollOnce();
+
+        Message inB = server.seedMessage(roomB, "bob", "for B");
+        pollOnce();
+        assertEquals(Collections.singletonList(inB.getId()), listenerB.nextIds());
+    }
+
+    @Test
+    public void unsubscribeDuringPoll_dropsThatRoomsUpdate() throws Exception {
+        Recorder listenerA = new Recorder();
+        Recorder listenerB = new Recorder();
+        manager.subscribe(roomA, listenerA);
+        manager.subscribe(roomB, listenerB);
+        pollOnce();
+
+        server.seedMessage(roomA, "bob", "for A");
+        Message inB = server.seedMessage(roomB, "bob", "for B");
+        scheduler.runNext();
+        manager.unsubscribe(roomA, listenerA);
+        scheduler.awaitPost();
+
+        assertEquals(Collections.singletonList(inB.getId()), listenerB.nextIds());
+        assertTrue(listenerA.received.isEmpty());
+        assertEquals(Collections.singleton(roomB), manager.getSubscribedRooms());
+    }
+
+    @Test
+    public void lastUnsubscribe_stopsPolling() throws Exception {
+        Recorder listener = new Recorder();
+        manager.subscribe(roomA, listener);
+        pollOnce();
+        assertTrue(scheduler.hasPending());
+
+        manager.unsubscribe(roomA, listener);
+        assertFalse(scheduler.hasPending());
+    }
+
+    @Test
+    public void lastUnsubscribeDuringPoll_postsNoFurtherPoll() throws Exception {
+        Recorder listener = new Recorder();
+        manager.subscribe(roomA, listener);
+        pollOnce();
+        long requests = server.getRequestCount();
+
+        scheduler.runNext();
+        manager.unsubscribe(roomA, listener);
+        // The poll in flight cancels once more when it returns, then finds nothing to post.
+        scheduler.awaitCancels(2);
+        assertTrue(manager.getSubscribedRooms().isEmpty());
+        assertFalse(scheduler.hasPending());
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    // Runs the pending poll and waits for the one it posts when it returns.
+    private void pollOnce() throws Exception {
+        scheduler.runNext();
+        scheduler.awaitPost();
+    }
+
+    // Stands in for the main handler: polls run only when the test says so.
+    private static class ManualScheduler implements RoomSubscriptionManager.PollScheduler {
+        private final BlockingQueue<Long> posts = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Boolean> cancels = new LinkedBlockingQueue<>();
+        private Runnable pending;
+
+        @Override
+        public synchronized void post(Runnable poll, long delayMs) {
+            pending = poll;
+            posts.add(delayMs);
+        }
+
+        @Override
+        public synchronized void cancel(Runnable poll) {
+            if (pending == poll) pending = null;
+            cancels.add(true);
+        }
+
+        synchronized boolean hasPending() {
+            return pending != null;
+        }
+
+        void runNext() {
+            Runnable poll;
+            synchronized (this) {
+                poll = pending;
+                pending = null;
+            }
+            assertNotNull("no poll posted", poll);
+            posts.clear();
+            cancels.clear();
+            poll.run();
+        }
+
+        long awaitPost() throws InterruptedException {
+            Long delay = posts.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no poll posted", delay);
+            return delay;
+        }
+
+        void awaitCancels(int count) throws InterruptedException {
+            for (int i = 0; i < count; i++) {
+                assertNotNull("poll not canceled", cancels.poll(10, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    private static class Recorder implements RoomSubscriptionManager.RoomListener {
+        final BlockingQueue<List<Message>> received = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onNewMessages(String chatRoomId, List<Message> messages) {
+            received.add(messages);
+        }
+
+        List<String> nextIds() throws InterruptedException {
+            List<Message> messages = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no messages delivered", messages);
+            List<String> ids = new ArrayList<>();
+            for (Message message : messages) {
+                ids.add(message.getId());
+            }
+            return ids;
+        }
+    }
+}
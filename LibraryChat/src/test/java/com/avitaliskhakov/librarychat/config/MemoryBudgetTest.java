@@ -0,0 +1,101 @@
+package com.avitaliskhakov.librarychat.config;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MemoryBudgetTest {
+
+    private MemoryBudget budget;
+
+    @Before
+    public void setUp() {
+        budget = new MemoryBudget();
+    }
+
+    @Test
+    public void register_keepsEvictionOrderWithinAPriority() {
+        FakeCache high = new FakeCache(100);
+        FakeCache normal1 = new FakeCache(100);
+        FakeCache low = new FakeCache(100);
+        FakeCache normal2 = new FakeCache(100);
+        budget.register("high", MemoryBudget.Priority.HIGH, 0.1f, high);
+        budget.register("normal1", MemoryBudget.Priority.NORMAL, 0.1f, normal1);
+        budget.register("low", MemoryBudget.Priority.LOW, 0.1f, low);
+        budget.register("normal2", MemoryBudget.Priority.NORMAL, 0.1f, normal2);
+
+        assertEquals(Arrays.asList("low", "normal1", "normal2", "high"), names());
+    }
+
+    @Test
+    public void trim_evictsLowestPriorityFirst() {
+        FakeCache high = new FakeCache(100);
+        FakeCache normal = new FakeCache(100);
+        FakeCache low = new FakeCache(100);
+        budget.register("high", MemoryBudget.Priority.HIGH, 0.1f, high);
+        budget.register("normal", MemoryBudget.Priority.NORMAL, 0.1f, normal);
+        budget.register("low", MemoryBudget.Priority.LOW, 0.1f, low);
+
+        assertEquals(150, budget.trim(0.5f));
+        assertEquals(0, low.size);
+        assertEquals(50, normal.size);
+        assertEquals(100, high.size);
+
+        assertEquals(0, budget.trim(1f));
+        assertEquals(150, budget.trim(0f));
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void sameName_splitsItsShare() {
+        long share = (long) (budget.getTotalBytes() * 0.3f);
+        FakeCache first = new FakeCache(0);
+        FakeCache second = new FakeCache(0);
+
+        assertEquals(share, budget.register("text", MemoryBudget.Priority.NORMAL, 0.3f, first));
+        assertEquals(share / 2, budget.register("text", MemoryBudget.Priority.NORMAL, 0.3f, second), 1);
+        assertEquals(share / 2, first.budget, 1);
+        assertEquals(share / 2, second.budget, 1);
+
+        budget.unregister(second);
+        assertEquals(share, first.budget);
+        assertEquals(Arrays.asList("text"), names());
+    }
+
+    private List<String> names() {
+        List<String> names = new ArrayList<>();
+        for (MemoryBudget.Usage usage : budget.getUsage()) {
+            names.add(usage.getName());
+        }
+        return names;
+    }
+
+    private static class FakeCache implements MemoryBudget.Cache {
+        long size;
+        long budget;
+
+        FakeCache(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public long sizeBytes() {
+            return size;
+        }
+
+        @Override
+        public void trimToBytes(long maxBytes) {
+            size = Math.min(size, maxBytes);
+        }
+
+        @Override
+        public void onBudgetChanged(long budgetBytes) {
+            budget = budgetBytes;
+        }
+    }
+}
@@ -0,0 +1,663 @@
+package com.avitaliskhakov.librarychat.fake;
+
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.ChatRoomPage;
+import com.avitaliskhakov.librarychat.model.Content;
+import com.avitaliskhakov.librarychat.model.LinkPreview;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.avitaliskhakov.librarychat.model.ParticipantPage;
+import com.avitaliskhakov.librarychat.model.RoomUpdate;
+import com.avitaliskhakov.librarychat.model.SearchHit;
+import com.avitaliskhakov.librarychat.model.SearchPage;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory implementation of the ChatApi contract for JVM tests and load runs.
+public class FakeChatServer {
+
+    public static final String THREAD_PREFIX = "fake-server-";
+
+    private final Gson gson = new Gson();
+    private final NetworkShaper shaper;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong unfurlCount = new AtomicLong();
+
+    // Each room's messages in creation order.
+    private final Map<String, List<Message>> messagesByRoom = new HashMap<>();
+    private final Map<String, ChatRoomInfo> rooms = new LinkedHashMap<>();
+    private final Map<String, Set<String>> participants = new HashMap<>();
+    private final Map<String, Map<String, Boolean>> typing = new HashMap<>();
+    private final Map<String, Integer> typingVersions = new HashMap<>();
+    private final Map<String, Map<String, String>> receipts = new HashMap<>();
+    private final Map<String, byte[]> media = new HashMap<>();
+
+    public FakeChatServer(NetworkShaper shaper) throws IOException {
+        this.shaper = shaper;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(16, runnable -> {
+            Thread thread = new Thread(runnable, THREAD_PREFIX + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public NetworkShaper getShaper() {
+        return shaper;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getUnfurlCount() {
+        return unfurlCount.get();
+    }
+
+    public synchronized String createRoom(String title, String creatorId) {
+        String roomId = "room-" + ids.incrementAndGet();
+        ChatRoomInfo room = new ChatRoomInfo(roomId, title);
+        room.setCreator(creatorId);
+        room.setLastActivityAt(timestamp());
+        rooms.put(roomId, room);
+        messagesByRoom.put(roomId, new ArrayList<>());
+        participants.put(roomId, new LinkedHashSet<>(Collections.singletonList(creatorId)));
+        return roomId;
+    }
+
+    public synchronized Message seedMessage(String roomId, String senderId, String text) {
+        Message message = new Message(null, roomId, senderId,
+                new Content(text, Content.contentType.TEXT, null));
+        return store(message);
+    }
+
+    // Messages that all share one createdAt, like a bulk import; pages have to split them by id.
+    public synchronized List<Message> seedBurst(String roomId, String senderId, int count) {
+        String now = timestamp();
+        List<Message> burst = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = new Message("msg-" + ids.incrementAndGet(), roomId, senderId,
+                    new Content("burst " + i, Content.contentType.TEXT, now));
+            message.setCreatedAt(now);
+            messagesByRoom.get(roomId).add(message);
+            burst.add(message);
+        }
+        rooms.get(roomId).setLastActivityAt(now);
+        return burst;
+    }
+
+    public synchronized int messageCount(String roomId) {
+        List<Message> messages = messagesByRoom.get(roomId);
+        return messages != null ? messages.size() : 0;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            sleep(shaper.nextDelayMs());
+            if (shaper.shouldDrop()) {
+                // Closing before any response line makes the client see a dropped connection.
+                exchange.close();
+                return;
+            }
+            if (shaper.shouldFail()) {
+                respond(exchange, 503, "{\"error\":\"injected failure\"}");
+                return;
+            }
+            route(exchange);
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "{\"error\":\"" + e.getClass().getSimpleName() + "\"}");
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        if (path.startsWith("/media/") && !path.equals("/media/upload")) {
+            serveMedia(exchange, path.substring("/media/".length()));
+            return;
+        }
+        Object body;
+        switch (path) {
+            case "/messages/getMessages":
+                body = getMessages(query.get("chatRoomId"), query.get("lastCreatedAt"), intParam(query, "limit", 20));
+                break;
+            case "/messages/page":
+                body = getMessagePage(query.get("chatRoomId"), query.get("cursor"), query.get("beforeMessageId"),
+                        intParam(query, "limit", 20));
+                break;
+            case "/messages/around":
+                body = getMessagesAround(query.get("chatRoomId"), query.get("messageId"), intParam(query, "limit", 20));
+                break;
+            case "/messages/search":
+                body = search(query.get("userId"), query.get("chatRoomId"), query.get("query"),
+                        query.get("cursor"), intParam(query, "limit", 20));
+                break;
+            case "/messages/send":
+                body = Collections.singletonMap("message", store(readBody(exchange, Message.class)));
+                break;
+            case "/messages/delete":
+                body = delete(query.get("msgId"), query.get("chatroomId"));
+                break;
+            case "/messages/update":
+                body = update(query.get("msgId"), readBody(exchange, Content.class));
+                break;
+            case "/messages/typing/set":
+                setTyping(query.get("chatRoomId"), query.get("userId"), Boolean.parseBoolean(query.get("isTyping")));
+                respond(exchange, 200, "");
+                return;
+            case "/messages/typing/get":
+                body = getTyping(query.get("chatRoomId"));
+                break;
+            case "/chatrooms/create":
+                body = Collections.singletonMap("roomId", createRoom(query.get("title"), query.get("creatorId")));
+                break;
+            case "/chatrooms/addParticipants":
+                body = addParticipants(query.get("roomId"),
+                        readBody(exchange, new TypeToken<List<String>>() {}.getType()));
+                break;
+            case "/chatrooms/userRooms":
+                body = userRooms(query.get("userId"));
+                break;
+            case "/chatrooms/userRooms/page":
+                body = userRoomPage(query.get("userId"), query.get("cursor"), intParam(query, "limit", 20));
+                break;
+            case "/chatrooms/participants":
+                body = participantsOf(query.get("roomId"));
+                break;
+            case "/chatrooms/participants/page":
+                body = participantPage(query.get("roomId"), query.get("cursor"), intParam(query, "limit", 100));
+                break;
+            case "/chatrooms/isParticipant":
+                body = Collections.singletonMap("isParticipant", isParticipant(query.get("roomId"), query.get("userId")));
+                break;
+            case "/receipts/batch":
+                reportReceipts(query.get("userId"),
+                        readBody(exchange, new TypeToken<Map<String, String>>() {}.getType()));
+                respond(exchange, 200, "");
+                return;
+            case "/rooms/poll":
+                body = pollRooms(readBody(exchange, new TypeToken<Map<String, String>>() {}.getType()));
+                break;
+            case "/media/upload":
+                body = Collections.singletonMap("url", getBaseUrl() + "media/" + storeMedia(exchange));
+                break;
+            case "/receipts/room":
+                body = receiptsOf(query.get("chatRoomId"));
+                break;
+            case "/unfurl":
+                String unfurlUrl = query.get("url");
+                if (unfurlUrl != null && unfurlUrl.endsWith("/blocked")) {
+                    unfurlCount.incrementAndGet();
+                    respond(exchange, 403, "{\"error\":\"site refused the unfurler\"}");
+                    return;
+                }
+                body = unfurl(unfurlUrl);
+                if (body == null) {
+                    respond(exchange, 404, "{\"error\":\"nothing to preview\"}");
+                    return;
+                }
+                break;
+            default:
+                respond(exchange, 404, "{\"error\":\"not found\"}");
+                return;
+        }
+        respond(exchange, 200, gson.toJson(body));
+    }
+
+    // Synthetic preview derived from the URL; ".../nopreview" answers 404 like a page without metadata
+    // and ".../blocked" fails with 403 like a site that refuses the unfurler.
+    private LinkPreview unfurl(String url) {
+        if (url == null || url.endsWith("/nopreview")) return null;
+        URI uri = URI.create(url);
+        unfurlCount.incrementAndGet();
+        return new LinkPreview(url, "Preview of " + uri.getPath(), "Fake description for " + url,
+                getBaseUrl() + "media/preview.png", uri.getHost());
+    }
+
+    private synchronized List<Message> getMessages(String roomId, String lastCreatedAt, int limit) {
+        List<Message> messages = messagesByRoom.getOrDefault(roomId, Collections.emptyList());
+        int end = messages.size();
+        if (lastCreatedAt != null) {
+            end = 0;
+            while (end < messages.size() && messages.get(end).getCreatedAt().compareTo(lastCreatedAt) < 0) {
+                end++;
+            }
+        }
+        int start = Math.max(0, end - limit);
+        List<Message> page = new ArrayList<>(messages.subList(start, end));
+        Collections.reverse(page);
+        return page;
+    }
+
+    // Keyset page: the newest messages strictly older than the cursor key (createdAt, then id),
+    // newest first. The cursor is base64("createdAt|id") of the oldest message returned.
+    private synchronized MessagePage getMessagePage(String roomId, String cursor, String beforeMessageId, int limit) {
+        List<Message> messages = messagesByRoom.getOrDefault(roomId, Collections.emptyList());
+        String[] key = null;
+        if (cursor != null) {
+            key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 2);
+        } else if (beforeMessageId != null) {
+            int index = indexOf(messages, beforeMessageId);
+            if (index < 0) return new MessagePage(new ArrayList<>(), null, false);
+            key = new String[]{messages.get(index).getCreatedAt(), beforeMessageId};
+        }
+        List<Message> older = new ArrayList<>();
+        for (Message message : messages) {
+            if (key == null || compareKey(message, key[0], key[1]) < 0) {
+                older.add(message);
+            }
+        }
+        older.sort(Message.BY_CREATED_AT);
+        int start = Math.max(0, older.size() - limit);
+        List<Message> page = new ArrayList<>(older.subList(start, older.size()));
+        boolean hasMore = start > 0;
+        String nextCursor = null;
+        if (hasMore) {
+            Message oldest = page.get(0);
+            nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    (oldest.getCreatedAt() + "|" + oldest.getId()).getBytes(StandardCharsets.UTF_8));
+        }
+        Collections.reverse(page);
+        return new MessagePage(page, nextCursor, hasMore);
+    }
+
+    private static int compareKey(Message message, String createdAt, String id) {
+        int byTime = message.getCreatedAt().compareTo(createdAt);
+        return byTime != 0 ? byTime : message.getId().compareTo(id);
+    }
+
+    private synchronized List<Message> getMessagesAround(String roomId, String messageId, int limit) {
+        List<Message> messages = messagesByRoom.getOrDefault(roomId, Collections.emptyList());
+        int index = indexOf(messages, messageId);
+        if (index < 0) return new ArrayList<>();
+        int start = Math.max(0, index - limit / 2);
+        int end = Math.min(messages.size(), start + limit);
+        return new ArrayList<>(messages.subList(start, end));
+    }
+
+    private synchronized SearchPage search(String userId, String roomId, String query, String cursor, int limit) {
+        String needle = query != null ? query.toLowerCase(Locale.ROOT) : "";
+        int offset = cursor != null ? Integer.parseInt(cursor) : 0;
+        List<SearchHit> hits = new ArrayList<>();
+        int matched = 0;
+        for (Map.Entry<String, List<Message>> room : messagesByRoom.entrySet()) {
+            if (roomId != null ? !roomId.equals(room.getKey())
+                    : !participants.getOrDefault(room.getKey(), Collections.emptySet()).contains(userId)) {
+                continue;
+            }
+            for (Message message : room.getValue()) {
+                String text = message.getText();
+                int at = text != null ? text.toLowerCase(Locale.ROOT).indexOf(needle) : -1;
+                if (needle.isEmpty() || at < 0) continue;
+                if (matched++ < offset) continue;
+                if (hits.size() == limit) {
+                    return new SearchPage(hits, String.valueOf(offset + limit));
+                }
+                hits.add(new SearchHit(message.getId(), message.getChatRoomId(), message.getSenderId(),
+                        message.getCreatedAt(), text, new int[]{at, at + needle.length()}));
+            }
+        }
+        return new SearchPage(hits, null);
+    }
+
+    private synchronized Message store(Message message) {
+        String roomId = message.getChatRoomId();
+        List<Message> messages = messagesByRoom.get(roomId);
+        if (messages == null) {
+            messages = new ArrayList<>();
+            messagesByRoom.put(roomId, messages);
+        }
+        String now = timestamp();
+        message.setId("msg-" + ids.incrementAndGet());
+        message.setCreatedAt(now);
+        Content content = message.getContent();
+        if (content != null) {
+            content.setCreatedAt(now);
+            message.setContent(content);
+        }
+        messages.add(message);
+        ChatRoomInfo room = rooms.get(roomId);
+        if (room != null) {
+            room.setLastActivityAt(now);
+        }
+        return message;
+    }
+
+    private synchronized Map<String, String> delete(String msgId, String roomId) {
+        List<Message> messages = messagesByRoom.getOrDefault(roomId, Collections.emptyList());
+        int index = indexOf(messages, msgId);
+        if (index >= 0) {
+            messages.remove(index);
+        }
+        return Collections.singletonMap("msgId", msgId);
+    }
+
+    private synchronized Map<String, Message> update(String msgId, Content content) {
+        for (List<Message> messages : messagesByRoom.values()) {
+            int index = indexOf(messages, msgId);
+            if (index >= 0) {
+                Message message = messages.get(index);
+                content.setCreatedAt(timestamp());
+                message.setContent(content);
+                message.setEdited(true);
+                return Collections.singletonMap("Message", message);
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    private synchronized void setTyping(String roomId, String userId, boolean isTyping) {
+        Boolean previous = typing.computeIfAbsent(roomId, key -> new HashMap<>()).put(userId, isTyping);
+        if (previous == null || previous != isTyping) {
+            typingVersions.merge(roomId, 1, Integer::sum);
+        }
+    }
+
+    // Cursor is "<last createdAt>|<typing version>"; only rooms that changed are returned.
+    private synchronized List<RoomUpdate> pollRooms(Map<String, String> cursorByRoom) {
+        List<RoomUpdate> updates = new ArrayList<>();
+        for (Map.Entry<String, String> entry : cursorByRoom.entrySet()) {
+            String roomId = entry.getKey();
+            List<Message> messages = messagesByRoom.getOrDefault(roomId, Collections.emptyList());
+            String latest = messages.isEmpty() ? "0" : messages.get(messages.size() - 1).getCreatedAt();
+            int version = typingVersions.getOrDefault(roomId, 0);
+            String cursor = latest + "|" + version;
+            if (entry.getValue().isEmpty()) {
+                updates.add(new RoomUpdate(roomId, new ArrayList<>(), getTyping(roomId), cursor));
+                continue;
+            }
+            String[] parts = entry.getValue().split("\\|");
+            List<Message> newer = new ArrayList<>();
+            for (Message message : messages) {
+                if (message.getCreatedAt().compareTo(parts[0]) > 0) newer.add(message);
+            }
+            boolean typingChanged = parts.length < 2 || Integer.parseInt(parts[1]) != version;
+            if (!newer.isEmpty() || typingChanged) {
+                updates.add(new RoomUpdate(roomId, newer, typingChanged ? getTyping(roomId) : null, cursor));
+            }
+        }
+        return updates;
+    }
+
+    private synchronized Map<String, Boolean> getTyping(String roomId) {
+        return new HashMap<>(typing.getOrDefault(roomId, Collections.emptyMap()));
+    }
+
+    private synchronized Map<String, String> addParticipants(String roomId, List<String> userIds) {
+        participants.computeIfAbsent(roomId, key -> new LinkedHashSet<>()).addAll(userIds);
+        return Collections.singletonMap("status", "ok");
+    }
+
+    private synchronized List<ChatRoomInfo> userRooms(String userId) {
+        List<ChatRoomInfo> result = new ArrayList<>();
+        for (ChatRoomInfo room : rooms.values()) {
+            if (participants.getOrDefault(room.getId(), Collections.emptySet()).contains(userId)) {
+                result.add(room);
+            }
+        }
+        return result;
+    }
+
+    // Most recently active first; the cursor is base64("lastActivityAt|id") of the last room returned.
+    private synchronized ChatRoomPage userRoomPage(String userId, String cursor, int limit) {
+        String[] key = cursor != null
+                ? new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 2)
+                : null;
+        List<ChatRoomInfo> matching = new ArrayList<>();
+        for (ChatRoomInfo room : userRooms(userId)) {
+            if (key == null || compareActivity(room, key[0], key[1]) > 0) {
+                matching.add(room);
+            }
+        }
+        matching.sort((r1, r2) -> compareActivity(r1, r2.getLastActivityAt(), r2.getId()));
+        boolean hasMore = matching.size() > limit;
+        List<ChatRoomInfo> page = new ArrayList<>();
+        for (ChatRoomInfo room : matching.subList(0, Math.min(limit, matching.size()))) {
+            page.add(new ChatRoomInfo(room));
+        }
+        String nextCursor = null;
+        if (hasMore) {
+            ChatRoomInfo last = page.get(page.size() - 1);
+            nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    (last.getLastActivityAt() + "|" + last.getId()).getBytes(StandardCharsets.UTF_8));
+        }
+        return new ChatRoomPage(page, nextCursor, hasMore);
+    }
+
+    // Negative when room sorts before the key: newer activity first, then id.
+    private static int compareActivity(ChatRoomInfo room, String lastActivityAt, String id) {
+        int byTime = lastActivityAt.compareTo(room.getLastActivityAt());
+        return byTime != 0 ? byTime : room.getId().compareTo(id);
+    }
+
+    private synchronized List<String> participantsOf(String roomId) {
+        return new ArrayList<>(participants.getOrDefault(roomId, Collections.emptySet()));
+    }
+
+    // User ids in order; the cursor is base64 of the last id returned.
+    private synchronized ParticipantPage participantPage(String roomId, String cursor, int limit) {
+        String after = cursor != null ? new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8) : null;
+        List<String> sorted = participantsOf(roomId);
+        Collections.sort(sorted);
+        List<String> page = new ArrayList<>();
+        boolean hasMore = false;
+        for (String userId : sorted) {
+            if (after != null && userId.compareTo(after) <= 0) continue;
+            if (page.size() == limit) {
+                hasMore = true;
+                break;
+            }
+            page.add(userId);
+        }
+        String nextCursor = hasMore
+                ? Base64.getUrlEncoder().withoutPadding().encodeToString(
+                        page.get(page.size() - 1).getBytes(StandardCharsets.UTF_8))
+                : null;
+        return new ParticipantPage(page, nextCursor, hasMore);
+    }
+
+    private synchronized boolean isParticipant(String roomId, String userId) {
+        return participants.getOrDefault(roomId, Collections.emptySet()).contains(userId);
+    }
+
+    private synchronized void reportReceipts(String userId, Map<String, String> lastSeenByRoom) {
+        for (Map.Entry<String, String> entry : lastSeenByRoom.entrySet()) {
+            Map<String, String> room = receipts.computeIfAbsent(entry.getKey(), key -> new HashMap<>());
+            String previous = room.get(userId);
+            if (previous == null || previous.compareTo(entry.getValue()) < 0) {
+                room.put(userId, entry.getValue());
+            }
+        }
+    }
+
+    private synchronized Map<String, String> receiptsOf(String roomId) {
+        return new HashMap<>(receipts.getOrDefault(roomId, Collections.emptyMap()));
+    }
+
+    // Keeps the raw multipart body; clients only care that the URL serves bytes back.
+    private String storeMedia(HttpExchange exchange) throws IOException {
+        // Read in slices so bandwidth shaping applies to uploads too.
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] slice = new byte[16 * 1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(slice)) != -1) {
+                sleep(shaper.transferMs(read));
+                body.write(slice, 0, read);
+            }
+        }
+        byte[] bytes = body.toByteArray();
+        String mediaId = "media-" + ids.incrementAndGet();
+        synchronized (this) {
+            media.put(mediaId, bytes);
+        }
+        return mediaId;
+    }
+
+    private void serveMedia(HttpExchange exchange, String mediaId) throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            bytes = media.get(mediaId);
+        }
+        if (bytes == null) {
+            respond(exchange, 404, "{\"error\":\"not found\"}");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        int start = 0;
+        int end = bytes.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Integer.parseInt(bounds[0]);
+            if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            if (start >= bytes.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + bytes.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + bytes.length);
+        }
+        exchange.sendResponseHeaders(status, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes, start, end - start + 1);
+        }
+        exchange.close();
+    }
+
+    // Serves the bytes at the returned URL, honoring Range requests like uploaded media.
+    public synchronized String seedMedia(byte[] bytes) {
+        String mediaId = "media-" + ids.incrementAndGet();
+        media.put(mediaId, bytes);
+        return getBaseUrl() + "media/" + mediaId;
+    }
+
+    public synchronized long getStoredMediaBytes() {
+        long total = 0;
+        for (byte[] bytes : media.values()) {
+            total += bytes.length;
+        }
+        return total;
+    }
+
+    private static int indexOf(List<Message> messages, String messageId) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getId().equals(messageId)) return i;
+        }
+        return -1;
+    }
+
+    // Fixed-width UTC timestamps, one millisecond apart, so string order matches creation order.
+    private String timestamp() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(clock.incrementAndGet()));
+    }
+
+    private <T> T readBody(HttpExchange exchange, java.lang.reflect.Type type) throws IOException {
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, type);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                // Write in slices so bandwidth shaping spreads over the body.
+                int slice = 4096;
+                for (int offset = 0; offset < bytes.length; offset += slice) {
+                    int length = Math.min(slice, bytes.length - offset);
+                    sleep(shaper.transferMs(length));
+                    out.write(bytes, offset, length);
+                }
+            }
+        }
+        exchange.close();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> query, String name, int fallback) {
+        String value = query.get(name);
+        return value != null ? Integer.parseInt(value) : fallback;
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.avitaliskhakov.librarychat.fake;
+
+import com.avitaliskhakov.librarychat.api.ChatApi;
+import com.avitaliskhakov.librarychat.api.ChatApiProvider;
+import com.avitaliskhakov.librarychat.api.ChatController;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Content;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.Type;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+// Drives many ChatControllers against a FakeChatServer and reports client-side throughput,
+// latency percentiles and allocation. Server threads are excluded from the allocation figure.
+public class LoadHarness {
+
+    private static final long CALL_TIMEOUT_MS = 30_000;
+
+    public static class Config {
+        int clients = 8;
+        int rooms = 4;
+        int messagesPerClient = 50;
+        int fetchesPerClient = 20;
+        int pageSize = 20;
+        int floodCalls;
+        int floodUploadBytes;
+        RequestClass floodClass = RequestClass.PREFETCH;
+
+        public Config setClients(int clients) {
+            this.clients = clients;
+            return this;
+        }
+
+        public Config setRooms(int rooms) {
+            this.rooms = rooms;
+            return this;
+        }
+
+        public Config setMessagesPerClient(int messagesPerClient) {
+            this.messagesPerClient = messagesPerClient;
+            return this;
+        }
+
+        public Config setFetchesPerClient(int fetchesPerClient) {
+            this.fetchesPerClient = fetchesPerClient;
+            return this;
+        }
+
+        public Config setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        // Keeps calls page fetches of requestClass in flight while messages are sent.
+        public Config setFlood(int calls, RequestClass requestClass) {
+            this.floodCalls = calls;
+            this.floodClass = requestClass;
+            this.floodUploadBytes = 0;
+            return this;
+        }
+
+        // Same with media uploads of the given size instead of page fetches.
+        public Config setUploadFlood(int calls, int bytes, RequestClass requestClass) {
+            setFlood(calls, requestClass);
+            this.floodUploadBytes = bytes;
+            return this;
+        }
+    }
+
+    public static class Result {
+        public final Phase send;
+        public final Phase fetch;
+        public final long clientAllocatedBytes;
+        // Flood calls completed during the send phase; null without a flood.
+        public final Phase flood;
+
+        Result(Phase send, Phase fetch, long clientAllocatedBytes, Phase flood) {
+            this.send = send;
+            this.fetch = fetch;
+            this.clientAllocatedBytes = clientAllocatedBytes;
+            this.flood = flood;
+        }
+
+        public long allocatedBytesPerCall() {
+            long calls = send.completed + fetch.completed;
+            return calls > 0 ? clientAllocatedBytes / calls : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "send  " + send + "\nfetch " + fetch
+                    + (flood != null ? "\nflood " + flood : "")
+                    + String.format(Locale.ROOT, "\nclient allocation %d KB (%d B/call)",
+                    clientAllocatedBytes / 1024, allocatedBytesPerCall());
+        }
+    }
+
+    public static class Phase {
+        public final int completed;
+        public final int failed;
+        public final long elapsedMs;
+        public final long p50Ms;
+        public final long p99Ms;
+
+        Phase(List<Long> latencies, int failed, long elapsedMs) {
+            this.completed = latencies.size();
+            this.failed = failed;
+            this.elapsedMs = elapsedMs;
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            this.p50Ms = percentile(sorted, 50);
+            this.p99Ms = percentile(sorted, 99);
+        }
+
+        public double throughputPerSecond() {
+            return elapsedMs > 0 ? completed * 1000.0 / elapsedMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d ok, %d failed, %.1f/s, p50 %d ms, p99 %d ms",
+                    completed, failed, throughputPerSecond(), p50Ms, p99Ms);
+        }
+
+        private static long percentile(List<Long> sorted, int p) {
+            if (sorted.isEmpty()) return 0;
+            int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+        }
+    }
+
+    private final FakeChatServer server;
+    private final Config config;
+
+    public LoadHarness(FakeChatServer server, Config config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    public Result run() throws InterruptedException {
+        List<String> roomIds = new ArrayList<>();
+        for (int i = 0; i < config.rooms; i++) {
+            roomIds.add(server.createRoom("Load room " + i, "user-0"));
+        }
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < config.clients; i++) {
+            clients.add(new Client("user-" + i, roomIds.get(i % roomIds.size())));
+        }
+
+        long allocatedBefore = clientAllocatedBytes();
+        Flood flood = config.floodCalls > 0 ? new Flood(roomIds.get(0)) : null;
+        if (flood != null) flood.start();
+        Phase send = runPhase(clients, Client::sendAll);
+        Phase floodPhase = flood != null ? flood.stop() : null;
+        Phase fetch = runPhase(clients, Client::fetchAll);
+        long allocated = clientAllocatedBytes() - allocatedBefore;
+        return new Result(send, fetch, Math.max(0, allocated), floodPhase);
+    }
+
+    private Phase runPhase(List<Client> clients, ClientTask task) throws InterruptedException {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong failed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(clients.size());
+        long start = System.nanoTime();
+        for (Client client : clients) {
+            Thread thread = new Thread(() -> {
+                try {
+                    task.run(client, latencies, failed);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-client-" + client.userId);
+            thread.start();
+        }
+        done.await();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        return new Phase(latencies, (int) failed.get(), elapsedMs);
+    }
+
+    // Time one media upload of the given size takes end to end, on the UPLOAD class.
+    public long measureUploadMs(int bytes) throws IOException {
+        String roomId = server.createRoom("Upload room", "user-0");
+        RequestBody body = RequestBody.create(MediaType.parse("application/octet-stream"), new byte[bytes]);
+        long start = System.nanoTime();
+        Response<Map<String, String>> response = ChatApiProvider.getInstance().api(RequestClass.UPLOAD)
+                .uploadMedia(roomId, MultipartBody.Part.createFormData("file", "upload.bin", body)).execute();
+        if (!response.isSuccessful()) throw new IOException("upload failed: " + response.code());
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // Heap retained by a decoded room history of the given size: one room, a few senders, short
+    // texts, i.e. the shape of a real page. Best of several runs to filter out GC noise.
+    public static long measureRetainedHeap(int messages, int senders) throws InterruptedException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < messages; i++) {
+            String createdAt = format.format(new Date(1_700_000_000_000L + i * 1000L));
+            if (i > 0) json.append(',');
+            json.append("{\"id\":\"65f1c2a9e4b0a1b2c3d4").append(String.format(Locale.ROOT, "%04d", i))
+                    .append("\",\"chatRoomId\":\"65f1c2a9e4b0a1b2c3d4e5f6\",\"senderId\":\"user-")
+                    .append(i % senders).append("-a1b2c3d4e5\",\"content\":{\"content\":\"message number ")
+                    .append(i).append("\",\"contentType\":\"TEXT\",\"createdAt\":\"").append(createdAt)
+                    .append("\"},\"edited\":false,\"createdAt\":\"").append(createdAt).append("\"}");
+        }
+        String body = json.append(']').toString();
+
+        Gson gson = new Gson();
+        Type listType = new TypeToken<List<Message>>() {}.getType();
+        gson.fromJson(body, listType);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            collectGarbage();
+            long before = usedHeap();
+            List<Message> decoded = gson.fromJson(body, listType);
+            collectGarbage();
+            best = Math.min(best, usedHeap() - before);
+            if (decoded.size() != messages) throw new IllegalStateException("decoded " + decoded.size());
+        }
+        return best;
+    }
+
+    private static void collectGarbage() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Bytes allocated by every live thread except the fake server's own.
+    private static long clientAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info == null || info.getThreadName().startsWith(FakeChatServer.THREAD_PREFIX)) continue;
+            long bytes = threads.getThreadAllocatedBytes(info.getThreadId());
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private interface ClientTask {
+        void run(Client client, List<Long> latencies, AtomicLong failed) throws InterruptedException;
+    }
+
+    // One simulated user: its own controller, one call in flight at a time.
+    private class Client {
+        final String userId;
+        final String roomId;
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        final ChatController controller;
+
+        Client(String userId, String roomId) {
+            this.userId = userId;
+            this.roomId = roomId;
+            this.controller = new ChatController(new QueueCallback(events));
+        }
+
+        void sendAll(List<Long> latencies, AtomicLong failed) throws InterruptedException {
+            for (int i = 0; i < config.messagesPerClient; i++) {
+                Content content = new Content(userId + " message " + i, Content.contentType.TEXT, null);
+                long start = System.nanoTime();
+                controller.sendMessage(new Message(null, roomId, userId, content));
+                record(start, latencies, failed);
+            }
+        }
+
+        void fetchAll(List<Long> latencies, AtomicLong failed) throws InterruptedException {
+            String cursor = null;
+            for (int i = 0; i < config.fetchesPerClient; i++) {
+                long start = System.nanoTime();
+                controller.fetchMessagePage(roomId, cursor, null, config.pageSize, RequestClass.VISIBLE);
+                Object event = record(start, latencies, failed);
+                if (event instanceof MessagePage) {
+                    MessagePage page = (MessagePage) event;
+                    // Walk back through history and start over at the head once it runs out.
+                    cursor = page.hasMore() ? page.getNextCursor() : null;
+                }
+            }
+        }
+
+        private Object record(long start, List<Long> latencies, AtomicLong failed) throws InterruptedException {
+            Object event = events.poll(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (event == null || event instanceof Failure) {
+                failed.incrementAndGet();
+            } else {
+                latencies.add((System.nanoTime() - start) / 1_000_000);
+            }
+            return event;
+        }
+    }
+
+    // Background page fetches or uploads that keep a request class busy: every completed call is
+    // replaced by the next one until stop(). Goes to the API directly, like any other caller
+    // sharing the class's dispatcher.
+    private class Flood {
+        final String roomId;
+        final Set<Call<?>> inFlight = ConcurrentHashMap.newKeySet();
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        final AtomicLong failed = new AtomicLong();
+        volatile boolean stopped;
+        long startedAt;
+
+        Flood(String roomId) {
+            this.roomId = roomId;
+        }
+
+        void start() {
+            startedAt = System.nanoTime();
+            for (int i = 0; i < config.floodCalls; i++) {
+                next();
+            }
+        }
+
+        Phase stop() {
+            stopped = true;
+            for (Call<?> call : inFlight) {
+                call.cancel();
+            }
+            return new Phase(latencies, (int) failed.get(), (System.nanoTime() - startedAt) / 1_000_000);
+        }
+
+        private void next() {
+            if (stopped) return;
+            ChatApi api = ChatApiProvider.getInstance().api(config.floodClass);
+            if (config.floodUploadBytes > 0) {
+                RequestBody body = RequestBody.create(MediaType.parse("application/octet-stream"),
+                        new byte[config.floodUploadBytes]);
+                enqueue(api.uploadMedia(roomId, MultipartBody.Part.createFormData("file", "flood.bin", body)));
+            } else {
+                enqueue(api.getMessagePage(roomId, null, null, config.pageSize));
+            }
+        }
+
+        private <T> void enqueue(Call<T> call) {
+            long start = System.nanoTime();
+            inFlight.add(call);
+            call.enqueue(new Callback<T>() {
+                @Override
+                public void onResponse(Call<T> c, Response<T> response) {
+                    done(c, response.isSuccessful(), start);
+                }
+
+                @Override
+                public void onFailure(Call<T> c, Throwable t) {
+                    done(c, false, start);
+                }
+            });
+        }
+
+        private void done(Call<?> call, boolean ok, long start) {
+            inFlight.remove(call);
+            if (stopped) return;
+            if (ok) {
+                latencies.add((System.nanoTime() - start) / 1_000_000);
+            } else {
+                failed.incrementAndGet();
+            }
+            next();
+        }
+    }
+
+    private static class Failure {
+        final String error;
+
+        Failure(String error) {
+            this.error = error;
+        }
+    }
+
+    private static class QueueCallback implements ChatController.CallBack_Chat {
+        private final BlockingQueue<Object> events;
+
+        QueueCallback(BlockingQueue<Object> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void success(List<Message> messages) {
+            events.add(messages);
+        }
+
+        @Override
+        public void messagePageFetched(String chatRoomId, String cursor, MessagePage page) {
+            events.add(page);
+        }
+
+        @Override
+        public void messageSent(Map<String, Message> response) {
+            events.add(response);
+        }
+
+        @Override
+        public void messageDeleted(Map<String, String> response) {
+            events.add(response);
+        }
+
+        @Override
+        public void messageUpdated(Map<String, Message> response) {
+            events.add(response);
+        }
+
+        @Override
+        public void error(String error) {
+            events.add(new Failure(error));
+        }
+
+        @Override
+        public void typingStatusUpdated(Map<String, Boolean> typingUsers) {
+            events.add(typingUsers);
+        }
+
+        @Override
+        public void chatRoomCreated(Map<String, String> response) {
+            events.add(response);
+        }
+
+        @Override
+        public void userChatRoomsFetched(List<ChatRoomInfo> chatRooms) {
+            events.add(chatRooms);
+        }
+
+        @Override
+        public void participantsFetched(List<String> participants) {
+            events.add(participants);
+        }
+    }
+}
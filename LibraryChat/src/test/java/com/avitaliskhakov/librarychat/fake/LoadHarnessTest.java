@@ -0,0 +1,171 @@
+package com.avitaliskhakov.librarychat.fake;
+
+import com.avitaliskhakov.librarychat.api.CircuitBreaker;
+import com.avitaliskhakov.librarychat.api.NetworkPolicy;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoadHarnessTest {
+
+    private FakeChatServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeChatServer(NetworkShaper.none());
+        server.start();
+        ChatConfig.setBaseUrl(server.getBaseUrl());
+        CircuitBreaker.resetAll();
+        NetworkPolicy.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ChatConfig.setBaseUrl(null);
+        CircuitBreaker.resetAll();
+        NetworkPolicy.getInstance().reset();
+    }
+
+    @Test
+    public void cleanNetwork_allCallsSucceed() throws Exception {
+        LoadHarness.Config config = new LoadHarness.Config()
+                .setClients(8)
+                .setRooms(4)
+                .setMessagesPerClient(50)
+                .setFetchesPerClient(20)
+                .setPageSize(20);
+
+        LoadHarness.Result result = new LoadHarness(server, config).run();
+        LoadReport.write("clean network", result);
+
+        assertEquals(8 * 50, result.send.completed);
+        assertEquals(0, result.send.failed);
+        assertEquals(8 * 20, result.fetch.completed);
+        assertEquals(0, result.fetch.failed);
+        assertSaneLatency(result.send);
+        assertSaneLatency(result.fetch);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(2 * 50, server.messageCount("room-" + (i + 1)));
+        }
+    }
+
+    @Test
+    public void shapedNetworkWithFaults_completesAndRetriesReads() throws Exception {
+        server.getShaper()
+                .setLatency(20, 30)
+                .setBandwidthKbps(2000)
+                .setErrorRate(0.05)
+                .setLossRate(0.02);
+        LoadHarness.Config config = new LoadHarness.Config()
+                .setClients(6)
+                .setRooms(3)
+                .setMessagesPerClient(20)
+                .setFetchesPerClient(15)
+                .setPageSize(30);
+
+        LoadHarness.Result result = new LoadHarness(server, config).run();
+        LoadReport.write("shaped network with faults", result);
+
+        // Sends are not retried, so some fail; reads go through the retry policy.
+        assertEquals(6 * 20, result.send.completed + result.send.failed);
+        assertTrue(result.send.completed > 0);
+        assertEquals(6 * 15, result.fetch.completed + result.fetch.failed);
+        assertTrue(result.fetch.failed < result.fetch.completed / 10 + 1);
+        assertTrue(result.fetch.p50Ms >= 20);
+        assertSaneLatency(result.fetch);
+        assertTrue(NetworkPolicy.getInstance().getSampleCount() > 0);
+    }
+
+    @Test
+    public void sendsUnderFetchFlood_keepTheirOwnBudget() throws Exception {
+        server.getShaper().setLatency(40, 10);
+
+        LoadHarness.Result quiet = new LoadHarness(server, floodConfig(0, RequestClass.PREFETCH)).run();
+        LoadHarness.Result prefetchFlood = new LoadHarness(server, floodConfig(32, RequestClass.PREFETCH)).run();
+        LoadHarness.Result sharedFlood = new LoadHarness(server, floodConfig(32, RequestClass.INTERACTIVE)).run();
+        LoadReport.write("sends under a fetch flood", "quiet: " + quiet.send
+                + "\n32 PREFETCH fetches in flight: " + prefetchFlood.send + "; flood " + prefetchFlood.flood
+                + "\n32 INTERACTIVE fetches in flight: " + sharedFlood.send + "; flood " + sharedFlood.flood);
+
+        assertEquals(0, prefetchFlood.send.failed);
+        assertTrue(prefetchFlood.flood.completed > 0);
+        // Prefetches queue in their own dispatcher and leave sends about where they were; sends
+        // sharing a dispatcher with the flood queue behind it.
+        assertTrue(prefetchFlood.send.p50Ms < quiet.send.p50Ms * 2);
+        assertTrue(prefetchFlood.send.p50Ms < sharedFlood.send.p50Ms);
+    }
+
+    @Test
+    public void sendsDuringUploads_keepTheirOwnBudget() throws Exception {
+        // 4 Mbps each way: a 1 MB upload takes about 2 s, a 100 KB one about 0.2 s.
+        server.getShaper().setLatency(40, 10).setBandwidthKbps(4000);
+
+        LoadHarness harness = new LoadHarness(server, new LoadHarness.Config());
+        long smallMs = harness.measureUploadMs(100 * 1024);
+        long largeMs = harness.measureUploadMs(1024 * 1024);
+        LoadHarness.Result quiet = new LoadHarness(server, uploadConfig(0, RequestClass.UPLOAD)).run();
+        LoadHarness.Result ownBudget = new LoadHarness(server, uploadConfig(4, RequestClass.UPLOAD)).run();
+        LoadHarness.Result shared = new LoadHarness(server, uploadConfig(4, RequestClass.INTERACTIVE)).run();
+        LoadReport.write("sends during uploads", "upload 100 KB: " + smallMs + " ms, 1 MB: " + largeMs + " ms"
+                + "\nquiet: " + quiet.send
+                + "\n4 x 1 MB uploads on UPLOAD: " + ownBudget.send
+                + "\n4 x 1 MB uploads on INTERACTIVE: " + shared.send + "; uploads " + shared.flood);
+
+        // Time to send follows the bytes on the wire, which is what preparing media buys.
+        assertTrue(smallMs * 3 < largeMs);
+        assertEquals(0, ownBudget.send.failed);
+        assertEquals(0, ownBudget.flood.failed);
+        assertTrue(ownBudget.send.p50Ms < quiet.send.p50Ms * 2);
+        assertTrue(ownBudget.send.p50Ms < shared.send.p50Ms);
+    }
+
+    private static LoadHarness.Config uploadConfig(int uploads, RequestClass requestClass) {
+        return floodConfig(0, RequestClass.PREFETCH)
+                .setMessagesPerClient(5)
+                .setUploadFlood(uploads, 1024 * 1024, requestClass);
+    }
+
+    private static LoadHarness.Config floodConfig(int calls, RequestClass requestClass) {
+        return new LoadHarness.Config()
+                .setClients(8)
+                .setRooms(1)
+                .setMessagesPerClient(20)
+                .setFetchesPerClient(0)
+                .setPageSize(50)
+                .setFlood(calls, requestClass);
+    }
+
+    @Test
+    public void decodedHistory_heapPer10kMessages() throws Exception {
+        long retained = LoadHarness.measureRetainedHeap(10_000, 5);
+        LoadReport.write("heap per 10k messages", retained / 1024 + " KB (" + retained / 10_000 + " B/message)");
+        // What the flat layout should retain per row with compressed references: the Message (header,
+        // six references, two longs, a byte and two booleans), its id and text strings and a list
+        // slot. Pooled room/sender IDs and unformatted timestamps add nothing. A third on top
+        // absorbs GC noise; a Content and timestamp strings per row would not fit under it.
+        long flat = align(12 + 6 * 4 + 2 * 8 + 3) + string(24) + string(19) + 6;
+        assertTrue(retained / 10_000 + " B/message", retained / 10_000 <= flat * 4 / 3);
+    }
+
+    // A compact Latin-1 String and its byte array.
+    private static long string(int length) {
+        return align(24) + align(16 + length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) / 8 * 8;
+    }
+
+    private static void assertSaneLatency(LoadHarness.Phase phase) {
+        assertTrue(phase.throughputPerSecond() > 0);
+        assertTrue(phase.p50Ms <= phase.p99Ms);
+        // Far below the harness's 30 s call timeout; anything near it means calls were stuck.
+        assertTrue("p99 " + phase.p99Ms, phase.p99Ms < 5000);
+    }
+}
@@ -0,0 +1,36 @@
+package com.avitaliskhakov.librarychat.fake;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Appends harness figures to build/reports/load-harness.txt, next to Gradle's own test reports,
+// so runs can be compared without digging through test output.
+public class LoadReport {
+
+    private static final File FILE = new File("build/reports/load-harness.txt");
+
+    public static synchronized void write(String title, Object result) {
+        File dir = FILE.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + dir);
+        }
+        String stamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT).format(new Date());
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(FILE, true),
+                StandardCharsets.UTF_8)) {
+            writer.write("[" + stamp + "] " + title + "\n" + result + "\n\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write " + FILE, e);
+        }
+    }
+
+    public static File getFile() {
+        return FILE;
+    }
+}
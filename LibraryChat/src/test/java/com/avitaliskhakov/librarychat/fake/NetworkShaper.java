@@ -0,0 +1,68 @@
+package com.avitaliskhakov.librarychat.fake;
+
+import java.util.Random;
+
+// Latency, bandwidth and fault settings applied by FakeChatServer to every response.
+public class NetworkShaper {
+
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile long bandwidthKbps;
+    private volatile double lossRate;
+    private volatile double errorRate;
+    private final Random random = new Random(42);
+
+    public static NetworkShaper none() {
+        return new NetworkShaper();
+    }
+
+    public NetworkShaper setLatency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        return this;
+    }
+
+    // 0 means unlimited.
+    public NetworkShaper setBandwidthKbps(long bandwidthKbps) {
+        this.bandwidthKbps = bandwidthKbps;
+        return this;
+    }
+
+    // Share of requests whose connection is dropped without a response.
+    public NetworkShaper setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+        return this;
+    }
+
+    // Share of requests answered with 503.
+    public NetworkShaper setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    long nextDelayMs() {
+        if (jitterMs <= 0) return latencyMs;
+        synchronized (random) {
+            return latencyMs + (long) (random.nextDouble() * jitterMs);
+        }
+    }
+
+    long transferMs(int bytes) {
+        return bandwidthKbps > 0 ? bytes * 8L / bandwidthKbps : 0;
+    }
+
+    boolean shouldDrop() {
+        return roll(lossRate);
+    }
+
+    boolean shouldFail() {
+        return roll(errorRate);
+    }
+
+    private boolean roll(double rate) {
+        if (rate <= 0) return false;
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+}
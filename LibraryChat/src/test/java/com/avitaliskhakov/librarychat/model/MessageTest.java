@@ -0,0 +1,47 @@
+package com.avitaliskhakov.librarychat.model;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageTest {
+
+    @Test
+    public void decodedMessages_areStoredFlat() {
+        String json = "[{\"id\":\"a\",\"chatRoomId\":\"room-9\",\"senderId\":\"user-1\","
+                + "\"content\":{\"content\":\"hi\",\"contentType\":\"TEXT\",\"createdAt\":\"2024-03-01T10:00:00.000Z\"},"
+                + "\"edited\":false,\"createdAt\":\"2024-03-01T10:00:00.000Z\"},"
+                + "{\"id\":\"b\",\"chatRoomId\":\"room-9\",\"senderId\":\"user-1\","
+                + "\"content\":{\"content\":\"there\",\"contentType\":\"TEXT\",\"createdAt\":\"2024-03-01T10:00:01.000Z\"},"
+                + "\"edited\":false,\"createdAt\":\"2024-03-01T10:00:01.000Z\"}]";
+        List<Message> messages = new Gson().fromJson(json, new TypeToken<List<Message>>() {}.getType());
+
+        // Room and sender IDs are pooled, timestamps parsed to millis and formatted back unchanged.
+        assertSame(messages.get(0).getChatRoomId(), messages.get(1).getChatRoomId());
+        assertSame(messages.get(0).getSenderId(), messages.get(1).getSenderId());
+        assertEquals(1000, messages.get(1).getCreatedAtMillis() - messages.get(0).getCreatedAtMillis());
+        assertEquals("2024-03-01T10:00:01.000Z", messages.get(1).getCreatedAt());
+        assertSame(messages.get(1).getCreatedAt(), messages.get(1).getCreatedAt());
+        assertEquals("there", messages.get(1).getText());
+    }
+
+    @Test
+    public void getContent_returnsACopy() {
+        Message message = new Message("a", "room-9", "user-1",
+                new Content("hi", Icontent.contentType.TEXT, "2024-03-01T10:00:00.000Z"));
+
+        Content copy = message.getContent();
+        assertNotSame(copy, message.getContent());
+        copy.setContent("changed");
+        assertEquals("hi", message.getText());
+
+        message.setContent(copy);
+        assertEquals("changed", message.getText());
+        assertEquals("2024-03-01T10:00:00.000Z", message.getContent().getCreatedAt());
+    }
+}
@@ -0,0 +1,89 @@
+package com.avitaliskhakov.librarychat.store;
+
+import com.avitaliskhakov.librarychat.api.CircuitBreaker;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.fake.FakeChatServer;
+import com.avitaliskhakov.librarychat.fake.NetworkShaper;
+import com.avitaliskhakov.librarychat.model.LinkPreview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LinkPreviewCacheTest {
+
+    private FakeChatServer server;
+    private File directory;
+    private LinkPreviewCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeChatServer(NetworkShaper.none());
+        server.start();
+        ChatConfig.setBaseUrl(server.getBaseUrl());
+        CircuitBreaker.resetAll();
+        directory = Files.createTempDirectory("previews").toFile();
+        cache = new LinkPreviewCache(directory);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ChatConfig.setBaseUrl(null);
+        CircuitBreaker.resetAll();
+        cache.clear();
+        directory.delete();
+    }
+
+    @Test
+    public void preview_isFetchedOncePerUrl() throws Exception {
+        String url = "https://example.test/article";
+        LinkPreview first = resolve(url);
+        LinkPreview second = resolve(url);
+
+        assertNotNull(first);
+        assertEquals(first.getTitle(), second.getTitle());
+        assertEquals(1, server.getUnfurlCount());
+    }
+
+    @Test
+    public void failedFetch_isNotRetriedDuringBackoff() throws Exception {
+        String url = "https://example.test/blocked";
+        assertNull(resolve(url));
+        assertNull(resolve(url));
+        assertNull(resolve(url));
+
+        assertEquals(1, server.getUnfurlCount());
+    }
+
+    @Test
+    public void concurrentCallers_shareOneFetch() throws Exception {
+        String url = "https://example.test/shared";
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            cache.resolve(url, (resolved, preview) -> done.countDown());
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getUnfurlCount());
+    }
+
+    private LinkPreview resolve(String url) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<LinkPreview> result = new AtomicReference<>();
+        cache.resolve(url, (resolved, preview) -> {
+            result.set(preview);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+}
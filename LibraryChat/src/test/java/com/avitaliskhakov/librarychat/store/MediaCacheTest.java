@@ -0,0 +1,156 @@
+package com.avitaliskhakov.librarychat.store;
+
+import com.avitaliskhakov.librarychat.api.CircuitBreaker;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.fake.FakeChatServer;
+import com.avitaliskhakov.librarychat.fake.NetworkShaper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MediaCacheTest {
+
+    private FakeChatServer server;
+    private File directory;
+    private File sources;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeChatServer(NetworkShaper.none());
+        server.start();
+        ChatConfig.setBaseUrl(server.getBaseUrl());
+        CircuitBreaker.resetAll();
+        directory = Files.createTempDirectory("media-cache").toFile();
+        sources = Files.createTempDirectory("media-sources").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ChatConfig.setBaseUrl(null);
+        CircuitBreaker.resetAll();
+        delete(directory);
+        delete(sources);
+    }
+
+    @Test
+    public void chunk_isFetchedOnceWithARange() throws Exception {
+        byte[] bytes = bytes(MediaCache.CHUNK_SIZE * 2 + 100, 1);
+        String url = server.seedMedia(bytes);
+        MediaCache cache = new MediaCache(directory, Long.MAX_VALUE);
+
+        long before = server.getRequestCount();
+        byte[] second = cache.readChunk(url, 1, RequestClass.VISIBLE);
+        assertArrayEquals(Arrays.copyOfRange(bytes, MediaCache.CHUNK_SIZE, MediaCache.CHUNK_SIZE * 2), second);
+        assertArrayEquals(second, cache.readChunk(url, 1, RequestClass.VISIBLE));
+        assertEquals(bytes.length, cache.getLength(url, RequestClass.VISIBLE));
+        assertEquals(1, server.getRequestCount() - before);
+
+        assertEquals(100, cache.readChunk(url, 2, RequestClass.VISIBLE).length);
+        assertEquals(0, cache.readChunk(url, 3, RequestClass.VISIBLE).length);
+        assertFalse(cache.isCached(url, 0));
+    }
+
+    @Test
+    public void rewrittenChunks_areCountedOnce() throws Exception {
+        File source = file("source", bytes(MediaCache.CHUNK_SIZE + 10, 2));
+        MediaCache cache = new MediaCache(directory, Long.MAX_VALUE);
+
+        cache.importFile("http://example.test/a", source);
+        long once = cache.getSizeBytes();
+        cache.importFile("http://example.test/a", source);
+
+        assertEquals(once, cache.getSizeBytes());
+        assertEquals(onDisk(), cache.getSizeBytes());
+        assertEquals(onDisk(), new MediaCache(directory, Long.MAX_VALUE).getSizeBytes());
+    }
+
+    @Test
+    public void trim_evictsLeastRecentlyUsedWithItsLength() throws Exception {
+        MediaCache cache = new MediaCache(directory, 2500);
+        cache.importFile("http://example.test/a", file("a", bytes(1000, 3)));
+        cache.importFile("http://example.test/b", file("b", bytes(1000, 4)));
+        age(2);
+
+        // Reading a brings it back to the front, so b is the one to go.
+        cache.readChunk("http://example.test/a", 0, RequestClass.VISIBLE);
+        cache.importFile("http://example.test/c", file("c", bytes(1000, 5)));
+
+        assertTrue(cache.isCached("http://example.test/a", 0));
+        assertFalse(cache.isCached("http://example.test/b", 0));
+        assertTrue(cache.isCached("http://example.test/c", 0));
+        // b's length record went with its only chunk.
+        assertEquals(4, directory.listFiles().length);
+        assertEquals(onDisk(), cache.getSizeBytes());
+        assertTrue(cache.getSizeBytes() <= 2500);
+    }
+
+    @Test
+    public void trim_leavesPartialFilesAlone() throws Exception {
+        MediaCache cache = new MediaCache(directory, 1500);
+        File partial = new File(directory, "0000-0.7.part");
+        try (OutputStream out = new FileOutputStream(partial)) {
+            out.write(bytes(5000, 6));
+        }
+        partial.setLastModified(System.currentTimeMillis() - 60_000);
+
+        cache.importFile("http://example.test/a", file("a", bytes(1000, 7)));
+        cache.importFile("http://example.test/b", file("b", bytes(1000, 8)));
+
+        assertTrue(partial.exists());
+        assertEquals(onDisk() - partial.length(), cache.getSizeBytes());
+        assertTrue(cache.getSizeBytes() <= 1500);
+    }
+
+    // Makes everything currently in the cache look unused for a while.
+    private void age(int seconds) {
+        for (File file : directory.listFiles()) {
+            file.setLastModified(file.lastModified() - seconds * 1000L);
+        }
+    }
+
+    private long onDisk() {
+        long total = 0;
+        for (File file : directory.listFiles()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    private File file(String name, byte[] bytes) throws IOException {
+        File file = new File(sources, name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+}
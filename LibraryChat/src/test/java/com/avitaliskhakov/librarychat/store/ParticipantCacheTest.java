@@ -0,0 +1,184 @@
+package com.avitaliskhakov.librarychat.store;
+
+import com.avitaliskhakov.librarychat.api.ChatApiProvider;
+import com.avitaliskhakov.librarychat.api.CircuitBreaker;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.fake.FakeChatServer;
+import com.avitaliskhakov.librarychat.fake.NetworkShaper;
+import com.avitaliskhakov.librarychat.model.ParticipantPage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class ParticipantCacheTest {
+
+    private FakeChatServer server;
+    private final AtomicLong now = new AtomicLong(1_000);
+    private ParticipantCache cache;
+    private String roomId;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeChatServer(NetworkShaper.none());
+        server.start();
+        ChatConfig.setBaseUrl(server.getBaseUrl());
+        CircuitBreaker.resetAll();
+        cache = new ParticipantCache(now::get);
+        roomId = server.createRoom("Room", "alice");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ChatConfig.setBaseUrl(null);
+        CircuitBreaker.resetAll();
+    }
+
+    @Test
+    public void notMemberAnswer_isAskedAgainOnceStale() throws Exception {
+        assertEquals(Boolean.FALSE, isParticipant("bob"));
+        addOnServer("bob");
+        long requests = server.getRequestCount();
+
+        now.addAndGet(ParticipantCache.NOT_MEMBER_TTL_MS - 1);
+        assertEquals(Boolean.FALSE, isParticipant("bob"));
+        assertEquals(requests, server.getRequestCount());
+
+        now.addAndGet(1);
+        assertNull(cache.isParticipantCached(roomId, "bob"));
+        assertEquals(Boolean.TRUE, isParticipant("bob"));
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void completeRoom_isLoadedAgainOnceStale() throws Exception {
+        addOnServer("bob");
+        assertFalse(nextPage(10).hasMore());
+        assertTrue(cache.isComplete(roomId));
+        assertEquals(Boolean.FALSE, cache.isParticipantCached(roomId, "carol"));
+
+        addOnServer("carol");
+        long requests = server.getRequestCount();
+        assertTrue(nextPage(10).getParticipants().isEmpty());
+        assertEquals(requests, server.getRequestCount());
+
+        now.addAndGet(ParticipantCache.COMPLETE_TTL_MS);
+        assertFalse(cache.isComplete(roomId));
+        assertNull(cache.isParticipantCached(roomId, "carol"));
+
+        assertEquals(Arrays.asList("alice", "bob", "carol"), nextPage(10).getParticipants());
+        assertTrue(cache.isComplete(roomId));
+        assertEquals(Boolean.TRUE, cache.isParticipantCached(roomId, "carol"));
+    }
+
+    @Test
+    public void loadPage_fillsTheCacheAndAnswersSmallCompleteRooms() throws Exception {
+        addOnServer("bob", "carol", "dave");
+        ParticipantPage first = page(null, 2);
+        ParticipantPage second = page(first.getNextCursor(), 2);
+        assertFalse(second.hasMore());
+        assertTrue(cache.isComplete(roomId));
+        assertEquals(Boolean.TRUE, cache.isParticipantCached(roomId, "dave"));
+
+        long requests = server.getRequestCount();
+        assertEquals(Arrays.asList("alice", "bob", "carol", "dave"), page(null, 10).getParticipants());
+        assertEquals(requests, server.getRequestCount());
+        // Too many for one page, so the server is asked for its first page.
+        assertEquals(Arrays.asList("alice", "bob"), page(null, 2).getParticipants());
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void pageOutOfOrder_keepsMembersButNotTheCursor() throws Exception {
+        addOnServer("bob", "carol", "dave");
+        ParticipantPage first = page(null, 2);
+        cache.invalidate(roomId);
+
+        page(first.getNextCursor(), 2);
+        assertEquals(Boolean.TRUE, cache.isParticipantCached(roomId, "dave"));
+        assertFalse(cache.isComplete(roomId));
+        // Nothing before that page is loaded any more, so paging starts from the first one.
+        assertEquals(Arrays.asList("alice", "bob"), nextPage(2).getParticipants());
+    }
+
+    @Test
+    public void addParticipants_growsALoadedRoomWithoutAnswers() throws Exception {
+        nextPage(10);
+        long oneMember = cache.sizeBytes();
+
+        cache.addParticipants(roomId, Arrays.asList("bob", "carol"));
+        assertEquals(3 * oneMember, cache.sizeBytes());
+        assertEquals(Boolean.TRUE, cache.isParticipantCached(roomId, "bob"));
+
+        String otherId = server.createRoom("Other", "zoe");
+        cache.addParticipants(otherId, Arrays.asList("bob"));
+        assertEquals(Boolean.TRUE, cache.isParticipantCached(otherId, "bob"));
+    }
+
+    @Test
+    public void trim_dropsAnswersBeforeRooms() throws Exception {
+        String otherId = server.createRoom("Other", "zoe");
+        nextPage(10);
+        long roomBytes = cache.sizeBytes();
+        assertEquals(Boolean.FALSE, isParticipant(otherId, "bob"));
+
+        cache.trimToBytes(roomBytes);
+        assertNull(cache.isParticipantCached(otherId, "bob"));
+        assertTrue(cache.isComplete(roomId));
+
+        cache.trimToBytes(0);
+        assertEquals(0, cache.sizeBytes());
+        assertFalse(cache.isComplete(roomId));
+    }
+
+    private void addOnServer(String... userIds) throws Exception {
+        assertTrue(ChatApiProvider.getInstance().api(RequestClass.INTERACTIVE)
+                .addParticipants(roomId, Arrays.asList(userIds)).execute().isSuccessful());
+    }
+
+    private Boolean isParticipant(String userId) throws Exception {
+        return isParticipant(roomId, userId);
+    }
+
+    private Boolean isParticipant(String chatRoomId, String userId) throws Exception {
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        cache.isParticipant(chatRoomId, userId, (room, user, isParticipant) -> {
+            result.set(isParticipant);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private ParticipantPage nextPage(int limit) throws Exception {
+        return await(callback -> cache.loadNextPage(roomId, limit, callback));
+    }
+
+    private ParticipantPage page(String cursor, int limit) throws Exception {
+        return await(callback -> cache.loadPage(roomId, cursor, limit, callback));
+    }
+
+    private static ParticipantPage await(Consumer<ParticipantCache.PageCallback> load) throws Exception {
+        AtomicReference<ParticipantPage> result = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        load.accept((room, page) -> {
+            result.set(page);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(result.get());
+        return result.get();
+    }
+}
@@ -0,0 +1,129 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.avitaliskhakov.librarychat.model.Content;
+import com.avitaliskhakov.librarychat.model.Icontent;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageMergePipelineTest {
+
+    @Test
+    public void sort_putsOldestFirstAndBreaksTiesById() {
+        MessagePage page = new MessagePage(Arrays.asList(
+                message("c", "2024-03-01T10:02:00.000Z"),
+                message("b", "2024-03-01T10:00:00.000Z"),
+                message("a", "2024-03-01T10:00:00.000Z")), null, false);
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(MessageMergePipeline.sort(page)));
+        // The page itself is left as the server sent it.
+        assertEquals("c", page.getMessages().get(0).getId());
+    }
+
+    @Test
+    public void dedupe_dropsRepeatsAndRowsAlreadyShown() {
+        MessageWindow window = new MessageWindow(new ArrayList<>(), 5, () -> 10, (cursor, page) -> {});
+        window.prependOlder(0, null, Arrays.asList(message("c", "2024-03-01T10:02:00.000Z")));
+
+        List<Message> sorted = Arrays.asList(
+                message("a", "2024-03-01T10:00:00.000Z"),
+                message("a", "2024-03-01T10:00:00.000Z"),
+                message("b", "2024-03-01T10:01:00.000Z"),
+                message("c", "2024-03-01T10:02:00.000Z"));
+
+        assertEquals(Arrays.asList("a", "b"), ids(MessageMergePipeline.dedupe(sorted, window)));
+    }
+
+    @Test
+    public void diff_isNullForTheSameIds() {
+        List<Message> shown = Arrays.asList(message("a", "2024-03-01T10:00:00.000Z"),
+                message("b", "2024-03-01T10:01:00.000Z"));
+        List<Message> fetched = Arrays.asList(message("a", "2024-03-01T10:00:00.000Z"),
+                message("b", "2024-03-01T10:01:00.000Z"));
+
+        assertNull(MessageMergePipeline.diff(shown, fetched));
+    }
+
+    @Test
+    public void diff_reportsInsertsRemovalsAndEdits() {
+        List<Message> shown = Arrays.asList(
+                message("a", "2024-03-01T10:00:00.000Z"),
+                message("b", "2024-03-01T10:01:00.000Z"),
+                message("c", "2024-03-01T10:02:00.000Z"));
+        Message edited = message("c", "2024-03-01T10:05:00.000Z");
+        edited.setEdited(true);
+        List<Message> fetched = Arrays.asList(
+                message("b", "2024-03-01T10:01:00.000Z"),
+                edited,
+                message("d", "2024-03-01T10:03:00.000Z"));
+
+        DiffUtil.DiffResult diff = MessageMergePipeline.diff(shown, fetched);
+        assertNotNull(diff);
+        // Replaying the updates on the shown ids has to give the fetched order, with c changed.
+        Replay replay = new Replay(ids(shown));
+        diff.dispatchUpdatesTo(replay);
+
+        assertEquals(Arrays.asList("b", "c", Replay.INSERTED), replay.ids);
+        assertEquals(Arrays.asList("c"), replay.changed);
+        assertEquals(DiffUtil.DiffResult.NO_POSITION, diff.convertOldPositionToNew(0));
+        assertEquals(0, diff.convertOldPositionToNew(1));
+        assertEquals(1, diff.convertOldPositionToNew(2));
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    private static Message message(String id, String createdAt) {
+        Message message = new Message(id, "room", "sender", new Content(id, Icontent.contentType.TEXT, createdAt));
+        message.setCreatedAt(createdAt);
+        return message;
+    }
+
+    private static class Replay implements ListUpdateCallback {
+        static final String INSERTED = "+";
+
+        final List<String> ids;
+        final List<String> changed = new ArrayList<>();
+
+        Replay(List<String> ids) {
+            this.ids = new ArrayList<>(ids);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            for (int i = 0; i < count; i++) {
+                ids.add(position, INSERTED);
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            ids.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            ids.add(toPosition, ids.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed.addAll(ids.subList(position, position + count));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import com.avitaliskhakov.librarychat.api.ChatApi;
+import com.avitaliskhakov.librarychat.api.ChatApiProvider;
+import com.avitaliskhakov.librarychat.api.CircuitBreaker;
+import com.avitaliskhakov.librarychat.api.RequestClass;
+import com.avitaliskhakov.librarychat.config.ChatConfig;
+import com.avitaliskhakov.librarychat.fake.FakeChatServer;
+import com.avitaliskhakov.librarychat.fake.NetworkShaper;
+import com.avitaliskhakov.librarychat.model.Message;
+import com.avitaliskhakov.librarychat.model.MessagePage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MessageWindowTest {
+
+    // Splits the burst below into pages whose boundaries all fall between equal timestamps.
+    private static final int PAGE_SIZE = 7;
+
+    private FakeChatServer server;
+    private ChatApi api;
+    private String roomId;
+    // Oldest first, like the adapter list.
+    private final List<Message> seeded = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeChatServer(NetworkShaper.none());
+        server.start();
+        ChatConfig.setBaseUrl(server.getBaseUrl());
+        CircuitBreaker.resetAll();
+        api = ChatApiProvider.getInstance().api(RequestClass.VISIBLE);
+
+        roomId = server.createRoom("paging", "alice");
+        seeded.add(server.seedMessage(roomId, "alice", "before"));
+        List<Message> burst = new ArrayList<>(server.seedBurst(roomId, "bob", 23));
+        burst.sort(Message.BY_CREATED_AT);
+        seeded.addAll(burst);
+        seeded.add(server.seedMessage(roomId, "alice", "after"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ChatConfig.setBaseUrl(null);
+        CircuitBreaker.resetAll();
+    }
+
+    @Test
+    public void keysetPages_neitherRepeatNorSkipTiedTimestamps() throws Exception {
+        // Walk the room the way ChatRoomActivity does.
+        List<Message> shown = new ArrayList<>();
+        MessageWindow window = new MessageWindow(shown, 100, () -> PAGE_SIZE, (cursor, page) -> {});
+        int pages = 0;
+        while (!window.hasReachedStart()) {
+            loadOlder(window);
+            assertTrue("no end after " + pages + " pages", ++pages <= 10);
+        }
+
+        assertEquals(4, pages);
+        assertEquals(ids(seeded), ids(shown));
+        assertInOrder(shown);
+    }
+
+    @Test
+    public void reloadedPages_splitTiedTimestampsAtTheSameRows() throws Exception {
+        // Two pages at a time: walking to the start drops the newest pages, walking back down
+        // reloads them from the cursors remembered on the way up.
+        List<Message> shown = new ArrayList<>();
+        MessageWindow window = new MessageWindow(shown, 2, () -> PAGE_SIZE, (cursor, page) -> {});
+        while (!window.hasReachedStart()) {
+            loadOlder(window);
+        }
+        assertEquals(ids(seeded.subList(0, 11)), ids(shown));
+
+        loadNewer(window);
+        assertEquals(ids(seeded.subList(4, 18)), ids(shown));
+        loadNewer(window);
+        assertEquals(ids(seeded.subList(11, 25)), ids(shown));
+        assertTrue(window.isShowingLatest());
+
+        // Page 2 was dropped on the way down too; its boundary with page 1 sits inside the burst.
+        loadOlder(window);
+        assertEquals(ids(seeded.subList(4, 18)), ids(shown));
+        assertInOrder(shown);
+    }
+
+    private void loadOlder(MessageWindow window) throws Exception {
+        int index = window.olderPageIndex();
+        String cursor = window.cursorFor(index);
+        MessagePage page = fetch(cursor, window.getPageSize());
+        List<Message> sorted = sorted(page);
+        assertEquals("page " + index + " repeated rows", sorted.size(), window.prependOlder(index, cursor, sorted));
+        window.rememberNext(index, page.getNextCursor(), page.hasMore());
+    }
+
+    private void loadNewer(MessageWindow window) throws Exception {
+        int index = window.newerPageIndex();
+        assertTrue(window.isKnownPage(index));
+        String cursor = window.cursorFor(index);
+        List<Message> sorted = sorted(fetch(cursor, window.getPageSize()));
+        assertEquals("page " + index + " repeated rows", sorted.size(), window.appendNewer(index, cursor, sorted));
+    }
+
+    private MessagePage fetch(String cursor, int pageSize) throws Exception {
+        return api.getMessagePage(roomId, cursor, null, pageSize).execute().body();
+    }
+
+    private static List<Message> sorted(MessagePage page) {
+        List<Message> sorted = new ArrayList<>(page.getMessages());
+        sorted.sort(Message.BY_CREATED_AT);
+        return sorted;
+    }
+
+    private static void assertInOrder(List<Message> shown) {
+        Set<String> unique = new HashSet<>();
+        for (int i = 0; i < shown.size(); i++) {
+            assertTrue("repeated " + shown.get(i).getId(), unique.add(shown.get(i).getId()));
+            if (i > 0) {
+                assertTrue(Message.BY_CREATED_AT.compare(shown.get(i - 1), shown.get(i)) < 0);
+            }
+        }
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+}
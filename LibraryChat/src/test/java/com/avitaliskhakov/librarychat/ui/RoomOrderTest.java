@@ -0,0 +1,95 @@
+package com.avitaliskhakov.librarychat.ui;
+
+import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
+import com.avitaliskhakov.librarychat.model.Content;
+import com.avitaliskhakov.librarychat.model.Icontent;
+import com.avitaliskhakov.librarychat.model.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RoomOrderTest {
+
+    private RoomOrder order;
+
+    @Before
+    public void setUp() {
+        order = new RoomOrder();
+    }
+
+    @Test
+    public void put_keepsMostRecentFirstWithTiesById() {
+        order.put(room("b", "2024-03-01T10:00:00.000Z"));
+        order.put(room("c", "2024-03-01T12:00:00.000Z"));
+        order.put(room("a", "2024-03-01T10:00:00.000Z"));
+        order.put(room("d", null));
+
+        assertEquals(Arrays.asList("c", "a", "b", "d"), ids());
+    }
+
+    @Test
+    public void put_movesAKnownRoomInsteadOfAddingIt() {
+        order.put(room("a", "2024-03-01T10:00:00.000Z"));
+        order.put(room("b", "2024-03-01T11:00:00.000Z"));
+        order.put(room("a", "2024-03-01T12:00:00.000Z"));
+
+        assertEquals(Arrays.asList("a", "b"), ids());
+        assertEquals(2, order.size());
+    }
+
+    @Test
+    public void merge_keepsTheNewerCopy() {
+        order.put(room("a", "2024-03-01T12:00:00.000Z"));
+        order.put(room("b", "2024-03-01T11:00:00.000Z"));
+
+        // A later page still carries a's old position.
+        order.merge(room("a", "2024-03-01T09:00:00.000Z"));
+        order.merge(room("c", "2024-03-01T10:00:00.000Z"));
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids());
+        assertEquals("2024-03-01T12:00:00.000Z", order.get("a").getLastActivityAt());
+    }
+
+    @Test
+    public void onMessage_movesTheRoomUpOnlyForNewerMessages() {
+        order.put(room("a", "2024-03-01T10:00:00.000Z"));
+        order.put(room("b", "2024-03-01T11:00:00.000Z"));
+
+        assertFalse(order.onMessage(message("a", "2024-03-01T09:00:00.000Z")));
+        assertEquals(Arrays.asList("b", "a"), ids());
+
+        assertTrue(order.onMessage(message("a", "2024-03-01T12:00:00.000Z")));
+        assertEquals(Arrays.asList("a", "b"), ids());
+        assertEquals("2024-03-01T12:00:00.000Z", order.get("a").getLastActivityAt());
+
+        assertFalse(order.onMessage(message("unknown", "2024-03-01T13:00:00.000Z")));
+        assertFalse(order.contains("unknown"));
+    }
+
+    private List<String> ids() {
+        List<String> ids = new ArrayList<>();
+        for (ChatRoomInfo room : order.rooms()) {
+            ids.add(room.getId());
+        }
+        return ids;
+    }
+
+    private static ChatRoomInfo room(String id, String lastActivityAt) {
+        ChatRoomInfo room = new ChatRoomInfo(id, "Room " + id);
+        room.setLastActivityAt(lastActivityAt);
+        return room;
+    }
+
+    private static Message message(String chatRoomId, String createdAt) {
+        Message message = new Message("m-" + createdAt, chatRoomId, "sender",
+                new Content("hi", Icontent.contentType.TEXT, createdAt));
+        message.setCreatedAt(createdAt);
+        return message;
+    }
+}
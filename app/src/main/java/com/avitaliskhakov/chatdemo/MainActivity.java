@@ -6,11 +6,17 @@ import android.util.Log;
 import android.widget.*;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import com.avitaliskhakov.librarychat.config.ChatConfig;
 import com.avitaliskhakov.librarychat.api.ChatController;
+import com.avitaliskhakov.librarychat.api.ChatSdk;
+import com.avitaliskhakov.librarychat.api.RecentRoomsSync;
 import com.avitaliskhakov.librarychat.config.ChatEventsListener;
 import com.avitaliskhakov.librarychat.ui.ChatRoomActivity;
+import com.avitaliskhakov.librarychat.ui.RoomListAdapter;
+import com.avitaliskhakov.librarychat.ui.RoomListController;
 import com.avitaliskhakov.librarychat.model.ChatRoomInfo;
 import com.avitaliskhakov.librarychat.config.ChatStyle;
 import com.avitaliskhakov.librarychat.model.Message;
@@ -23,15 +29,15 @@ public class MainActivity extends AppCompatActivity {
 
     private EditText usernameInput;
     private Button loginButton;
-    private ListView chatRoomsListView;
+    private RecyclerView chatRoomsList;
     private Button createRoomButton;
+    private CheckBox backgroundSyncCheckBox;
 
     private String currentUserId;
     private ChatController chatController;
-    private ArrayAdapter<String> adapter;
-
-    private final List<ChatRoomInfo> chatRooms = new ArrayList<>();
-    private final List<String> roomTitles = new ArrayList<>();
+    private RoomListAdapter adapter;
+    // Pages the user's rooms in and keeps them ordered as messages and new rooms arrive.
+    private RoomListController roomList;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -40,11 +46,13 @@ public class MainActivity extends AppCompatActivity {
 
         usernameInput = findViewById(R.id.usernameInput);
         loginButton = findViewById(R.id.loginButton);
-        chatRoomsListView = findViewById(R.id.chatRoomsListView);
+        chatRoomsList = findViewById(R.id.chatRoomsList);
         createRoomButton = findViewById(R.id.createRoomButton);
+        backgroundSyncCheckBox = findViewById(R.id.backgroundSyncCheckBox);
 
-        adapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, roomTitles);
-        chatRoomsListView.setAdapter(adapter);
+        chatRoomsList.setLayoutManager(new LinearLayoutManager(this));
+        chatRoomsList.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        adapter = new RoomListAdapter(room -> openChatRoom(room.getId()));
 
         ChatStyle style = new ChatStyle(
                 ContextCompat.getColor(this, R.color.bubble_self),
@@ -54,13 +62,14 @@ public class MainActivity extends AppCompatActivity {
                 ContextCompat.getColor(this, R.color.chat_background),
                 ContextCompat.getColor(this, R.color.accent)
         );
-        ChatConfig.setStyle(style);
-        ChatConfig.setChatEventsListener(new ChatEventsListener() {
-            @Override
-            public void onMessagesSeen(String chatRoomId, String lastMessageTimestamp) {
+        ChatSdk.initialize(this, new ChatSdk.Options()
+                .setStyle(style)
+                .setChatEventsListener(new ChatEventsListener() {
+                    @Override
+                    public void onMessagesSeen(String chatRoomId, String lastMessageTimestamp) {
 
-            }
-        });
+                    }
+                }));
 
         loginButton.setOnClickListener(v -> {
             String userId = usernameInput.getText().toString().trim();
@@ -68,9 +77,13 @@ public class MainActivity extends AppCompatActivity {
                 currentUserId = userId;
                 initChatController();
                 fetchUserRooms();
+                updateBackgroundSync();
             }
         });
 
+        // Off unless the user asks for it; the job uses their network and battery while idle.
+        backgroundSyncCheckBox.setOnCheckedChangeListener((button, checked) -> updateBackgroundSync());
+
         createRoomButton.setOnClickListener(v -> {
             if (currentUserId != null) {
                 String title = "Room by " + currentUserId;
@@ -78,10 +91,22 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        chatRoomsListView.setOnItemClickListener((parent, view, position, id) -> {
-            String roomId = chatRooms.get(position).getId();
-            openChatRoom(roomId);
-        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (roomList != null) {
+            roomList.release();
+        }
+    }
+
+    private void updateBackgroundSync() {
+        if (currentUserId != null && backgroundSyncCheckBox.isChecked()) {
+            RecentRoomsSync.enable(this, currentUserId, new RecentRoomsSync.Budget());
+        } else {
+            RecentRoomsSync.disable(this);
+        }
     }
 
     private void initChatController() {
@@ -104,20 +129,7 @@ public class MainActivity extends AppCompatActivity {
                 openChatRoom(newRoomId);
             }
 
-            @Override
-            public void userChatRoomsFetched(List<ChatRoomInfo> rooms) {
-                runOnUiThread(() -> {
-                    chatRooms.clear();
-                    chatRooms.addAll(rooms);
-
-                    roomTitles.clear();
-                    for (ChatRoomInfo room : rooms) {
-                        roomTitles.add(room.getTitle());
-                    }
-
-                    adapter.notifyDataSetChanged();
-                });
-            }
+            @Override public void userChatRoomsFetched(List<ChatRoomInfo> rooms) {}
 
             @Override public void participantsFetched(List<String> participants) {}
 
@@ -129,9 +141,18 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void fetchUserRooms() {
-        if (chatController != null) {
-            chatController.getUserChatRooms(currentUserId);
+        if (roomList != null) {
+            roomList.release();
         }
+        roomList = new RoomListController(currentUserId, adapter, 30);
+        roomList.setListener(new RoomListController.Listener() {
+            @Override
+            public void onError(String error) {
+                Log.e("MainActivity", "Error loading rooms: " + error);
+            }
+        });
+        roomList.attach(chatRoomsList);
+        roomList.refresh();
     }
 
     private void openChatRoom(String roomId) {